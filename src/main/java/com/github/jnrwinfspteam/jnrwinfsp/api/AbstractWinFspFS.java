@@ -30,6 +30,7 @@ public abstract class AbstractWinFspFS implements Mountable, WinFspFS {
     private final Object mountLock;
     private boolean mounted;
     private final Set<String> notImplementedMethods;
+    private final VolumeInfoCache volumeInfoCache;
 
     private FSHelper fsHelper;
     private Pointered<FSP_FSCTL_VOLUME_PARAMS> volumeParamsP;
@@ -39,10 +40,18 @@ public abstract class AbstractWinFspFS implements Mountable, WinFspFS {
     public AbstractWinFspFS() {
         this.mountLock = new Object();
         this.mounted = false;
-        this.notImplementedMethods = Arrays.stream(this.getClass().getMethods())
+        // a method name counts as not implemented only if none of its overloads is implemented
+        Method[] methods = this.getClass().getMethods();
+        Set<String> implementedMethods = Arrays.stream(methods)
+                .filter(method -> method.getAnnotation(NotImplemented.class) == null)
+                .map(Method::getName)
+                .collect(Collectors.toSet());
+        this.notImplementedMethods = Arrays.stream(methods)
                 .filter(method -> method.getAnnotation(NotImplemented.class) != null)
                 .map(Method::getName)
+                .filter(name -> !implementedMethods.contains(name))
                 .collect(Collectors.toUnmodifiableSet());
+        this.volumeInfoCache = new VolumeInfoCache();
 
         this.fsHelper = null;
         this.volumeParamsP = null;
@@ -129,6 +138,22 @@ public abstract class AbstractWinFspFS implements Mountable, WinFspFS {
         }
     }
 
+    /**
+     * Publishes the current volume information, which then answers volume queries without calling
+     * {@link #getVolumeInfo()} until it is older than the "volume info max age" option (see
+     * {@link MountOptions#setVolumeInfoMaxAge}, which is 0 by default: then every query calls it). The information
+     * returned by {@link #getVolumeInfo()} and {@link #setVolumeLabel} is published in the same way, except that
+     * information returned by {@link #getVolumeInfo()} never replaces information published during the call.
+     * <p>
+     * A file system can call this method (from any thread, and without blocking) whenever its volume information
+     * changes, so that queries see the change before the published information gets stale.
+     *
+     * @param volumeInfo The current volume information
+     */
+    protected final void publishVolumeInfo(VolumeInfo volumeInfo) {
+        volumeInfoCache.publish(Objects.requireNonNull(volumeInfo));
+    }
+
     private void initVolumeParams(Runtime runtime, MountOptions options) {
         volumeParamsP = FSP_FSCTL_VOLUME_PARAMS.create(runtime);
         FSP_FSCTL_VOLUME_PARAMS vp = volumeParamsP.get();
@@ -151,6 +176,9 @@ public abstract class AbstractWinFspFS implements Mountable, WinFspFS {
         vp.setFileSystemAttribute(FSAttr.AllowOpenInKernelMode, true);
         vp.setFileSystemAttribute(FSAttr.RejectIrpPriorToTransact0, true);
         vp.setFileSystemAttribute(FSAttr.WslFeatures, options.hasWslFeatures());
+        vp.setFileSystemAttribute(FSAttr.ExtendedAttributes, isImplemented("getEa"));
+        vp.setFileSystemAttribute(FSAttr.NamedStreams, isImplemented("getStreamInfo"));
+        vp.setFileSystemAttribute(FSAttr.ReadOnlyVolume, options.isReadOnly());
 
         switch (options.getCaseOption()) {
             case CASE_SENSITIVE:
@@ -169,7 +197,7 @@ public abstract class AbstractWinFspFS implements Mountable, WinFspFS {
     }
 
     private void initFSInterface(Runtime runtime, MountOptions options) throws MountException {
-        fsHelper = new FSHelper(this, options);
+        fsHelper = new FSHelper(this, volumeInfoCache, options);
         fsInterfaceP = FSP_FILE_SYSTEM_INTERFACE.create(runtime);
         FSP_FILE_SYSTEM_INTERFACE fsi = fsInterfaceP.get();
 
@@ -183,7 +211,9 @@ public abstract class AbstractWinFspFS implements Mountable, WinFspFS {
             fsHelper.initCreateEx(fsi);
         if (isImplemented("open"))
             fsHelper.initOpen(fsi);
-        if (isImplemented("overwrite"))
+        if (isImplemented("overwrite") && isImplemented("getEa"))
+            fsHelper.initOverwriteEx(fsi);
+        else if (isImplemented("overwrite"))
             fsHelper.initOverwrite(fsi);
         if (isImplemented("cleanup"))
             fsHelper.initCleanup(fsi);
@@ -213,6 +243,8 @@ public abstract class AbstractWinFspFS implements Mountable, WinFspFS {
             fsHelper.initReadDirectory(fsi);
         if (isImplemented("getDirInfoByName"))
             fsHelper.initGetDirInfoByName(fsi);
+        if (isImplemented("getStreamInfo"))
+            fsHelper.initGetStreamInfo(fsi);
         if (isImplemented("getReparsePointData"))
             fsHelper.initResolveReparsePoints(fsi);
         if (isImplemented("getReparsePointData"))
@@ -221,6 +253,10 @@ public abstract class AbstractWinFspFS implements Mountable, WinFspFS {
             fsHelper.initSetReparsePoint(fsi);
         if (isImplemented("getReparsePointData") && isImplemented("deleteReparsePoint"))
             fsHelper.initDeleteReparsePoint(fsi);
+        if (isImplemented("getEa"))
+            fsHelper.initGetEa(fsi);
+        if (isImplemented("getEa") && isImplemented("setEa"))
+            fsHelper.initSetEa(fsi);
     }
 
     private boolean isImplemented(String funcName) {
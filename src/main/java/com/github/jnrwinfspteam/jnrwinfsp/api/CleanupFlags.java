@@ -14,25 +14,35 @@ public enum CleanupFlags implements EnumMapper.IntegerEnum {
     SET_LAST_WRITE_TIME(0x40),
     SET_CHANGE_TIME(0x80);
 
-    private static final Set<CleanupFlags> ALL_VALUES = EnumSet.allOf(CleanupFlags.class);
+    // all flags fit in the low byte, so every possible value is cached
+    private static final IntFlags<CleanupFlags>[] CACHED_FLAGS = cacheFlags();
 
     public static int intOf(Set<CleanupFlags> flags) {
-        int intValue = 0;
-        for (var f : flags) {
-            intValue |= f.intValue();
-        }
-
-        return intValue;
+        return IntFlags.intOf(flags);
     }
 
     public static EnumSet<CleanupFlags> setOf(int flags) {
-        EnumSet<CleanupFlags> set = EnumSet.noneOf(CleanupFlags.class);
-        for (var v : ALL_VALUES) {
-            if ((flags & v.intValue()) == v.intValue())
-                set.add(v);
+        return IntFlags.setOf(CleanupFlags.class, flags);
+    }
+
+    /**
+     * Returns the flags with the given int value, without allocating.
+     */
+    public static IntFlags<CleanupFlags> flagsOf(int flags) {
+        if ((flags & ~0xFF) == 0)
+            return CACHED_FLAGS[flags];
+
+        return IntFlags.of(CleanupFlags.class, flags);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static IntFlags<CleanupFlags>[] cacheFlags() {
+        IntFlags<CleanupFlags>[] cache = new IntFlags[256];
+        for (int i = 0; i < cache.length; i++) {
+            cache[i] = IntFlags.of(CleanupFlags.class, i);
         }
 
-        return set;
+        return cache;
     }
 
     private final int value;
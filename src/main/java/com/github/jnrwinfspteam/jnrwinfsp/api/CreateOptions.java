@@ -24,25 +24,16 @@ public enum CreateOptions implements EnumMapper.IntegerEnum {
     FILE_OPEN_FOR_BACKUP_INTENT(0x00004000),
     FILE_RESERVE_OPFILTER(0x00100000);
 
-    private static final Set<CreateOptions> ALL_VALUES = EnumSet.allOf(CreateOptions.class);
-
     public static int intOf(Set<CreateOptions> options) {
-        int intValue = 0;
-        for (var o : options) {
-            intValue |= o.intValue();
-        }
-
-        return intValue;
+        return IntFlags.intOf(options);
     }
 
     public static EnumSet<CreateOptions> setOf(int options) {
-        EnumSet<CreateOptions> set = EnumSet.noneOf(CreateOptions.class);
-        for (var v : ALL_VALUES) {
-            if ((options & v.intValue()) == v.intValue())
-                set.add(v);
-        }
+        return IntFlags.setOf(CreateOptions.class, options);
+    }
 
-        return set;
+    public static IntFlags<CreateOptions> flagsOf(int options) {
+        return IntFlags.of(CreateOptions.class, options);
     }
 
     private final int value;
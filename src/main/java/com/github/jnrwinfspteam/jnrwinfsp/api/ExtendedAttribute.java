@@ -0,0 +1,77 @@
+package com.github.jnrwinfspteam.jnrwinfsp.api;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * A single extended attribute (EA), i.e. one FILE_FULL_EA_INFORMATION entry.
+ */
+public final class ExtendedAttribute {
+
+    /**
+     * The file cannot be interpreted without understanding this extended attribute.
+     */
+    public static final byte FILE_NEED_EA = (byte) 0x80;
+
+    static final int MAX_NAME_LENGTH = 255;
+    static final int MAX_VALUE_LENGTH = 65535;
+
+    private final String name;
+    private final byte[] value;
+    private final byte flags;
+
+    /**
+     * @param name  The name of the extended attribute (ASCII, at most 255 characters). Names are compared
+     *              case-insensitively.
+     * @param value The value of the extended attribute (at most 65535 bytes). An empty value means the attribute
+     *              is deleted, when used in {@link WinFspFS#setEa}.
+     * @param flags The flags of the extended attribute (0 or {@link #FILE_NEED_EA})
+     */
+    public ExtendedAttribute(String name, byte[] value, byte flags) {
+        this.name = Objects.requireNonNull(name);
+        this.value = Objects.requireNonNull(value);
+        this.flags = flags;
+
+        if (name.isEmpty() || name.length() > MAX_NAME_LENGTH)
+            throw new IllegalArgumentException("Invalid extended attribute name length: " + name.length());
+        if (value.length > MAX_VALUE_LENGTH)
+            throw new IllegalArgumentException("Invalid extended attribute value length: " + value.length);
+    }
+
+    public ExtendedAttribute(String name, byte[] value) {
+        this(name, value, (byte) 0);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public byte[] getValue() {
+        return value;
+    }
+
+    public byte getFlags() {
+        return flags;
+    }
+
+    public boolean isNeedEa() {
+        return (flags & FILE_NEED_EA) != 0;
+    }
+
+    /**
+     * Whether this extended attribute has the given name (case-insensitively).
+     */
+    public boolean hasName(String name) {
+        return this.name.equalsIgnoreCase(name);
+    }
+
+    byte[] getNameBytes() {
+        return name.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public String toString() {
+        return "{" + name + "; " + Arrays.toString(value) + "}";
+    }
+}
@@ -0,0 +1,223 @@
+package com.github.jnrwinfspteam.jnrwinfsp.api;
+
+import jnr.ffi.Pointer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * An immutable list of extended attributes, kept together with its packed FILE_FULL_EA_INFORMATION representation.
+ * <p>
+ * The packed buffer is built once, so a file system that keeps an instance of this class per file can serve GetEa
+ * with a single copy and report the EA size of the file without walking its attributes.
+ */
+public final class ExtendedAttributes implements Iterable<ExtendedAttribute> {
+
+    public static final ExtendedAttributes EMPTY = new ExtendedAttributes(List.of());
+
+    // FILE_FULL_EA_INFORMATION: ULONG NextEntryOffset; UCHAR Flags; UCHAR EaNameLength; USHORT EaValueLength;
+    // CHAR EaName[EaNameLength + 1] (null terminated), followed by the value
+    private static final int ENTRY_HEADER_SIZE = 8;
+    private static final int ENTRY_ALIGNMENT = 4;
+
+    /**
+     * Returns the given extended attributes. If several of them have the same name, only the last one is kept.
+     */
+    public static ExtendedAttributes of(Collection<ExtendedAttribute> extendedAttributes) {
+        return EMPTY.with(extendedAttributes, false);
+    }
+
+    /**
+     * Parses a FILE_FULL_EA_INFORMATION buffer.
+     *
+     * @param buffer The packed extended attributes
+     */
+    public static ExtendedAttributes fromPacked(byte[] buffer) throws NTStatusException {
+        List<ExtendedAttribute> list = new ArrayList<>();
+
+        ByteBuffer bb = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
+        int offset = 0;
+        while (offset < buffer.length) {
+            if (buffer.length - offset < ENTRY_HEADER_SIZE)
+                throw new NTStatusException(0xC0000053); // STATUS_EA_CORRUPT_ERROR
+
+            int nextEntryOffset = bb.getInt(offset);
+            byte flags = bb.get(offset + 4);
+            int nameLength = Byte.toUnsignedInt(bb.get(offset + 5));
+            int valueLength = Short.toUnsignedInt(bb.getShort(offset + 6));
+
+            int nameOffset = offset + ENTRY_HEADER_SIZE;
+            int valueOffset = nameOffset + nameLength + 1;
+            if (nameLength == 0 || valueOffset + valueLength > buffer.length)
+                throw new NTStatusException(0xC0000053); // STATUS_EA_CORRUPT_ERROR
+
+            String name = new String(buffer, nameOffset, nameLength, StandardCharsets.US_ASCII);
+            byte[] value = new byte[valueLength];
+            System.arraycopy(buffer, valueOffset, value, 0, valueLength);
+            list.add(new ExtendedAttribute(name, value, flags));
+
+            if (nextEntryOffset == 0)
+                break;
+            if (nextEntryOffset < 0 || nextEntryOffset < valueOffset + valueLength - offset)
+                throw new NTStatusException(0xC0000053); // STATUS_EA_CORRUPT_ERROR
+
+            offset += nextEntryOffset;
+        }
+
+        return list.isEmpty() ? EMPTY : new ExtendedAttributes(list);
+    }
+
+    private final List<ExtendedAttribute> list;
+    private final byte[] packed;
+    private final int[] entryOffsets;
+    private final int eaSize;
+
+    private ExtendedAttributes(List<ExtendedAttribute> list) {
+        this.list = List.copyOf(list);
+        this.entryOffsets = new int[list.size()];
+
+        int packedLength = 0;
+        int eaSize = 0;
+        for (int i = 0; i < list.size(); i++) {
+            ExtendedAttribute ea = list.get(i);
+            packedLength = alignUp(packedLength);
+            entryOffsets[i] = packedLength;
+            packedLength += entryLength(ea);
+            // the size of the EAs as reported by NTFS (and expected in FileInfo.EaSize)
+            eaSize += 5 + ea.getName().length() + ea.getValue().length;
+        }
+
+        this.packed = new byte[packedLength];
+        this.eaSize = eaSize;
+
+        ByteBuffer bb = ByteBuffer.wrap(packed).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < list.size(); i++) {
+            ExtendedAttribute ea = list.get(i);
+            byte[] name = ea.getNameBytes();
+            int offset = entryOffsets[i];
+
+            bb.putInt(offset, i + 1 < list.size() ? entryOffsets[i + 1] - offset : 0);
+            bb.put(offset + 4, ea.getFlags());
+            bb.put(offset + 5, (byte) name.length);
+            bb.putShort(offset + 6, (short) ea.getValue().length);
+            System.arraycopy(name, 0, packed, offset + ENTRY_HEADER_SIZE, name.length);
+            System.arraycopy(ea.getValue(), 0, packed, offset + ENTRY_HEADER_SIZE + name.length + 1,
+                    ea.getValue().length);
+        }
+    }
+
+    public List<ExtendedAttribute> list() {
+        return list;
+    }
+
+    public boolean isEmpty() {
+        return list.isEmpty();
+    }
+
+    public int size() {
+        return list.size();
+    }
+
+    /**
+     * Returns the extended attribute with the given name (case-insensitively), or null if there is none.
+     */
+    public ExtendedAttribute get(String name) {
+        for (ExtendedAttribute ea : list) {
+            if (ea.hasName(name))
+                return ea;
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns these extended attributes modified by the given ones, with the semantics of SetEa: an attribute
+     * replaces the existing attribute with the same name, and an attribute with an empty value deletes it.
+     */
+    public ExtendedAttributes with(ExtendedAttributes changes) {
+        return changes.isEmpty() ? this : with(changes.list, true);
+    }
+
+    /**
+     * The size of the extended attributes, as reported in {@link FileInfo#getEaSize()}.
+     */
+    public int getEaSize() {
+        return eaSize;
+    }
+
+    /**
+     * The length of the packed FILE_FULL_EA_INFORMATION buffer.
+     */
+    public int getPackedLength() {
+        return packed.length;
+    }
+
+    /**
+     * Returns a copy of the packed FILE_FULL_EA_INFORMATION buffer.
+     */
+    public byte[] toPacked() {
+        return packed.clone();
+    }
+
+    @Override
+    public Iterator<ExtendedAttribute> iterator() {
+        return list.iterator();
+    }
+
+    @Override
+    public String toString() {
+        return list.toString();
+    }
+
+    /*
+     * Writes as many whole entries as fit in the given capacity to the native buffer, and returns the number of bytes
+     * written. The last entry written is always terminated (NextEntryOffset = 0).
+     */
+    int writeTo(Pointer pBuffer, int capacity) {
+        if (packed.length <= capacity) {
+            pBuffer.put(0, packed, 0, packed.length);
+            return packed.length;
+        }
+
+        int count = 0;
+        int length = 0;
+        while (count < list.size()) {
+            int end = entryOffsets[count] + entryLength(list.get(count));
+            if (end > capacity)
+                break;
+            length = end;
+            count++;
+        }
+
+        if (count > 0) {
+            pBuffer.put(0, packed, 0, length);
+            pBuffer.putInt(entryOffsets[count - 1], 0);
+        }
+
+        return length;
+    }
+
+    private ExtendedAttributes with(Collection<ExtendedAttribute> changes, boolean deleteEmpty) {
+        List<ExtendedAttribute> newList = new ArrayList<>(list);
+        for (ExtendedAttribute change : changes) {
+            newList.removeIf(ea -> ea.hasName(change.getName()));
+            if (!deleteEmpty || change.getValue().length > 0)
+                newList.add(change);
+        }
+
+        return newList.isEmpty() ? EMPTY : new ExtendedAttributes(newList);
+    }
+
+    private static int entryLength(ExtendedAttribute ea) {
+        return ENTRY_HEADER_SIZE + ea.getName().length() + 1 + ea.getValue().length;
+    }
+
+    private static int alignUp(int offset) {
+        return (offset + ENTRY_ALIGNMENT - 1) & -ENTRY_ALIGNMENT;
+    }
+}
@@ -4,12 +4,11 @@ import com.github.jnrwinfspteam.jnrwinfsp.internal.lib.LibAdvapi32;
 import com.github.jnrwinfspteam.jnrwinfsp.internal.lib.LibWinFsp;
 import com.github.jnrwinfspteam.jnrwinfsp.internal.struct.*;
 import com.github.jnrwinfspteam.jnrwinfsp.internal.util.PointerUtils;
-import com.github.jnrwinfspteam.jnrwinfsp.internal.util.Pointered;
 import com.github.jnrwinfspteam.jnrwinfsp.internal.util.SecurityDescriptorUtils;
 import com.github.jnrwinfspteam.jnrwinfsp.internal.util.StringUtils;
+import jnr.ffi.Memory;
 import jnr.ffi.Pointer;
 import jnr.ffi.Runtime;
-import jnr.ffi.Struct;
 import jnr.ffi.types.size_t;
 
 import java.io.PrintStream;
@@ -17,7 +16,6 @@ import java.nio.CharBuffer;
 import java.nio.charset.CharacterCodingException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.EnumSet;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
@@ -30,15 +28,23 @@ final class FSHelper {
     private static final DateTimeFormatter ERROR_TIME_FORMATTER = DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
 
     private final WinFspFS winfsp;
+    private final VolumeInfoCache volumeInfoCache;
     private final PrintStream verboseErr;
     private final Predicate<Throwable> errorFilter;
     private final LibWinFsp.GetReparsePointByNameCallback getReparsePointCallback;
     private Pointer builtInAdminSID;
 
     private final ConcurrentMap<Long, OpenContext> openContexts;
+    private final boolean useDirectoryBuffer;
+    private final ConcurrentMap<Long, Pointer> directoryBuffers;
+    private final ThreadLocal<Pointer> ntStatusBuffer;
+    private final ThreadLocal<Pointer> dirInfoBuffer;
+    private final ThreadLocal<ResolvedName> lastResolvedName;
 
-    FSHelper(WinFspFS winfsp, MountOptions options) throws MountException {
+    FSHelper(WinFspFS winfsp, VolumeInfoCache volumeInfoCache, MountOptions options) throws MountException {
         this.winfsp = Objects.requireNonNull(winfsp);
+        this.volumeInfoCache = Objects.requireNonNull(volumeInfoCache);
+        volumeInfoCache.setMaxAge(options.getVolumeInfoMaxAge());
         this.verboseErr = options.getErrorPrinter() != null ? options.getErrorPrinter()
                 : (options.hasDebug() ? System.err : null);
         this.errorFilter = Objects.requireNonNullElse(options.getErrorFilter(), FSHelper::defaultFilterError);
@@ -59,6 +65,15 @@ final class FSHelper {
         }
 
         this.openContexts = new ConcurrentHashMap<>();
+        this.useDirectoryBuffer = options.hasDirectoryBuffer();
+        this.directoryBuffers = new ConcurrentHashMap<>();
+        this.ntStatusBuffer = ThreadLocal.withInitial(() -> Memory.allocateDirect(RUNTIME, Integer.BYTES));
+
+        // big enough for any file name allowed by the volume
+        final int dirInfoBufferSize = FSP_FSCTL_DIR_INFO.HEADER_SIZE
+                + options.getMaxFileNameLength() * StringUtils.CS_BYTES_PER_CHAR;
+        this.dirInfoBuffer = ThreadLocal.withInitial(() -> Memory.allocateDirect(RUNTIME, dirInfoBufferSize));
+        this.lastResolvedName = ThreadLocal.withInitial(ResolvedName::new);
     }
 
     void free() {
@@ -68,17 +83,25 @@ final class FSHelper {
         }
 
         openContexts.clear();
+
+        for (Pointer ppDirBuffer : directoryBuffers.values()) {
+            LibWinFsp.INSTANCE.FspFileSystemDeleteDirectoryBuffer(ppDirBuffer);
+        }
+        directoryBuffers.clear();
     }
 
     void initGetVolumeInfo(FSP_FILE_SYSTEM_INTERFACE fsi) {
         fsi.GetVolumeInfo.set((pFS, pVolumeInfo) -> {
 
             try {
-                VolumeInfo vi = winfsp.getVolumeInfo();
-                FSP_FSCTL_VOLUME_INFO viOut = FSP_FSCTL_VOLUME_INFO.of(pVolumeInfo).get();
-                viOut.TotalSize.set(vi.getTotalSize());
-                viOut.FreeSize.set(vi.getFreeSize());
-                viOut.setVolumeLabel(vi.getVolumeLabel());
+                // a fresh published snapshot answers without calling the file system
+                VolumeInfoCache.Snapshot snapshot = volumeInfoCache.getSnapshot();
+                VolumeInfo vi = volumeInfoCache.getFresh(snapshot);
+                if (vi == null) {
+                    vi = winfsp.getVolumeInfo();
+                    volumeInfoCache.publishIfUnchanged(snapshot, vi);
+                }
+                putVolumeInfo(pVolumeInfo, vi);
 
                 return 0;
             }
@@ -98,11 +121,8 @@ final class FSHelper {
 
             try {
                 VolumeInfo vi = winfsp.setVolumeLabel(StringUtils.fromPointer(pVolumeLabel));
-
-                FSP_FSCTL_VOLUME_INFO viOut = FSP_FSCTL_VOLUME_INFO.of(pVolumeInfo).get();
-                viOut.TotalSize.set(vi.getTotalSize());
-                viOut.FreeSize.set(vi.getFreeSize());
-                viOut.setVolumeLabel(vi.getVolumeLabel());
+                volumeInfoCache.publish(vi);
+                putVolumeInfo(pVolumeInfo, vi);
 
                 return 0;
             }
@@ -124,6 +144,9 @@ final class FSHelper {
             try {
                 fileName = StringUtils.fromPointer(pFileName);
 
+                ResolvedName resolved = lastResolvedName.get();
+                resolved.clear();
+
                 Optional<SecurityResult> opSR = winfsp.getSecurityByName(fileName);
                 if (opSR.isEmpty()) {
                     byte res = LibWinFsp.INSTANCE.FspFileSystemFindReparsePoint(
@@ -141,8 +164,9 @@ final class FSHelper {
                 }
 
                 SecurityResult sr = opSR.orElseThrow();
+                resolved.set(fileName, sr.getNode());
                 if (pFileAttributes != null)
-                    pFileAttributes.putInt(0, FileAttributes.intOf(sr.getFileAttributes()));
+                    pFileAttributes.putInt(0, sr.getFileAttributeFlags().intValue());
 
                 SecurityDescriptorUtils.fromBytes(
                         RUNTIME,
@@ -189,24 +213,30 @@ final class FSHelper {
                 }
 
                 ReparsePoint reparsePoint = null;
+                ExtendedAttributes extendedAttributes = ExtendedAttributes.EMPTY;
                 if (pExtraBuffer != null && bool(extraBufferIsReparsePoint)) {
                     byte[] reparsePointData = PointerUtils.getBytes(pExtraBuffer, 0, (int) extraLength);
                     int reparseTag = pExtraBuffer.getInt(0); /* the first field in a reparse buffer is the tag */
                     reparsePoint = new ReparsePoint(reparsePointData, reparseTag);
                 }
+                else if (pExtraBuffer != null) {
+                    extendedAttributes = getExtendedAttributes(pExtraBuffer, (int) extraLength);
+                }
 
                 OpenResult res = winfsp.create(
                         fileName,
-                        CreateOptions.setOf(createOptions),
+                        CreateOptions.flagsOf(createOptions),
                         grantedAccess,
-                        FileAttributes.setOf(fileAttributes),
+                        FileAttributes.flagsOf(fileAttributes),
                         securityDescriptor,
                         allocationSize,
-                        reparsePoint
+                        reparsePoint,
+                        extendedAttributes,
+                        lastResolvedName.get().takeIfParentOf(fileName)
                 );
 
                 putFileContext(ppFileContext, res);
-                putOpenFileInfo(pFileInfo, res.getFileInfo());
+                putOpenFileInfo(pFileInfo, fileName, res.getFileInfo());
 
                 return 0;
             }
@@ -230,12 +260,13 @@ final class FSHelper {
 
                 OpenResult res = winfsp.open(
                         fileName,
-                        CreateOptions.setOf(createOptions),
-                        grantedAccess
+                        CreateOptions.flagsOf(createOptions),
+                        grantedAccess,
+                        lastResolvedName.get().takeIf(fileName)
                 );
 
                 putFileContext(ppFileContext, res);
-                putOpenFileInfo(pFileInfo, res.getFileInfo());
+                putOpenFileInfo(pFileInfo, fileName, res.getFileInfo());
 
                 return 0;
             }
@@ -258,7 +289,7 @@ final class FSHelper {
                 ctx = ctxValue(pFileContext);
                 FileInfo fi = winfsp.overwrite(
                         ctx,
-                        FileAttributes.setOf(fileAttributes),
+                        FileAttributes.flagsOf(fileAttributes),
                         bool(replaceFileAttributes),
                         allocationSize
                 );
@@ -278,16 +309,45 @@ final class FSHelper {
         });
     }
 
+    void initOverwriteEx(FSP_FILE_SYSTEM_INTERFACE fsi) {
+        fsi.OverwriteEx.set((pFS, pFileContext, fileAttributes, replaceFileAttributes, allocationSize, pEa, eaLength,
+                             pFileInfo) -> {
+
+            OpenContext ctx = null;
+            try {
+                ctx = ctxValue(pFileContext);
+                FileInfo fi = winfsp.overwrite(
+                        ctx,
+                        FileAttributes.flagsOf(fileAttributes),
+                        bool(replaceFileAttributes),
+                        allocationSize,
+                        getExtendedAttributes(pEa, eaLength)
+                );
+
+                putFileInfo(pFileInfo, fi);
+
+                return 0;
+            }
+            catch (NTStatusException e) {
+                logError(e, "OverwriteEx", ctx);
+                return e.getNtStatus();
+            }
+            catch (Throwable e) {
+                logError(e, "OverwriteEx", ctx);
+                throw e;
+            }
+        });
+    }
+
     void initCleanup(FSP_FILE_SYSTEM_INTERFACE fsi) {
         fsi.Cleanup.set((pFS, pFileContext, _pFileName, flags) -> {
 
             OpenContext ctx = null;
             try {
                 ctx = ctxValue(pFileContext);
-                EnumSet<CleanupFlags> cleanupFlags = CleanupFlags.setOf(flags);
                 winfsp.cleanup(
                         ctx,
-                        cleanupFlags
+                        CleanupFlags.flagsOf(flags)
                 );
             }
             catch (Throwable e) {
@@ -310,7 +370,13 @@ final class FSHelper {
                 throw e;
             }
             finally {
-                openContexts.remove(ctxKey(pFileContext));
+                OpenContext removed = openContexts.remove(ctxKey(pFileContext));
+                if (removed != null)
+                    removed.setDirectoryListing(null);
+
+                Pointer ppDirBuffer = directoryBuffers.remove(ctxKey(pFileContext));
+                if (ppDirBuffer != null)
+                    LibWinFsp.INSTANCE.FspFileSystemDeleteDirectoryBuffer(ppDirBuffer);
             }
         });
     }
@@ -436,7 +502,7 @@ final class FSHelper {
                 ctx = ctxValue(pFileContext);
                 FileInfo fi = winfsp.setBasicInfo(
                         ctx,
-                        FileAttributes.setOf(fileAttributes),
+                        FileAttributes.flagsOf(fileAttributes),
                         new WinSysTime(creationTime),
                         new WinSysTime(lastAccessTime),
                         new WinSysTime(lastWriteTime),
@@ -600,6 +666,12 @@ final class FSHelper {
             OpenContext ctx = null;
             try {
                 String pattern = StringUtils.fromPointer(pPattern);
+
+                if (useDirectoryBuffer) {
+                    ctx = ctxValue(pFileContext);
+                    return readDirectoryBuffer(pFileContext, ctx, pattern, pMarker, pBuffer, length, pBytesTransferred);
+                }
+
                 String marker = StringUtils.fromPointer(pMarker);
 
                 class MutableBoolean {
@@ -620,16 +692,15 @@ final class FSHelper {
                             String fileName = fi.getFileName();
                             byte[] fileNameBytes = StringUtils.toBytes(fileName, false);
 
-                            Pointered<FSP_FSCTL_DIR_INFO> diP = FSP_FSCTL_DIR_INFO.create(fileNameBytes.length);
-                            _putDirInfo(diP.get(), fi, fileNameBytes);
+                            Pointer pDirInfo = dirInfoBuffer(fileNameBytes.length);
+                            putDirInfo(pDirInfo, fi, fileNameBytes);
 
                             byte added = LibWinFsp.INSTANCE.FspFileSystemAddDirInfo(
-                                    diP.getPointer(),
+                                    pDirInfo,
                                     pBuffer,
                                     length,
                                     pBytesTransferred
                             );
-                            diP.free(); // avoid memory leak
 
                             allAdded.bool &= bool(added);
 
@@ -654,6 +725,125 @@ final class FSHelper {
         });
     }
 
+    /*
+     * Serves a ReadDirectory operation from the native directory buffer of the handle. The buffer is (re)filled with
+     * the full listing when an enumeration starts (no marker); continuations are read from it by WinFsp itself.
+     */
+    private int readDirectoryBuffer(Pointer pFileContext,
+                                    OpenContext ctx,
+                                    String pattern,
+                                    Pointer pMarker,
+                                    Pointer pBuffer,
+                                    int length,
+                                    Pointer pBytesTransferred) throws NTStatusException {
+
+        Pointer ppDirBuffer = directoryBuffers.computeIfAbsent(
+                ctxKey(pFileContext),
+                k -> Memory.allocateDirect(RUNTIME, RUNTIME.addressSize(), true)
+        );
+        Pointer pResult = ntStatusBuffer.get();
+        pResult.putInt(0, 0);
+
+        byte reset = pMarker == null ? (byte) 1 : (byte) 0;
+        class MutableBoolean {
+            boolean bool;
+        }
+        MutableBoolean allFilled = new MutableBoolean();
+        allFilled.bool = true;
+
+        if (bool(LibWinFsp.INSTANCE.FspFileSystemAcquireDirectoryBuffer(ppDirBuffer, reset, pResult))) {
+            boolean filled = false;
+            try {
+                winfsp.readDirectory(ctx, pattern, null, (fi) -> {
+                    if (!allFilled.bool)
+                        return false;
+
+                    byte[] fileNameBytes = StringUtils.toBytes(fi.getFileName(), false);
+
+                    Pointer pDirInfo = dirInfoBuffer(fileNameBytes.length);
+                    putDirInfo(pDirInfo, fi, fileNameBytes);
+
+                    allFilled.bool &= bool(
+                            LibWinFsp.INSTANCE.FspFileSystemFillDirectoryBuffer(ppDirBuffer, pDirInfo, pResult)
+                    );
+
+                    return allFilled.bool;
+                });
+                filled = allFilled.bool;
+            } finally {
+                LibWinFsp.INSTANCE.FspFileSystemReleaseDirectoryBuffer(ppDirBuffer);
+
+                // never serve continuations from a partial listing
+                if (!filled)
+                    LibWinFsp.INSTANCE.FspFileSystemDeleteDirectoryBuffer(ppDirBuffer);
+            }
+        }
+
+        int result = pResult.getInt(0);
+        if (result != 0)
+            return result;
+        if (!allFilled.bool)
+            return 0xC000009A; // STATUS_INSUFFICIENT_RESOURCES (the buffer could not grow)
+
+        LibWinFsp.INSTANCE.FspFileSystemReadDirectoryBuffer(ppDirBuffer, pMarker, pBuffer, length, pBytesTransferred);
+
+        return 0;
+    }
+
+    void initGetStreamInfo(FSP_FILE_SYSTEM_INTERFACE fsi) {
+        fsi.GetStreamInfo.set((pFS, pFileContext, pBuffer, length, pBytesTransferred) -> {
+
+            OpenContext ctx = null;
+            try {
+                class MutableBoolean {
+                    boolean bool;
+                }
+                MutableBoolean allAdded = new MutableBoolean();
+                allAdded.bool = true;
+
+                ctx = ctxValue(pFileContext);
+                winfsp.getStreamInfo(
+                        ctx,
+                        (si) -> {
+                            if (!allAdded.bool)
+                                return false;
+
+                            byte[] streamNameBytes = StringUtils.toBytes(si.getStreamName(), false);
+
+                            // the thread's dir info buffer is always big enough for a stream info with the same name
+                            Pointer pStreamInfo = dirInfoBuffer(streamNameBytes.length);
+                            putStreamInfo(pStreamInfo, si, streamNameBytes);
+
+                            byte added = LibWinFsp.INSTANCE.FspFileSystemAddStreamInfo(
+                                    pStreamInfo,
+                                    pBuffer,
+                                    length,
+                                    pBytesTransferred
+                            );
+
+                            allAdded.bool &= bool(added);
+
+                            return bool(added);
+                        }
+                );
+
+                // add one final null entry to mark the end of the operation
+                if (allAdded.bool)
+                    LibWinFsp.INSTANCE.FspFileSystemAddStreamInfo(null, pBuffer, length, pBytesTransferred);
+
+                return 0;
+            }
+            catch (NTStatusException e) {
+                logError(e, "GetStreamInfo", ctx);
+                return e.getNtStatus();
+            }
+            catch (Throwable e) {
+                logError(e, "GetStreamInfo", ctx);
+                throw e;
+            }
+        });
+    }
+
     void initResolveReparsePoints(FSP_FILE_SYSTEM_INTERFACE fsi) {
         fsi.ResolveReparsePoints.set((pFS, pFileName, reparsePointIndex, resolveLastPathComponent, pIoStatus,
                                       pBuffer, pSize) -> {
@@ -803,8 +993,7 @@ final class FSHelper {
                 String fileName = fi.getFileName();
                 byte[] fileNameBytes = StringUtils.getEncoder().reset().encode(CharBuffer.wrap(fileName)).array();
 
-                Pointered<FSP_FSCTL_DIR_INFO> diP = FSP_FSCTL_DIR_INFO.of(pDirInfo, fileNameBytes.length);
-                _putDirInfo(diP.get(), fi, fileNameBytes);
+                putDirInfo(pDirInfo, fi, fileNameBytes);
 
                 return 0;
             }
@@ -823,6 +1012,62 @@ final class FSHelper {
         });
     }
 
+    void initGetEa(FSP_FILE_SYSTEM_INTERFACE fsi) {
+        fsi.GetEa.set((pFS, pFileContext, pEa, eaLength, pBytesTransferred) -> {
+
+            OpenContext ctx = null;
+            try {
+                ctx = ctxValue(pFileContext);
+                ExtendedAttributes extendedAttributes = winfsp.getEa(ctx);
+
+                // the packed buffer is copied as a whole (or as many whole entries as fit)
+                int bytesTransferred = extendedAttributes.writeTo(pEa, eaLength);
+                pBytesTransferred.putInt(0, bytesTransferred);
+
+                return 0;
+            }
+            catch (NTStatusException e) {
+                logError(e, "GetEa", ctx);
+                return e.getNtStatus();
+            }
+            catch (Throwable e) {
+                logError(e, "GetEa", ctx);
+                throw e;
+            }
+        });
+    }
+
+    void initSetEa(FSP_FILE_SYSTEM_INTERFACE fsi) {
+        fsi.SetEa.set((pFS, pFileContext, pEa, eaLength, pFileInfo) -> {
+
+            OpenContext ctx = null;
+            try {
+                ctx = ctxValue(pFileContext);
+                FileInfo fi = winfsp.setEa(ctx, getExtendedAttributes(pEa, eaLength));
+
+                putFileInfo(pFileInfo, fi);
+
+                return 0;
+            }
+            catch (NTStatusException e) {
+                logError(e, "SetEa", ctx);
+                return e.getNtStatus();
+            }
+            catch (Throwable e) {
+                logError(e, "SetEa", ctx);
+                throw e;
+            }
+        });
+    }
+
+    private static ExtendedAttributes getExtendedAttributes(Pointer pEa, int eaLength) throws NTStatusException {
+        if (pEa == null || eaLength <= 0)
+            return ExtendedAttributes.EMPTY;
+
+        // a single bulk copy of the buffer, parsed on the Java side
+        return ExtendedAttributes.fromPacked(PointerUtils.getBytes(pEa, 0, eaLength));
+    }
+
     private OpenContext ctxValue(Pointer pFileContext) {
         return openContexts.get(ctxKey(pFileContext));
     }
@@ -844,6 +1089,8 @@ final class FSHelper {
                 ? OpenContext.newDirectoryContext(handle, res.getFileInfo().getFileName())
                 : OpenContext.newFileContext(handle, res.getFileInfo().getFileName());
 
+        ctx.setNode(res.getNode());
+
         openContexts.put(handle, ctx);
         ppFileContext.putAddress(0, handle);
     }
@@ -880,38 +1127,88 @@ final class FSHelper {
         return PointerUtils.BOOLEAN(val);
     }
 
-    private static void putOpenFileInfo(Pointer pOFI, FileInfo fi) {
-        FSP_FSCTL_OPEN_FILE_INFO ofiOut = FSP_FSCTL_OPEN_FILE_INFO.of(pOFI).get();
-        _putFileInfo(ofiOut.FileInfo, fi);
-        Pointer namePointer = StringUtils.toPointer(pOFI.getRuntime(), fi.getNormalizedName(), true);
-        ofiOut.NormalizedName.get().transferFrom(0, namePointer, 0, namePointer.size());
-        ofiOut.NormalizedNameSize.set(namePointer.size());
-        StringUtils.freeStringPointer(namePointer);
+    private static void putVolumeInfo(Pointer pVI, VolumeInfo vi) {
+        pVI.putLong(FSP_FSCTL_VOLUME_INFO.OFFSET_TOTAL_SIZE, vi.getTotalSize());
+        pVI.putLong(FSP_FSCTL_VOLUME_INFO.OFFSET_FREE_SIZE, vi.getFreeSize());
+        FSP_FSCTL_VOLUME_INFO.putVolumeLabel(pVI, vi.getVolumeLabel());
+    }
+
+    private static void putOpenFileInfo(Pointer pOFI, String fileName, FileInfo fi) {
+        _putFileInfo(pOFI, FSP_FSCTL_OPEN_FILE_INFO.OFFSET_FILE_INFO, fi);
+        putNormalizedName(pOFI, fileName, fi.getNormalizedName());
+    }
+
+    /**
+     * Writes the normalized name straight into the NormalizedName buffer provided by WinFsp. On input,
+     * NormalizedNameSize holds the capacity of that buffer; WinFsp only uses the normalized name if its size
+     * is changed to a smaller value, so nothing needs to be written when the name is the one that was requested
+     * (the common case), or when it does not fit.
+     */
+    private static void putNormalizedName(Pointer pOFI, String fileName, String normalizedName) {
+        if (normalizedName == null || normalizedName.equals(fileName))
+            return;
+
+        final int capacity = Short.toUnsignedInt(pOFI.getShort(FSP_FSCTL_OPEN_FILE_INFO.OFFSET_NORMALIZED_NAME_SIZE));
+        final int length = normalizedName.length();
+        final int byteLength = length * StringUtils.CS_BYTES_PER_CHAR;
+        if (byteLength >= capacity)
+            return;
+
+        // UTF-16 in native byte order, without a null terminator
+        Pointer pName = pOFI.getPointer(FSP_FSCTL_OPEN_FILE_INFO.OFFSET_NORMALIZED_NAME);
+        for (int i = 0; i < length; i++) {
+            pName.putShort((long) i * StringUtils.CS_BYTES_PER_CHAR, (short) normalizedName.charAt(i));
+        }
+        pOFI.putShort(FSP_FSCTL_OPEN_FILE_INFO.OFFSET_NORMALIZED_NAME_SIZE, (short) byteLength);
     }
 
     private static void putFileInfo(Pointer pFI, FileInfo fi) {
-        FSP_FSCTL_FILE_INFO fiOut = FSP_FSCTL_FILE_INFO.of(pFI).get();
-        _putFileInfo(fiOut, fi);
+        _putFileInfo(pFI, 0, fi);
     }
 
-    private static void _putDirInfo(FSP_FSCTL_DIR_INFO diOut, FileInfo fi, byte[] fileNameBytes) {
-        diOut.Size.set(Struct.size(diOut)); // size already includes file name length
-        _putFileInfo(diOut.FileInfo, fi);
-        diOut.setFileName(fileNameBytes);
+    private static void putDirInfo(Pointer pDI, FileInfo fi, byte[] fileNameBytes) {
+        pDI.putShort(FSP_FSCTL_DIR_INFO.OFFSET_SIZE, (short) (FSP_FSCTL_DIR_INFO.HEADER_SIZE + fileNameBytes.length));
+        _putFileInfo(pDI, FSP_FSCTL_DIR_INFO.OFFSET_FILE_INFO, fi);
+        pDI.setMemory(FSP_FSCTL_DIR_INFO.OFFSET_DUMMYUNIONNAME, FSP_FSCTL_DIR_INFO.DUMMYUNIONNAME_SIZE, (byte) 0);
+        pDI.put(FSP_FSCTL_DIR_INFO.HEADER_SIZE, fileNameBytes, 0, fileNameBytes.length);
     }
 
-    private static void _putFileInfo(FSP_FSCTL_FILE_INFO fiOut, FileInfo fi) {
-        fiOut.FileAttributes.set(FileAttributes.intOf(fi.getFileAttributes()));
-        fiOut.ReparseTag.set(fi.getReparseTag());
-        fiOut.AllocationSize.set(fi.getAllocationSize());
-        fiOut.FileSize.set(fi.getFileSize());
-        fiOut.CreationTime.set(fi.getCreationTime().get());
-        fiOut.LastAccessTime.set(fi.getLastAccessTime().get());
-        fiOut.LastWriteTime.set(fi.getLastWriteTime().get());
-        fiOut.ChangeTime.set(fi.getChangeTime().get());
-        fiOut.IndexNumber.set(fi.getIndexNumber());
-        fiOut.HardLinks.set(fi.getHardLinks());
-        fiOut.EaSize.set(fi.getEaSize());
+    private static void putStreamInfo(Pointer pSI, StreamInfo si, byte[] streamNameBytes) {
+        pSI.putShort(
+                FSP_FSCTL_STREAM_INFO.OFFSET_SIZE,
+                (short) (FSP_FSCTL_STREAM_INFO.HEADER_SIZE + streamNameBytes.length)
+        );
+        pSI.putLong(FSP_FSCTL_STREAM_INFO.OFFSET_STREAM_SIZE, si.getStreamSize());
+        pSI.putLong(FSP_FSCTL_STREAM_INFO.OFFSET_STREAM_ALLOCATION_SIZE, si.getStreamAllocationSize());
+        pSI.put(FSP_FSCTL_STREAM_INFO.HEADER_SIZE, streamNameBytes, 0, streamNameBytes.length);
+    }
+
+    private static void _putFileInfo(Pointer p, long offset, FileInfo fi) {
+        p.putInt(offset + FSP_FSCTL_FILE_INFO.OFFSET_FILE_ATTRIBUTES, FileAttributes.intOf(fi.getFileAttributes()));
+        p.putInt(offset + FSP_FSCTL_FILE_INFO.OFFSET_REPARSE_TAG, fi.getReparseTag());
+        p.putLong(offset + FSP_FSCTL_FILE_INFO.OFFSET_ALLOCATION_SIZE, fi.getAllocationSize());
+        p.putLong(offset + FSP_FSCTL_FILE_INFO.OFFSET_FILE_SIZE, fi.getFileSize());
+        p.putLong(offset + FSP_FSCTL_FILE_INFO.OFFSET_CREATION_TIME, fi.getCreationTime().get());
+        p.putLong(offset + FSP_FSCTL_FILE_INFO.OFFSET_LAST_ACCESS_TIME, fi.getLastAccessTime().get());
+        p.putLong(offset + FSP_FSCTL_FILE_INFO.OFFSET_LAST_WRITE_TIME, fi.getLastWriteTime().get());
+        p.putLong(offset + FSP_FSCTL_FILE_INFO.OFFSET_CHANGE_TIME, fi.getChangeTime().get());
+        p.putLong(offset + FSP_FSCTL_FILE_INFO.OFFSET_INDEX_NUMBER, fi.getIndexNumber());
+        p.putInt(offset + FSP_FSCTL_FILE_INFO.OFFSET_HARD_LINKS, fi.getHardLinks());
+        p.putInt(offset + FSP_FSCTL_FILE_INFO.OFFSET_EA_SIZE, fi.getEaSize());
+    }
+
+    /**
+     * Returns this thread's scratch buffer for a directory entry, large enough for a file name of the given size.
+     */
+    private Pointer dirInfoBuffer(int fileNameSize) {
+        Pointer p = dirInfoBuffer.get();
+        int requiredSize = FSP_FSCTL_DIR_INFO.HEADER_SIZE + fileNameSize;
+        if (p.size() < requiredSize) {
+            p = Memory.allocateDirect(RUNTIME, requiredSize);
+            dirInfoBuffer.set(p);
+        }
+
+        return p;
     }
 
     private static Pointer pointerFromBytes(byte[] bytes) {
@@ -923,4 +1220,46 @@ final class FSHelper {
     private static boolean defaultFilterError(Throwable e) {
         return true;
     }
+
+    /**
+     * The node resolved by the last GetSecurityByName call on a dispatcher thread. WinFsp calls GetSecurityByName
+     * and then Open (or Create, for the parent directory) on the same thread, so the node can be handed over
+     * without resolving the name again. It is consumed by the first Open or Create that follows.
+     */
+    private static final class ResolvedName {
+        private String fileName;
+        private Object node;
+
+        void set(String fileName, Object node) {
+            this.fileName = node != null ? fileName : null;
+            this.node = node;
+        }
+
+        void clear() {
+            this.fileName = null;
+            this.node = null;
+        }
+
+        Object takeIf(String fileName) {
+            Object res = fileName.equals(this.fileName) ? node : null;
+            clear();
+            return res;
+        }
+
+        Object takeIfParentOf(String fileName) {
+            Object res = this.fileName != null && isParentName(this.fileName, fileName) ? node : null;
+            clear();
+            return res;
+        }
+
+        private static boolean isParentName(String parentName, String fileName) {
+            int sep = fileName.lastIndexOf('\\');
+            if (sep < 0)
+                return false;
+            if (sep == 0)
+                return parentName.equals("\\");
+
+            return parentName.length() == sep && fileName.startsWith(parentName);
+        }
+    }
 }
@@ -28,25 +28,16 @@ public enum FileAttributes implements EnumMapper.IntegerEnum {
 
     INVALID_FILE_ATTRIBUTES(-1);
 
-    private static final Set<FileAttributes> ALL_VALUES = EnumSet.allOf(FileAttributes.class);
-
     public static int intOf(Set<FileAttributes> attributes) {
-        int intValue = 0;
-        for (var a : attributes) {
-            intValue |= a.intValue();
-        }
-
-        return intValue;
+        return IntFlags.intOf(attributes);
     }
 
     public static EnumSet<FileAttributes> setOf(int attributes) {
-        EnumSet<FileAttributes> set = EnumSet.noneOf(FileAttributes.class);
-        for (var v : ALL_VALUES) {
-            if ((attributes & v.intValue()) == v.intValue())
-                set.add(v);
-        }
+        return IntFlags.setOf(FileAttributes.class, attributes);
+    }
 
-        return set;
+    public static IntFlags<FileAttributes> flagsOf(int attributes) {
+        return IntFlags.of(FileAttributes.class, attributes);
     }
 
     private final int value;
@@ -17,20 +17,30 @@ public class FileInfo {
     private int reparseTag;
     private long indexNumber;
     private int eaSize;
-    private final int hardLinks = 0; /* unimplemented: set to 0 */
+    private int hardLinks;
 
     public FileInfo(String fileName) {
+        this(fileName, WinSysTime.now());
+    }
+
+    /**
+     * Constructs a new FileInfo object with all its times initialised to the given time.
+     *
+     * @param fileName The file name
+     * @param time     The initial value of every file time (e.g. obtained from a {@link WinSysClock})
+     */
+    public FileInfo(String fileName, WinSysTime time) {
         this.fileName = Objects.requireNonNull(fileName);
         this.fileAttributes = EnumSet.noneOf(FileAttributes.class);
-        WinSysTime now = WinSysTime.now();
-        this.creationTime = now;
-        this.lastAccessTime = now;
-        this.lastWriteTime = now;
-        this.changeTime = now;
+        this.creationTime = Objects.requireNonNull(time);
+        this.lastAccessTime = time;
+        this.lastWriteTime = time;
+        this.changeTime = time;
         this.normalizedName = this.fileName;
         this.reparseTag = 0;
         this.indexNumber = 0;
         this.eaSize = 0;
+        this.hardLinks = 0;
     }
 
     public String getFileName() {
@@ -117,6 +127,14 @@ public class FileInfo {
         return hardLinks;
     }
 
+    /**
+     * Sets the number of names (hard links) of the file. 0 means unknown, which is what WinFsp expects from file
+     * systems that do not track hard links.
+     */
+    public final void setHardLinks(int hardLinks) {
+        this.hardLinks = hardLinks;
+    }
+
     public final int getEaSize() {
         return eaSize;
     }
@@ -0,0 +1,274 @@
+package com.github.jnrwinfspteam.jnrwinfsp.api;
+
+import java.util.BitSet;
+import java.util.Objects;
+
+/**
+ * A compiled file name pattern, with the semantics of FsRtlIsNameInExpression (the pattern matching used by
+ * Windows for directory queries):
+ * <ul>
+ *     <li><code>*</code> matches zero or more characters;</li>
+ *     <li><code>?</code> matches exactly one character;</li>
+ *     <li><code>&lt;</code> (DOS_STAR) matches zero or more characters, but not the last period in the name;</li>
+ *     <li><code>&gt;</code> (DOS_QM) matches exactly one character, or zero characters before a period or at the
+ *     end of the name;</li>
+ *     <li><code>"</code> (DOS_DOT) matches a period, or zero characters at the end of the name;</li>
+ *     <li>any other character matches itself.</li>
+ * </ul>
+ * A pattern is compiled once (e.g. per {@link WinFspFS#readDirectory readDirectory} call) and can then be matched
+ * against many names. The common shapes <code>*</code>, <code>name</code> and <code>*suffix</code> are matched
+ * without running the general matcher.
+ */
+public final class FileNamePattern {
+
+    private static final FileNamePattern MATCH_ALL = new FileNamePattern("*", true, Kind.ALL, new char[0]);
+
+    /**
+     * Compiles a case-insensitive pattern.
+     *
+     * @param pattern The pattern (null or empty matches every name)
+     */
+    public static FileNamePattern compile(String pattern) {
+        return compile(pattern, true);
+    }
+
+    /**
+     * Compiles a pattern.
+     * <p>
+     * Since WinFsp always applies its own pattern matching to the entries returned by readDirectory, a file
+     * system that only uses the pattern to skip entries early can safely compile it case-insensitively, even on a
+     * case-sensitive volume (a case-insensitive match is a superset of the case-sensitive one).
+     *
+     * @param pattern    The pattern (null or empty matches every name)
+     * @param ignoreCase Whether to compare characters case-insensitively
+     */
+    public static FileNamePattern compile(String pattern, boolean ignoreCase) {
+        if (pattern == null || pattern.isEmpty() || pattern.equals("*"))
+            return MATCH_ALL;
+
+        char[] chars = ignoreCase ? upcase(pattern) : pattern.toCharArray();
+        int firstWildcard = indexOfWildcard(chars, 0);
+        if (firstWildcard < 0)
+            return new FileNamePattern(pattern, ignoreCase, Kind.LITERAL, chars);
+        if (firstWildcard == 0 && chars[0] == '*' && indexOfWildcard(chars, 1) < 0) {
+            char[] suffix = new char[chars.length - 1];
+            System.arraycopy(chars, 1, suffix, 0, suffix.length);
+            return new FileNamePattern(pattern, ignoreCase, Kind.SUFFIX, suffix);
+        }
+
+        return new FileNamePattern(pattern, ignoreCase, Kind.GENERAL, chars);
+    }
+
+    private enum Kind {
+        ALL,
+        LITERAL,
+        SUFFIX,
+        GENERAL
+    }
+
+    private final String pattern;
+    private final boolean ignoreCase;
+    private final Kind kind;
+    private final char[] chars;
+
+    private FileNamePattern(String pattern, boolean ignoreCase, Kind kind, char[] chars) {
+        this.pattern = pattern;
+        this.ignoreCase = ignoreCase;
+        this.kind = kind;
+        this.chars = chars;
+    }
+
+    /**
+     * Whether this pattern matches every name.
+     */
+    public boolean matchesAll() {
+        return kind == Kind.ALL;
+    }
+
+    /**
+     * Whether the given name matches this pattern.
+     *
+     * @param name A file name (a single path component)
+     */
+    public boolean matches(String name) {
+        Objects.requireNonNull(name);
+
+        switch (kind) {
+            case ALL:
+                return true;
+            case LITERAL:
+                return name.length() == chars.length && regionMatches(name, 0);
+            case SUFFIX:
+                return name.length() >= chars.length && regionMatches(name, name.length() - chars.length);
+            default:
+                return matchesGeneral(name);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+
+    private boolean regionMatches(String name, int offset) {
+        for (int i = 0; i < chars.length; i++) {
+            if (chars[i] != fold(name.charAt(offset + i)))
+                return false;
+        }
+
+        return true;
+    }
+
+    /*
+     * Simulates the pattern as a non-deterministic automaton, in which state i means "the first i pattern characters
+     * have been matched". All the states reachable after each name character are tracked at once (as a bit set), so
+     * the running time is O(name length * active states) and never exponential.
+     */
+    private boolean matchesGeneral(String name) {
+        if (chars.length < Long.SIZE)
+            return matchesSmall(name);
+
+        final int m = chars.length;
+        final int n = name.length();
+        final int lastDot = name.lastIndexOf('.');
+
+        BitSet current = new BitSet(m + 1);
+        BitSet next = new BitSet(m + 1);
+        current.set(0);
+        closure(current, name, 0);
+
+        for (int pos = 0; pos < n; pos++) {
+            final char c = fold(name.charAt(pos));
+
+            next.clear();
+            for (int i = current.nextSetBit(0); i >= 0 && i < m; i = current.nextSetBit(i + 1)) {
+                int t = transition(i, c, pos == lastDot);
+                if (t >= 0)
+                    next.set(t);
+            }
+            if (next.isEmpty())
+                return false;
+
+            closure(next, name, pos + 1);
+
+            BitSet tmp = current;
+            current = next;
+            next = tmp;
+        }
+
+        return current.get(m);
+    }
+
+    // same as matchesGeneral, with the states packed in a long (patterns shorter than 64 characters)
+    private boolean matchesSmall(String name) {
+        final int m = chars.length;
+        final int n = name.length();
+        final int lastDot = name.lastIndexOf('.');
+        final long accepting = 1L << m;
+
+        long current = closure(1L, name, 0);
+
+        for (int pos = 0; pos < n; pos++) {
+            final char c = fold(name.charAt(pos));
+
+            long next = 0L;
+            for (long bits = current & ~accepting; bits != 0; bits &= bits - 1) {
+                int t = transition(Long.numberOfTrailingZeros(bits), c, pos == lastDot);
+                if (t >= 0)
+                    next |= 1L << t;
+            }
+            if (next == 0L)
+                return false;
+
+            current = closure(next, name, pos + 1);
+        }
+
+        return (current & accepting) != 0;
+    }
+
+    /*
+     * Returns the state reached from state i by consuming character c (already case-folded),
+     * or -1 if c cannot be consumed in state i.
+     */
+    private int transition(int i, char c, boolean isLastDot) {
+        switch (chars[i]) {
+            case '*':
+                return i;
+            case '<':
+                return c != '.' || !isLastDot ? i : -1;
+            case '?':
+                return i + 1;
+            case '>':
+                return c != '.' ? i + 1 : -1;
+            case '"':
+                return c == '.' ? i + 1 : -1;
+            default:
+                return c == chars[i] ? i + 1 : -1;
+        }
+    }
+
+    /*
+     * Whether state i can advance to state i + 1 without consuming a character, at the given position in the name.
+     */
+    private boolean skips(int i, String name, int pos) {
+        switch (chars[i]) {
+            case '*':
+            case '<':
+                return true;
+            case '>':
+                return pos == name.length() || name.charAt(pos) == '.';
+            case '"':
+                return pos == name.length();
+            default:
+                return false;
+        }
+    }
+
+    // adds the states reachable without consuming a character, at the given position in the name
+    private void closure(BitSet states, String name, int pos) {
+        for (int i = states.nextSetBit(0); i >= 0 && i < chars.length; i = states.nextSetBit(i + 1)) {
+            if (skips(i, name, pos))
+                states.set(i + 1);
+        }
+    }
+
+    private long closure(long states, String name, int pos) {
+        // skips only ever move forward, so a single pass in increasing order reaches every state
+        for (int i = 0; i < chars.length; i++) {
+            if ((states & (1L << i)) != 0 && skips(i, name, pos))
+                states |= 1L << (i + 1);
+        }
+
+        return states;
+    }
+
+    private char fold(char c) {
+        return ignoreCase ? Character.toUpperCase(c) : c;
+    }
+
+    private static char[] upcase(String s) {
+        char[] chars = new char[s.length()];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toUpperCase(s.charAt(i));
+        }
+
+        return chars;
+    }
+
+    private static int indexOfWildcard(char[] chars, int from) {
+        for (int i = from; i < chars.length; i++) {
+            switch (chars[i]) {
+                case '*':
+                case '?':
+                case '<':
+                case '>':
+                case '"':
+                    return i;
+                default:
+                    break;
+            }
+        }
+
+        return -1;
+    }
+}
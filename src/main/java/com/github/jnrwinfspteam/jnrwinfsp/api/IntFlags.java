@@ -0,0 +1,201 @@
+package com.github.jnrwinfspteam.jnrwinfsp.api;
+
+import jnr.ffi.util.EnumMapper;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * An immutable set of flags backed by a primitive int bitmask.
+ * <p>
+ * This is an allocation-free alternative to the {@code Set}-based representation of {@link FileAttributes},
+ * {@link CreateOptions} and {@link CleanupFlags}: testing and combining flags is plain bit arithmetic, and an
+ * {@link EnumSet} is only built when {@link #toSet()} is called.
+ * <p>
+ * The native layer calls the {@link WinFspFS} overloads taking flags of this type. Their default implementations
+ * convert the flags to sets and delegate to the {@code Set} overloads, so a file system only needs to override them
+ * to avoid that allocation on every call.
+ * <p>
+ * A flag whose value has several bits set (e.g. {@link FileAttributes#INVALID_FILE_ATTRIBUTES}) is contained in
+ * this set only if all of its bits are set.
+ *
+ * @param <E> The flag enum type
+ */
+public final class IntFlags<E extends Enum<E> & EnumMapper.IntegerEnum> {
+
+    /**
+     * Returns the flags with the given int value.
+     *
+     * @param type  The flag enum type
+     * @param value The bitmask
+     */
+    public static <E extends Enum<E> & EnumMapper.IntegerEnum> IntFlags<E> of(Class<E> type, int value) {
+        return new IntFlags<>(Objects.requireNonNull(type), value);
+    }
+
+    /**
+     * Returns an empty set of flags.
+     *
+     * @param type The flag enum type
+     */
+    public static <E extends Enum<E> & EnumMapper.IntegerEnum> IntFlags<E> noneOf(Class<E> type) {
+        return of(type, 0);
+    }
+
+    /**
+     * Returns the flags contained in the given collection.
+     *
+     * @param type  The flag enum type
+     * @param flags The flags
+     */
+    public static <E extends Enum<E> & EnumMapper.IntegerEnum> IntFlags<E> copyOf(Class<E> type,
+                                                                                 Collection<E> flags) {
+        return of(type, intOf(flags));
+    }
+
+    private final Class<E> type;
+    private final int value;
+
+    private IntFlags(Class<E> type, int value) {
+        this.type = type;
+        this.value = value;
+    }
+
+    public int intValue() {
+        return value;
+    }
+
+    public boolean isEmpty() {
+        return value == 0;
+    }
+
+    public boolean contains(E flag) {
+        int flagValue = flag.intValue();
+        return (value & flagValue) == flagValue;
+    }
+
+    /**
+     * Returns these flags plus the given flag.
+     */
+    public IntFlags<E> with(E flag) {
+        int newValue = value | flag.intValue();
+        return newValue == value ? this : new IntFlags<>(type, newValue);
+    }
+
+    /**
+     * Returns these flags plus the given flags.
+     */
+    public IntFlags<E> withAll(IntFlags<E> flags) {
+        int newValue = value | flags.value;
+        return newValue == value ? this : new IntFlags<>(type, newValue);
+    }
+
+    /**
+     * Returns these flags minus the given flag.
+     */
+    public IntFlags<E> without(E flag) {
+        int newValue = value & ~flag.intValue();
+        return newValue == value ? this : new IntFlags<>(type, newValue);
+    }
+
+    /**
+     * Returns a new mutable set with the flags contained in this object.
+     */
+    public EnumSet<E> toSet() {
+        return setOf(type, value);
+    }
+
+    /**
+     * Adds the flags contained in this object to the given set.
+     */
+    public void addTo(Collection<E> set) {
+        FlagTable<E> table = FlagTable.of(type);
+        int bits = value;
+        while (bits != 0) {
+            int bit = Integer.numberOfTrailingZeros(bits);
+            E flag = table.byBit[bit];
+            if (flag != null)
+                set.add(flag);
+            bits &= bits - 1;
+        }
+        for (E flag : table.multiBit) {
+            if (contains(flag))
+                set.add(flag);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof IntFlags))
+            return false;
+
+        IntFlags<?> other = (IntFlags<?>) o;
+        return type == other.type && value == other.value;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * type.hashCode() + value;
+    }
+
+    @Override
+    public String toString() {
+        return toSet().toString();
+    }
+
+    static <E extends Enum<E> & EnumMapper.IntegerEnum> int intOf(Collection<E> flags) {
+        int intValue = 0;
+        for (var f : flags) {
+            intValue |= f.intValue();
+        }
+
+        return intValue;
+    }
+
+    static <E extends Enum<E> & EnumMapper.IntegerEnum> EnumSet<E> setOf(Class<E> type, int value) {
+        EnumSet<E> set = EnumSet.noneOf(type);
+        new IntFlags<>(type, value).addTo(set);
+        return set;
+    }
+
+    /**
+     * Precomputed lookup table from bit index to the flag with that (single-bit) value, plus the flags whose value
+     * is not a single bit.
+     */
+    private static final class FlagTable<E extends Enum<E> & EnumMapper.IntegerEnum> {
+        private static final ClassValue<FlagTable<?>> TABLES = new ClassValue<>() {
+            @Override
+            @SuppressWarnings({"unchecked", "rawtypes"})
+            protected FlagTable<?> computeValue(Class<?> type) {
+                return new FlagTable(type);
+            }
+        };
+
+        @SuppressWarnings("unchecked")
+        static <E extends Enum<E> & EnumMapper.IntegerEnum> FlagTable<E> of(Class<E> type) {
+            return (FlagTable<E>) TABLES.get(type);
+        }
+
+        private final E[] byBit;
+        private final List<E> multiBit;
+
+        @SuppressWarnings("unchecked")
+        private FlagTable(Class<E> type) {
+            this.byBit = (E[]) Array.newInstance(type, Integer.SIZE);
+            this.multiBit = new ArrayList<>();
+            for (E flag : type.getEnumConstants()) {
+                int flagValue = flag.intValue();
+                if (Integer.bitCount(flagValue) == 1)
+                    byBit[Integer.numberOfTrailingZeros(flagValue)] = flag;
+                else if (flagValue != 0)
+                    multiBit.add(flag);
+            }
+        }
+    }
+}
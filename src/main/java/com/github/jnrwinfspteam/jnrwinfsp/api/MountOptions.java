@@ -13,9 +13,12 @@ public class MountOptions {
     private int sectorSize = 4096;
     private int sectorsPerAllocationUnit = 1;
     private long fileInfoTimeout = 1000;
+    private long volumeInfoMaxAge = 0;
     private boolean wslFeatures = true;
     private int maxFileNameLength = 255;
     private boolean forceBuiltinAdminOwnerAndGroup = false;
+    private boolean directoryBuffer = false;
+    private boolean readOnly = false;
 
     /**
      * Sets "debug" option (default is {@code false}).
@@ -89,6 +92,18 @@ public class MountOptions {
         return this;
     }
 
+    /**
+     * Sets "volume info max age" option (default is 0).
+     *
+     * @param volumeInfoMaxAge For how long (in milliseconds) the volume information returned or published by the
+     *                         file system answers volume queries without calling
+     *                         {@link WinFspFS#getVolumeInfo getVolumeInfo} (0 calls it for every query)
+     */
+    public MountOptions setVolumeInfoMaxAge(long volumeInfoMaxAge) {
+        this.volumeInfoMaxAge = volumeInfoMaxAge;
+        return this;
+    }
+
     /**
      * Sets "WSL feature" option (default is {@code true}).
      *
@@ -121,6 +136,31 @@ public class MountOptions {
         return this;
     }
 
+    /**
+     * Sets "directory buffer" option (default is {@code false}).
+     *
+     * @param directoryBuffer If true, then the full listing of a directory is requested from
+     *                        {@link WinFspFS#readDirectory readDirectory} once per enumeration (without a marker)
+     *                        and kept in a native WinFsp directory buffer, from which the following pages are read
+     *                        without calling back into Java. Entries are then returned in WinFsp's own (ordinal
+     *                        name) order.
+     */
+    public MountOptions setDirectoryBuffer(boolean directoryBuffer) {
+        this.directoryBuffer = directoryBuffer;
+        return this;
+    }
+
+    /**
+     * Sets "read-only" option (default is {@code false}).
+     *
+     * @param readOnly If true, then the volume will be mounted as read-only, and Windows will reject any
+     *                 modification before calling the file system
+     */
+    public MountOptions setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+        return this;
+    }
+
     public boolean hasDebug() {
         return debug;
     }
@@ -149,6 +189,10 @@ public class MountOptions {
         return fileInfoTimeout;
     }
 
+    public long getVolumeInfoMaxAge() {
+        return volumeInfoMaxAge;
+    }
+
     public boolean hasWslFeatures() {
         return wslFeatures;
     }
@@ -161,6 +205,14 @@ public class MountOptions {
         return forceBuiltinAdminOwnerAndGroup;
     }
 
+    public boolean hasDirectoryBuffer() {
+        return directoryBuffer;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
     /**
      * Configures a file system according to the case of filenames.
      */
@@ -20,6 +20,8 @@ public final class OpenContext {
     private final long fileHandle;
     private volatile String path;
     private volatile Type type;
+    private volatile Object node;
+    private volatile Object directoryListing;
 
     private OpenContext(long fileHandle, String path, Type type) {
         this.fileHandle = fileHandle;
@@ -47,6 +49,36 @@ public final class OpenContext {
         return Type.DIRECTORY.equals(type);
     }
 
+    /**
+     * Returns the implementation-defined object bound to this handle, as given in {@link OpenResult}
+     * (or set later with {@link #setNode(Object)}). It allows operations on an open handle to reach the file system's
+     * node directly, without resolving the path again.
+     *
+     * @return the node bound to this handle, or null if none
+     */
+    public Object getNode() {
+        return node;
+    }
+
+    public void setNode(Object node) {
+        this.node = node;
+    }
+
+    /**
+     * Returns the implementation-defined state of the directory listing in progress on this handle (e.g. a sorted
+     * snapshot of the directory), so that {@link WinFspFS#readDirectory readDirectory} calls with a marker can resume
+     * where the previous call stopped. It is released when the handle is closed.
+     *
+     * @return the directory listing state, or null if none
+     */
+    public Object getDirectoryListing() {
+        return directoryListing;
+    }
+
+    public void setDirectoryListing(Object directoryListing) {
+        this.directoryListing = directoryListing;
+    }
+
     public void setPath(String path) {
         this.path = Objects.requireNonNull(path);
     }
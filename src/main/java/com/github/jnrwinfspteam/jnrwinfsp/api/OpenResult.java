@@ -6,10 +6,23 @@ public final class OpenResult {
 
     private final long fileHandle;
     private final FileInfo fileInfo;
+    private final Object node;
 
     public OpenResult(long fileHandle, FileInfo fileInfo) {
+        this(fileHandle, fileInfo, null);
+    }
+
+    /**
+     * @param fileHandle The file handle
+     * @param fileInfo   The file information
+     * @param node       (optional) An implementation-defined object (e.g. the file system's own node for the opened
+     *                   file), which will be available via {@link OpenContext#getNode()} in every subsequent
+     *                   operation on this handle
+     */
+    public OpenResult(long fileHandle, FileInfo fileInfo, Object node) {
         this.fileHandle = fileHandle;
         this.fileInfo = Objects.requireNonNull(fileInfo);
+        this.node = node;
     }
 
     public long getFileHandle() {
@@ -19,4 +32,8 @@ public final class OpenResult {
     public FileInfo getFileInfo() {
         return fileInfo;
     }
+
+    public Object getNode() {
+        return node;
+    }
 }
@@ -6,11 +6,28 @@ import java.util.Set;
 public final class SecurityResult {
 
     private final byte[] securityDescriptor;
-    private final Set<FileAttributes> fileAttributes;
+    private final IntFlags<FileAttributes> fileAttributes;
+    private final Object node;
 
     public SecurityResult(byte[] securityDescriptor, Set<FileAttributes> fileAttributes) {
+        this(securityDescriptor, IntFlags.copyOf(FileAttributes.class, fileAttributes));
+    }
+
+    public SecurityResult(byte[] securityDescriptor, IntFlags<FileAttributes> fileAttributes) {
+        this(securityDescriptor, fileAttributes, null);
+    }
+
+    /**
+     * @param securityDescriptor The security descriptor
+     * @param fileAttributes     The file attributes
+     * @param node               (optional) A token identifying the resolved file or directory (e.g. the file system's
+     *                           own node object). It is handed back to the Open or Create call that immediately
+     *                           follows on the same thread, so that the name does not need to be resolved twice.
+     */
+    public SecurityResult(byte[] securityDescriptor, IntFlags<FileAttributes> fileAttributes, Object node) {
         this.securityDescriptor = Objects.requireNonNull(securityDescriptor);
         this.fileAttributes = Objects.requireNonNull(fileAttributes);
+        this.node = node;
     }
 
     public byte[] getSecurityDescriptor() {
@@ -18,6 +35,14 @@ public final class SecurityResult {
     }
 
     public Set<FileAttributes> getFileAttributes() {
+        return fileAttributes.toSet();
+    }
+
+    public IntFlags<FileAttributes> getFileAttributeFlags() {
         return fileAttributes;
     }
+
+    public Object getNode() {
+        return node;
+    }
 }
@@ -0,0 +1,39 @@
+package com.github.jnrwinfspteam.jnrwinfsp.api;
+
+import java.util.Objects;
+
+public final class StreamInfo {
+
+    private final String streamName;
+    private final long streamSize;
+    private final long streamAllocationSize;
+
+    /**
+     * @param streamName           The name of the stream, without the leading colon and the ":$DATA" suffix
+     *                             (an empty name denotes the main stream of a file)
+     * @param streamSize           The size of the stream
+     * @param streamAllocationSize The allocation size of the stream
+     */
+    public StreamInfo(String streamName, long streamSize, long streamAllocationSize) {
+        this.streamName = Objects.requireNonNull(streamName);
+        this.streamSize = streamSize;
+        this.streamAllocationSize = streamAllocationSize;
+    }
+
+    public String getStreamName() {
+        return streamName;
+    }
+
+    public long getStreamSize() {
+        return streamSize;
+    }
+
+    public long getStreamAllocationSize() {
+        return streamAllocationSize;
+    }
+
+    @Override
+    public String toString() {
+        return "{" + streamName + "; " + streamSize + "; " + streamAllocationSize + "}";
+    }
+}
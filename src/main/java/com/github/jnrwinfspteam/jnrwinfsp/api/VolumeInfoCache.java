@@ -0,0 +1,72 @@
+package com.github.jnrwinfspteam.jnrwinfsp.api;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The last {@link VolumeInfo} published by a file system (see {@link AbstractWinFspFS#publishVolumeInfo}) or returned
+ * by one of its operations, which answers volume queries without calling the file system while it is fresh.
+ * <p>
+ * Each publication replaces an immutable snapshot of the information and the time it was published, so reading it
+ * never blocks nor contends with the operations of the file system.
+ */
+final class VolumeInfoCache {
+
+    private final AtomicReference<Snapshot> snapshot;
+    private volatile long maxAgeNanos;
+
+    VolumeInfoCache() {
+        this.snapshot = new AtomicReference<>();
+        this.maxAgeNanos = 0;
+    }
+
+    /**
+     * Sets how long a published snapshot stays fresh, in milliseconds (0 means that it is never used).
+     */
+    void setMaxAge(long maxAgeMillis) {
+        this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxAgeMillis));
+    }
+
+    void publish(VolumeInfo volumeInfo) {
+        snapshot.set(newSnapshot(volumeInfo));
+    }
+
+    /**
+     * Publishes information queried from the file system, unless another snapshot was published since
+     * {@code expected} was read: a slow query must not replace newer information.
+     */
+    void publishIfUnchanged(Snapshot expected, VolumeInfo volumeInfo) {
+        snapshot.compareAndSet(expected, newSnapshot(volumeInfo));
+    }
+
+    /**
+     * @return The last published snapshot (to check with {@link #getFresh(Snapshot)}), or null
+     */
+    Snapshot getSnapshot() {
+        return snapshot.get();
+    }
+
+    /**
+     * @return The information of the given snapshot if it is still fresh, or null
+     */
+    VolumeInfo getFresh(Snapshot s) {
+        if (s == null || System.nanoTime() - s.publishTime >= maxAgeNanos)
+            return null;
+
+        return s.volumeInfo;
+    }
+
+    private static Snapshot newSnapshot(VolumeInfo volumeInfo) {
+        return volumeInfo != null ? new Snapshot(volumeInfo, System.nanoTime()) : null;
+    }
+
+    static final class Snapshot {
+        final VolumeInfo volumeInfo;
+        final long publishTime; // System.nanoTime()
+
+        Snapshot(VolumeInfo volumeInfo, long publishTime) {
+            this.volumeInfo = volumeInfo;
+            this.publishTime = publishTime;
+        }
+    }
+}
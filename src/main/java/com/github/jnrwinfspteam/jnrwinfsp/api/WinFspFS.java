@@ -57,6 +57,98 @@ public interface WinFspFS {
                       ReparsePoint reparsePoint
     ) throws NTStatusException;
 
+    /**
+     * Create new file or directory, with the flags given as bitmasks.
+     * <p>
+     * This is the variant invoked by the native layer (see {@link IntFlags}). The default implementation delegates to
+     * {@link #create(String, Set, int, Set, byte[], long, ReparsePoint)} with the create options and the file
+     * attributes as sets.
+     */
+    default OpenResult create(String fileName,
+                              IntFlags<CreateOptions> createOptions,
+                              int grantedAccess,
+                              IntFlags<FileAttributes> fileAttributes,
+                              byte[] securityDescriptor,
+                              long allocationSize,
+                              ReparsePoint reparsePoint
+    ) throws NTStatusException {
+        return create(
+                fileName,
+                createOptions.toSet(),
+                grantedAccess,
+                fileAttributes.toSet(),
+                securityDescriptor,
+                allocationSize,
+                reparsePoint
+        );
+    }
+
+    /**
+     * Create new file or directory, reusing the parent directory resolved by a preceding getSecurityByName call.
+     * <p>
+     * Before a Create, WinFsp checks access to the parent directory by calling getSecurityByName with the parent's
+     * name. If that call returned a {@link SecurityResult#getNode() node}, it is passed here as resolvedParent.
+     * The default implementation ignores it and delegates to
+     * {@link #create(String, IntFlags, int, IntFlags, byte[], long, ReparsePoint)}.
+     *
+     * @param resolvedParent The node of the parent directory returned by getSecurityByName, or null. This is only a
+     *                       hint: the file system must check that it is still valid, as the namespace may have changed
+     *                       in between.
+     */
+    default OpenResult create(String fileName,
+                              IntFlags<CreateOptions> createOptions,
+                              int grantedAccess,
+                              IntFlags<FileAttributes> fileAttributes,
+                              byte[] securityDescriptor,
+                              long allocationSize,
+                              ReparsePoint reparsePoint,
+                              Object resolvedParent
+    ) throws NTStatusException {
+        return create(
+                fileName,
+                createOptions,
+                grantedAccess,
+                fileAttributes,
+                securityDescriptor,
+                allocationSize,
+                reparsePoint
+        );
+    }
+
+    /**
+     * Create new file or directory with extended attributes.
+     * <p>
+     * This is the variant invoked by the native layer. The default implementation fails with STATUS_EAS_NOT_SUPPORTED
+     * if there are extended attributes, and otherwise delegates to
+     * {@link #create(String, IntFlags, int, IntFlags, byte[], long, ReparsePoint, Object)}.
+     *
+     * @param extendedAttributes The extended attributes of the new file or directory (never null, usually empty).
+     */
+    default OpenResult create(String fileName,
+                              IntFlags<CreateOptions> createOptions,
+                              int grantedAccess,
+                              IntFlags<FileAttributes> fileAttributes,
+                              byte[] securityDescriptor,
+                              long allocationSize,
+                              ReparsePoint reparsePoint,
+                              ExtendedAttributes extendedAttributes,
+                              Object resolvedParent
+    ) throws NTStatusException {
+        if (!extendedAttributes.isEmpty())
+            throw new NTStatusException(0xC000004F); // STATUS_EAS_NOT_SUPPORTED
+
+        return create(
+                fileName,
+                createOptions,
+                grantedAccess,
+                fileAttributes,
+                securityDescriptor,
+                allocationSize,
+                reparsePoint,
+                resolvedParent
+        );
+    }
+
     /**
      * Open a file or directory.
      *
@@ -74,6 +166,36 @@ public interface WinFspFS {
      */
     OpenResult open(String fileName, Set<CreateOptions> createOptions, int grantedAccess) throws NTStatusException;
 
+    /**
+     * Open a file or directory, with the create options given as a bitmask.
+     * <p>
+     * This is the variant invoked by the native layer (see {@link IntFlags}). The default implementation delegates to
+     * {@link #open(String, Set, int)} with the create options as a set.
+     */
+    default OpenResult open(String fileName, IntFlags<CreateOptions> createOptions, int grantedAccess)
+            throws NTStatusException {
+        return open(fileName, createOptions.toSet(), grantedAccess);
+    }
+
+    /**
+     * Open a file or directory, reusing the node resolved by a preceding getSecurityByName call.
+     * <p>
+     * WinFsp calls getSecurityByName and then Open for the same name. If that call returned a
+     * {@link SecurityResult#getNode() node}, it is passed here as resolvedNode. The default implementation ignores it
+     * and delegates to {@link #open(String, IntFlags, int)}.
+     *
+     * @param resolvedNode The node returned by getSecurityByName for the same name, or null. This is only a hint:
+     *                     the file system must check that it is still valid, as the namespace may have changed in
+     *                     between.
+     */
+    default OpenResult open(String fileName,
+                            IntFlags<CreateOptions> createOptions,
+                            int grantedAccess,
+                            Object resolvedNode
+    ) throws NTStatusException {
+        return open(fileName, createOptions, grantedAccess);
+    }
+
     /**
      * Overwrite a file.
      *
@@ -89,6 +211,43 @@ public interface WinFspFS {
                        long allocationSize
     ) throws NTStatusException;
 
+    /**
+     * Overwrite a file, with the file attributes given as a bitmask.
+     * <p>
+     * This is the variant invoked by the native layer (see {@link IntFlags}). The default implementation delegates to
+     * {@link #overwrite(OpenContext, Set, boolean, long)} with the file attributes as a set.
+     */
+    default FileInfo overwrite(OpenContext ctx,
+                               IntFlags<FileAttributes> fileAttributes,
+                               boolean replaceFileAttributes,
+                               long allocationSize
+    ) throws NTStatusException {
+        return overwrite(ctx, fileAttributes.toSet(), replaceFileAttributes, allocationSize);
+    }
+
+    /**
+     * Overwrite a file, replacing its extended attributes.
+     * <p>
+     * This is the variant invoked by the native layer when the file system supports extended attributes (i.e. when
+     * {@link #getEa(OpenContext)} is implemented). The default implementation fails with STATUS_EAS_NOT_SUPPORTED
+     * if there are extended attributes, and otherwise delegates to
+     * {@link #overwrite(OpenContext, IntFlags, boolean, long)}.
+     *
+     * @param extendedAttributes The new extended attributes of the file (never null, possibly empty), which replace
+     *                           all the existing ones.
+     */
+    default FileInfo overwrite(OpenContext ctx,
+                               IntFlags<FileAttributes> fileAttributes,
+                               boolean replaceFileAttributes,
+                               long allocationSize,
+                               ExtendedAttributes extendedAttributes
+    ) throws NTStatusException {
+        if (!extendedAttributes.isEmpty())
+            throw new NTStatusException(0xC000004F); // STATUS_EAS_NOT_SUPPORTED
+
+        return overwrite(ctx, fileAttributes, replaceFileAttributes, allocationSize);
+    }
+
     /**
      * Cleanup a file.
      * <p>
@@ -139,6 +298,17 @@ public interface WinFspFS {
      */
     void cleanup(OpenContext ctx, Set<CleanupFlags> flags);
 
+    /**
+     * Cleanup a file, with the cleanup flags given as a bitmask.
+     * <p>
+     * This is the variant invoked by the native layer (see {@link IntFlags}). The default implementation delegates to
+     * {@link #cleanup(OpenContext, Set)} with the cleanup flags as a set; {@link CleanupFlags#flagsOf(int)} gives
+     * cached flags for every value, so this call does not allocate when overridden.
+     */
+    default void cleanup(OpenContext ctx, IntFlags<CleanupFlags> flags) {
+        cleanup(ctx, flags.toSet());
+    }
+
     /**
      * Close a file.
      *
@@ -218,6 +388,30 @@ public interface WinFspFS {
                           WinSysTime changeTime
     ) throws NTStatusException;
 
+    /**
+     * Set file or directory basic information, with the file attributes given as a bitmask.
+     * <p>
+     * This is the variant invoked by the native layer (see {@link IntFlags}). The default implementation delegates to
+     * {@link #setBasicInfo(OpenContext, Set, WinSysTime, WinSysTime, WinSysTime, WinSysTime)} with the file
+     * attributes as a set, which is {@link FileAttributes#INVALID_FILE_ATTRIBUTES} when they are not to be changed.
+     */
+    default FileInfo setBasicInfo(OpenContext ctx,
+                                  IntFlags<FileAttributes> fileAttributes,
+                                  WinSysTime creationTime,
+                                  WinSysTime lastAccessTime,
+                                  WinSysTime lastWriteTime,
+                                  WinSysTime changeTime
+    ) throws NTStatusException {
+        return setBasicInfo(
+                ctx,
+                fileAttributes.toSet(),
+                creationTime,
+                lastAccessTime,
+                lastWriteTime,
+                changeTime
+        );
+    }
+
     /**
      * Set file/allocation size.
      * <p>
@@ -302,7 +496,8 @@ public interface WinFspFS {
      * @param ctx      The context of the directory to be read.
      * @param pattern  The pattern to match against files in this directory. Can be NULL. The file system
      *                 can choose to ignore this parameter as the FSD will always perform its own pattern
-     *                 matching on the returned results.
+     *                 matching on the returned results. See {@link FileNamePattern} for skipping
+     *                 non-matching files early.
      * @param marker   A file name that marks where in the directory to start reading. Files with names
      *                 that are greater than (not equal to) this marker (in the directory order determined
      *                 by the file system) should be returned. Can be NULL.
@@ -321,6 +516,19 @@ public interface WinFspFS {
      */
     FileInfo getDirInfoByName(OpenContext parentDirCtx, String fileName) throws NTStatusException;
 
+    /**
+     * Get named streams information.
+     * <p>
+     * When this operation is implemented the volume supports named streams, and the names passed to
+     * getSecurityByName, create and open may have the form "file:stream" (optionally followed by ":$DATA").
+     *
+     * @param ctx      The context of the file or directory to get stream information for.
+     * @param consumer A consumer that accepts stream entries, one by one (the main stream of a file first, with an
+     *                 empty name). Will return true while more entries can be added, and false when no more can be
+     *                 added due to lack of memory.
+     */
+    void getStreamInfo(OpenContext ctx, Predicate<StreamInfo> consumer) throws NTStatusException;
+
     /**
      * Get reparse point data.
      *
@@ -343,4 +551,22 @@ public interface WinFspFS {
      * @param ctx The context of the file or directory to be read
      */
     void deleteReparsePoint(OpenContext ctx) throws NTStatusException;
+
+    /**
+     * Get extended attributes.
+     * <p>
+     * All the extended attributes of the file must be returned; the FSD selects the ones that were requested.
+     *
+     * @param ctx The context of the file or directory to get the extended attributes for.
+     */
+    ExtendedAttributes getEa(OpenContext ctx) throws NTStatusException;
+
+    /**
+     * Set extended attributes.
+     *
+     * @param ctx     The context of the file or directory to set the extended attributes for.
+     * @param changes The extended attributes to set. An attribute replaces the existing attribute with the same name
+     *                (case-insensitively), and an attribute with an empty value deletes it.
+     */
+    FileInfo setEa(OpenContext ctx, ExtendedAttributes changes) throws NTStatusException;
 }
@@ -43,6 +43,76 @@ public class WinFspStubFS extends AbstractWinFspFS {
         return null;
     }
 
+    @Override
+    @NotImplemented
+    public OpenResult create(
+            String fileName,
+            IntFlags<CreateOptions> createOptions,
+            int grantedAccess,
+            IntFlags<FileAttributes> fileAttributes,
+            byte[] securityDescriptor,
+            long allocationSize,
+            ReparsePoint reparsePoint) throws NTStatusException {
+        return create(
+                fileName,
+                createOptions.toSet(),
+                grantedAccess,
+                fileAttributes.toSet(),
+                securityDescriptor,
+                allocationSize,
+                reparsePoint
+        );
+    }
+
+    @Override
+    @NotImplemented
+    public OpenResult create(
+            String fileName,
+            IntFlags<CreateOptions> createOptions,
+            int grantedAccess,
+            IntFlags<FileAttributes> fileAttributes,
+            byte[] securityDescriptor,
+            long allocationSize,
+            ReparsePoint reparsePoint,
+            Object resolvedParent) throws NTStatusException {
+        return create(
+                fileName,
+                createOptions,
+                grantedAccess,
+                fileAttributes,
+                securityDescriptor,
+                allocationSize,
+                reparsePoint
+        );
+    }
+
+    @Override
+    @NotImplemented
+    public OpenResult create(
+            String fileName,
+            IntFlags<CreateOptions> createOptions,
+            int grantedAccess,
+            IntFlags<FileAttributes> fileAttributes,
+            byte[] securityDescriptor,
+            long allocationSize,
+            ReparsePoint reparsePoint,
+            ExtendedAttributes extendedAttributes,
+            Object resolvedParent) throws NTStatusException {
+        if (!extendedAttributes.isEmpty())
+            throw new NTStatusException(0xC000004F); // STATUS_EAS_NOT_SUPPORTED
+
+        return create(
+                fileName,
+                createOptions,
+                grantedAccess,
+                fileAttributes,
+                securityDescriptor,
+                allocationSize,
+                reparsePoint,
+                resolvedParent
+        );
+    }
+
     @Override
     @NotImplemented
     public OpenResult open(
@@ -52,6 +122,25 @@ public class WinFspStubFS extends AbstractWinFspFS {
         return null;
     }
 
+    @Override
+    @NotImplemented
+    public OpenResult open(
+            String fileName,
+            IntFlags<CreateOptions> createOptions,
+            int grantedAccess) throws NTStatusException {
+        return open(fileName, createOptions.toSet(), grantedAccess);
+    }
+
+    @Override
+    @NotImplemented
+    public OpenResult open(
+            String fileName,
+            IntFlags<CreateOptions> createOptions,
+            int grantedAccess,
+            Object resolvedNode) throws NTStatusException {
+        return open(fileName, createOptions, grantedAccess);
+    }
+
     @Override
     @NotImplemented
     public FileInfo overwrite(
@@ -62,12 +151,42 @@ public class WinFspStubFS extends AbstractWinFspFS {
         return null;
     }
 
+    @Override
+    @NotImplemented
+    public FileInfo overwrite(
+            OpenContext ctx,
+            IntFlags<FileAttributes> fileAttributes,
+            boolean replaceFileAttributes,
+            long allocationSize) throws NTStatusException {
+        return overwrite(ctx, fileAttributes.toSet(), replaceFileAttributes, allocationSize);
+    }
+
+    @Override
+    @NotImplemented
+    public FileInfo overwrite(
+            OpenContext ctx,
+            IntFlags<FileAttributes> fileAttributes,
+            boolean replaceFileAttributes,
+            long allocationSize,
+            ExtendedAttributes extendedAttributes) throws NTStatusException {
+        if (!extendedAttributes.isEmpty())
+            throw new NTStatusException(0xC000004F); // STATUS_EAS_NOT_SUPPORTED
+
+        return overwrite(ctx, fileAttributes, replaceFileAttributes, allocationSize);
+    }
+
     @Override
     @NotImplemented
     public void cleanup(OpenContext ctx, Set<CleanupFlags> flags) {
 
     }
 
+    @Override
+    @NotImplemented
+    public void cleanup(OpenContext ctx, IntFlags<CleanupFlags> flags) {
+        cleanup(ctx, flags.toSet());
+    }
+
     @Override
     @NotImplemented
     public void close(OpenContext ctx) {
@@ -120,6 +239,18 @@ public class WinFspStubFS extends AbstractWinFspFS {
         return null;
     }
 
+    @Override
+    @NotImplemented
+    public FileInfo setBasicInfo(
+            OpenContext ctx,
+            IntFlags<FileAttributes> fileAttributes,
+            WinSysTime creationTime,
+            WinSysTime lastAccessTime,
+            WinSysTime lastWriteTime,
+            WinSysTime changeTime) throws NTStatusException {
+        return setBasicInfo(ctx, fileAttributes.toSet(), creationTime, lastAccessTime, lastWriteTime, changeTime);
+    }
+
     @Override
     @NotImplemented
     public FileInfo setFileSize(
@@ -186,9 +317,27 @@ public class WinFspStubFS extends AbstractWinFspFS {
             throws NTStatusException {
     }
 
+    @Override
+    @NotImplemented
+    public void getStreamInfo(OpenContext ctx, Predicate<StreamInfo> consumer) throws NTStatusException {
+
+    }
+
     @Override
     @NotImplemented
     public void deleteReparsePoint(OpenContext ctx) throws NTStatusException {
 
     }
+
+    @Override
+    @NotImplemented
+    public ExtendedAttributes getEa(OpenContext ctx) throws NTStatusException {
+        return null;
+    }
+
+    @Override
+    @NotImplemented
+    public FileInfo setEa(OpenContext ctx, ExtendedAttributes changes) throws NTStatusException {
+        return null;
+    }
 }
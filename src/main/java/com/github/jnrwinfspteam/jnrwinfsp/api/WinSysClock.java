@@ -0,0 +1,152 @@
+package com.github.jnrwinfspteam.jnrwinfsp.api;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A source of Windows NT system time values.
+ * <p>
+ * The {@link #system()} clock reads the system time on every call, exactly like {@link WinSysTime#now()}.
+ * A {@link #coarse(Duration) coarse} clock instead caches the current time and has it refreshed by a background
+ * thread at a fixed granularity, so that reading it is a single volatile read and never allocates.
+ */
+public abstract class WinSysClock implements AutoCloseable {
+
+    /**
+     * Default granularity of the shared coarse clock (about the resolution of the Windows system timer).
+     */
+    public static final Duration DEFAULT_GRANULARITY = Duration.ofMillis(10);
+
+    /**
+     * Returns a clock that reads the system time on every call.
+     *
+     * @return the system clock
+     */
+    public static WinSysClock system() {
+        return SystemClock.INSTANCE;
+    }
+
+    /**
+     * Returns a shared coarse clock with the {@link #DEFAULT_GRANULARITY default granularity}.
+     * Closing this clock has no effect.
+     *
+     * @return the shared coarse clock
+     */
+    public static WinSysClock coarse() {
+        return SharedCoarseClock.INSTANCE;
+    }
+
+    /**
+     * Returns a new coarse clock, refreshed by a background (daemon) thread at the given granularity.
+     * The returned clock should be closed when no longer needed, in order to stop refreshing it.
+     *
+     * @param granularity Interval between refreshes of the cached time value
+     * @return a new coarse clock
+     */
+    public static WinSysClock coarse(Duration granularity) {
+        return new CoarseClock(granularity);
+    }
+
+    /**
+     * Returns the current time as a Windows NT system time value.
+     *
+     * @return a Windows NT system time in (10^-7)s intervals from midnight 1 January 1601
+     */
+    public abstract long nowFileTime();
+
+    /**
+     * Returns the current time as a WinSysTime object.
+     *
+     * @return a WinSysTime object with the current time
+     */
+    public abstract WinSysTime now();
+
+    /**
+     * Stops refreshing this clock, if applicable. Closing the system clock has no effect.
+     */
+    @Override
+    public void close() {
+    }
+
+    private static final class SystemClock extends WinSysClock {
+        private static final SystemClock INSTANCE = new SystemClock();
+
+        @Override
+        public long nowFileTime() {
+            return WinSysTime.fileTimeOf(Instant.now());
+        }
+
+        @Override
+        public WinSysTime now() {
+            return WinSysTime.now();
+        }
+    }
+
+    private static class CoarseClock extends WinSysClock {
+        private static final ScheduledExecutorService TICKER = newTicker();
+
+        private final ScheduledFuture<?> tickTask;
+        private volatile WinSysTime current;
+
+        CoarseClock(Duration granularity) {
+            long granularityNanos = Objects.requireNonNull(granularity).toNanos();
+            if (granularityNanos <= 0)
+                throw new IllegalArgumentException("granularity must be positive");
+
+            this.current = WinSysTime.now();
+            this.tickTask = TICKER.scheduleAtFixedRate(
+                    this::tick,
+                    granularityNanos,
+                    granularityNanos,
+                    TimeUnit.NANOSECONDS
+            );
+        }
+
+        private void tick() {
+            this.current = WinSysTime.now();
+        }
+
+        @Override
+        public long nowFileTime() {
+            return current.get();
+        }
+
+        @Override
+        public WinSysTime now() {
+            return current;
+        }
+
+        @Override
+        public void close() {
+            tickTask.cancel(false);
+        }
+
+        private static ScheduledExecutorService newTicker() {
+            var ticker = new ScheduledThreadPoolExecutor(1, r -> {
+                Thread t = new Thread(r, "WinSysClock-ticker");
+                t.setDaemon(true);
+                return t;
+            });
+            ticker.setRemoveOnCancelPolicy(true);
+            return ticker;
+        }
+    }
+
+    private static final class SharedCoarseClock extends CoarseClock {
+        private static final SharedCoarseClock INSTANCE = new SharedCoarseClock();
+
+        private SharedCoarseClock() {
+            super(DEFAULT_GRANULARITY);
+        }
+
+        @Override
+        public void close() {
+            // shared clock is never stopped
+        }
+    }
+}
@@ -28,13 +28,22 @@ public class WinSysTime {
      * @return a new WinSysTime object
      */
     public static WinSysTime fromInstant(Instant instant) {
+        return new WinSysTime(fileTimeOf(instant));
+    }
+
+    /**
+     * Converts an Instant object to a Windows NT system time value, without creating a WinSysTime object.
+     *
+     * @param instant A time instant
+     * @return a Windows NT system time in (10^-7)s intervals from midnight 1 January 1601
+     */
+    public static long fileTimeOf(Instant instant) {
         // Duration duration = Duration.between(ZERO, instant);
         // long fileTime = (duration.getSeconds() * 10_000_000) + (duration.getNano() / 100);
 
-        long fileTime = TENTH_MICROS_BETWEEN_EPOCHS
+        return TENTH_MICROS_BETWEEN_EPOCHS
                 + (instant.getEpochSecond() * 10_000_000)
                 + (instant.getNano() / 100);
-        return new WinSysTime(fileTime);
     }
 
     // Windows NT system time in (10^-7)s intervals from midnight 1 January 1601
@@ -175,6 +175,106 @@ public interface LibWinFsp {
             Pointer /* ULONG */ pBytesTransferred
     );
 
+    /**
+     * Acquire a directory buffer.
+     * <p>
+     * A directory buffer caches the marshaled listing of a directory, so that ReadDirectory operations with a marker
+     * can be served from it. A file system that uses a directory buffer fills it (with FspFileSystemFillDirectoryBuffer)
+     * only when this function returns TRUE, then releases it with FspFileSystemReleaseDirectoryBuffer.
+     *
+     * @param ppDirBuffer Pointer to the directory buffer (a PVOID, initially NULL, owned by the file context).
+     * @param reset       If TRUE, the buffer is emptied and must be filled again. This is normally TRUE when the
+     *                    ReadDirectory Marker parameter is NULL.
+     * @param pResult     [out]
+     *                    Pointer to a memory location that will receive the NTSTATUS of this operation.
+     * @return TRUE if the buffer was acquired and must be filled, FALSE if it can be read as it is (or on error).
+     */
+    @u_int8_t
+    byte FspFileSystemAcquireDirectoryBuffer(
+            Pointer /* PVOID* */ ppDirBuffer,
+            byte /* BOOLEAN */ reset,
+            Pointer /* NTSTATUS */ pResult
+    );
+
+    /**
+     * Add directory information to a directory buffer.
+     * <p>
+     * Must only be called between FspFileSystemAcquireDirectoryBuffer (returning TRUE) and
+     * FspFileSystemReleaseDirectoryBuffer.
+     *
+     * @param ppDirBuffer Pointer to the directory buffer.
+     * @param pDirInfo    The directory information to add.
+     * @param pResult     [out]
+     *                    Pointer to a memory location that will receive the NTSTATUS of this operation.
+     * @return TRUE if the directory information was added, FALSE otherwise (e.g. out of memory).
+     */
+    @u_int8_t
+    byte FspFileSystemFillDirectoryBuffer(
+            Pointer /* PVOID* */ ppDirBuffer,
+            Pointer /* FSP_FSCTL_DIR_INFO */ pDirInfo,
+            Pointer /* NTSTATUS */ pResult
+    );
+
+    /**
+     * Release a directory buffer acquired with FspFileSystemAcquireDirectoryBuffer.
+     *
+     * @param ppDirBuffer Pointer to the directory buffer.
+     */
+    void FspFileSystemReleaseDirectoryBuffer(
+            Pointer /* PVOID* */ ppDirBuffer
+    );
+
+    /**
+     * Read the entries of a directory buffer into a ReadDirectory buffer, starting after the given marker.
+     *
+     * @param ppDirBuffer       Pointer to the directory buffer.
+     * @param pMarker           The ReadDirectory Marker parameter.
+     * @param pBuffer           The ReadDirectory Buffer parameter.
+     * @param length            The ReadDirectory Length parameter.
+     * @param pBytesTransferred [out]
+     *                          The ReadDirectory PBytesTransferred parameter.
+     */
+    void FspFileSystemReadDirectoryBuffer(
+            Pointer /* PVOID* */ ppDirBuffer,
+            Pointer /* WSTR */ pMarker,
+            Pointer /* VOID */ pBuffer,
+            @u_int32_t int length,
+            Pointer /* ULONG */ pBytesTransferred
+    );
+
+    /**
+     * Delete a directory buffer. This is normally called when the file context is closed.
+     *
+     * @param ppDirBuffer Pointer to the directory buffer.
+     */
+    void FspFileSystemDeleteDirectoryBuffer(
+            Pointer /* PVOID* */ ppDirBuffer
+    );
+
+    /**
+     * Add named stream information to a buffer.
+     * <p>
+     * This is a helper for implementing the GetStreamInfo operation.
+     *
+     * @param pStreamInfo       The stream information to add. A value of NULL acts as an EOF marker for a GetStreamInfo
+     *                          operation.
+     * @param pBuffer           Pointer to a buffer that will receive the stream information. This should contain
+     *                          the same value passed to the GetStreamInfo Buffer parameter.
+     * @param length            Length of buffer. This should contain the same value passed to the GetStreamInfo
+     *                          Length parameter.
+     * @param pBytesTransferred [out]
+     *                          Pointer to a memory location that will receive the actual number of bytes stored. This
+     *                          should contain the same value passed to the GetStreamInfo PBytesTransferred parameter.
+     * @return TRUE if the stream information was added, FALSE if there was not enough space to add it.
+     */
+    @u_int8_t
+    byte FspFileSystemAddStreamInfo(
+            Pointer /* FSP_FSCTL_STREAM_INFO */ pStreamInfo,
+            Pointer /* VOID */ pBuffer,
+            @u_int32_t int length,
+            Pointer /* ULONG */ pBytesTransferred
+    );
+
     @FunctionalInterface
     interface GetReparsePointByNameCallback {
         @Delegate
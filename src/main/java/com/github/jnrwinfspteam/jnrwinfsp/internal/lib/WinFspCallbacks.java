@@ -715,6 +715,28 @@ public final class WinFspCallbacks {
         );
     }
 
+    @FunctionalInterface
+    public interface GetStreamInfoCallback {
+        /**
+         * Get named streams information.
+         *
+         * @param pFileSystem       The file system on which this request is posted.
+         * @param pFileContext      The file context of the file or directory to get stream information for.
+         * @param pBuffer           Pointer to a buffer that will receive the stream information.
+         * @param length            Length of buffer.
+         * @param pBytesTransferred [out]
+         *                          Pointer to a memory location that will receive the actual number of bytes stored.
+         * @return STATUS_SUCCESS or error code.
+         */
+        @Delegate
+        @u_int32_t
+        int GetStreamInfo(Pointer /* FSP_FILE_SYSTEM */ pFileSystem,
+                          Pointer /* VOID */ pFileContext,
+                          Pointer /* VOID */ pBuffer,
+                          @u_int32_t int length,
+                          Pointer /* ULONG */ pBytesTransferred);
+    }
+
     @FunctionalInterface
     public interface GetDirInfoByNameCallback {
         /**
@@ -738,6 +760,89 @@ public final class WinFspCallbacks {
                              Pointer /* FSP_FSCTL_DIR_INFO */ pDirInfo);
     }
 
+    @FunctionalInterface
+    public interface OverwriteExCallback {
+        /**
+         * Overwrite a file.
+         * <p>
+         * This function works like Overwrite, except that it also accepts EA (extended attributes).
+         * <p>
+         * NOTE: If both Overwrite and OverwriteEx are defined, OverwriteEx takes precedence.
+         *
+         * @param pFileSystem           The file system on which this request is posted.
+         * @param pFileContext          The file context of the file to overwrite.
+         * @param fileAttributes        File attributes to apply to the overwritten file.
+         * @param replaceFileAttributes When TRUE the existing file attributes should be replaced with the new ones.
+         *                              When FALSE the existing file attributes should be merged (or'ed) with the new ones.
+         * @param allocationSize        Allocation size for the overwritten file.
+         * @param pEa                   Extended attributes buffer.
+         * @param eaLength              Extended attributes buffer length.
+         * @param pFileInfo             [out]
+         *                              Pointer to a structure that will receive the file information on successful return
+         *                              from this call. This information includes file attributes, file times, etc.
+         * @return STATUS_SUCCESS or error code.
+         */
+        @Delegate
+        @u_int32_t
+        int OverwriteEx(Pointer /* FSP_FILE_SYSTEM */ pFileSystem,
+                        Pointer /* VOID */ pFileContext,
+                        @u_int32_t int fileAttributes,
+                        byte /* BOOLEAN */ replaceFileAttributes,
+                        @u_int64_t long allocationSize,
+                        Pointer /* FILE_FULL_EA_INFORMATION */ pEa,
+                        @u_int32_t int eaLength,
+                        Pointer /* FSP_FSCTL_FILE_INFO */ pFileInfo
+        );
+    }
+
+    @FunctionalInterface
+    public interface GetEaCallback {
+        /**
+         * Get extended attributes.
+         *
+         * @param pFileSystem       The file system on which this request is posted.
+         * @param pFileContext      The file context of the file to get extended attributes for.
+         * @param pEa               Extended attributes buffer.
+         * @param eaLength          Extended attributes buffer length.
+         * @param pBytesTransferred [out]
+         *                          Pointer to a memory location that will receive the actual number of bytes
+         *                          transferred.
+         * @return STATUS_SUCCESS or error code.
+         */
+        @Delegate
+        @u_int32_t
+        int GetEa(Pointer /* FSP_FILE_SYSTEM */ pFileSystem,
+                  Pointer /* VOID */ pFileContext,
+                  Pointer /* FILE_FULL_EA_INFORMATION */ pEa,
+                  @u_int32_t int eaLength,
+                  Pointer /* ULONG */ pBytesTransferred
+        );
+    }
+
+    @FunctionalInterface
+    public interface SetEaCallback {
+        /**
+         * Set extended attributes.
+         *
+         * @param pFileSystem  The file system on which this request is posted.
+         * @param pFileContext The file context of the file to set extended attributes for.
+         * @param pEa          Extended attributes buffer.
+         * @param eaLength     Extended attributes buffer length.
+         * @param pFileInfo    [out]
+         *                     Pointer to a structure that will receive the file information on successful return
+         *                     from this call. This information includes file attributes, file times, etc.
+         * @return STATUS_SUCCESS or error code.
+         */
+        @Delegate
+        @u_int32_t
+        int SetEa(Pointer /* FSP_FILE_SYSTEM */ pFileSystem,
+                  Pointer /* VOID */ pFileContext,
+                  Pointer /* FILE_FULL_EA_INFORMATION */ pEa,
+                  @u_int32_t int eaLength,
+                  Pointer /* FSP_FSCTL_FILE_INFO */ pFileInfo
+        );
+    }
+
     private WinFspCallbacks() {
         // not instantiable
     }
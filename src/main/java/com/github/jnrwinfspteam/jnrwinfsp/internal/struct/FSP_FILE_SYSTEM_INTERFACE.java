@@ -82,14 +82,8 @@ public class FSP_FILE_SYSTEM_INTERFACE extends Struct {
     public final Struct.Function<WinFspCallbacks.DeleteReparsePointCallback> DeleteReparsePoint =
             function(WinFspCallbacks.DeleteReparsePointCallback.class);
 
-    {
-        // NOTE: this ensures that the interface struct is correctly defined.
-        // A stand-in for 1 unsupported operation.
-        for (int i = 0; i < 1; i++) {
-            // actual function is irrelevant here, we just need the function pointers
-            function(WinFspCallbacks.DeleteReparsePointCallback.class);
-        }
-    }
+    public final Struct.Function<WinFspCallbacks.GetStreamInfoCallback> GetStreamInfo =
+            function(WinFspCallbacks.GetStreamInfoCallback.class);
 
     public final Struct.Function<WinFspCallbacks.GetDirInfoByNameCallback> GetDirInfoByName =
             function(WinFspCallbacks.GetDirInfoByNameCallback.class);
@@ -106,13 +100,22 @@ public class FSP_FILE_SYSTEM_INTERFACE extends Struct {
     public final Struct.Function<WinFspCallbacks.CreateExCallback> CreateEx =
             function(WinFspCallbacks.CreateExCallback.class);
 
+    public final Struct.Function<WinFspCallbacks.OverwriteExCallback> OverwriteEx =
+            function(WinFspCallbacks.OverwriteExCallback.class);
+
+    public final Struct.Function<WinFspCallbacks.GetEaCallback> GetEa =
+            function(WinFspCallbacks.GetEaCallback.class);
+
+    public final Struct.Function<WinFspCallbacks.SetEaCallback> SetEa =
+            function(WinFspCallbacks.SetEaCallback.class);
+
     {
         // NOTE: this ensures that the interface struct is correctly defined.
         // Starting index must be equal to number of functions defined above.
         // Ending index must be 63 (struct has 64 entries).
-        for (int i = 28; i < 64; i++) {
+        for (int i = 31; i < 64; i++) {
             // actual function is irrelevant here, we just need the function pointers
-            function(WinFspCallbacks.CreateExCallback.class);
+            function(WinFspCallbacks.SetEaCallback.class);
         }
     }
 
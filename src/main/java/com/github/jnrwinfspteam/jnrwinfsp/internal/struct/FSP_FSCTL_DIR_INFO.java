@@ -12,6 +12,27 @@ public class FSP_FSCTL_DIR_INFO extends Struct {
     public final DUMMY DUMMYUNIONNAME = inner(new DUMMY(getRuntime()));
     public final Struct.Unsigned8[] FileNameBuf; // initialised in constructor
 
+    /*
+     * Member offsets, taken once from a prototype (see FSP_FSCTL_FILE_INFO).
+     * The FSP_FSCTL_FILE_INFO member offsets must be added to OFFSET_FILE_INFO.
+     * HEADER_SIZE is the size of the struct without the file name, i.e. sizeof(FSP_FSCTL_DIR_INFO) in C.
+     */
+    public static final int OFFSET_SIZE;
+    public static final int OFFSET_FILE_INFO;
+    public static final int OFFSET_DUMMYUNIONNAME;
+    public static final int DUMMYUNIONNAME_SIZE;
+    public static final int HEADER_SIZE;
+
+    static {
+        var prototype = new FSP_FSCTL_DIR_INFO(Runtime.getSystemRuntime(), 0);
+        OFFSET_SIZE = (int) prototype.Size.offset();
+        OFFSET_FILE_INFO = (int) prototype.FileInfo.FileAttributes.offset()
+                - FSP_FSCTL_FILE_INFO.OFFSET_FILE_ATTRIBUTES;
+        OFFSET_DUMMYUNIONNAME = (int) prototype.DUMMYUNIONNAME.NextOffset.offset();
+        DUMMYUNIONNAME_SIZE = Struct.size(prototype.DUMMYUNIONNAME);
+        HEADER_SIZE = OFFSET_DUMMYUNIONNAME + DUMMYUNIONNAME_SIZE;
+    }
+
     public static final class DUMMY extends Union {
         public final Union.Unsigned64 NextOffset = new Unsigned64();
         public final Union.Padding Padding = new Padding(NativeType.UCHAR, 24);
@@ -51,9 +72,7 @@ public class FSP_FSCTL_DIR_INFO extends Struct {
         if (fileNameBytes.length != FileNameBuf.length)
             throw new IllegalArgumentException("file name size must match the configured length");
 
-        for (int i = 0; i < fileNameBytes.length; i++) {
-            this.FileNameBuf[i].set(fileNameBytes[i]);
-        }
+        Struct.getMemory(this).put(HEADER_SIZE, fileNameBytes, 0, fileNameBytes.length);
     }
 
     private FSP_FSCTL_DIR_INFO(Runtime runtime, int fileNameSize) {
@@ -18,6 +18,40 @@ public class FSP_FSCTL_FILE_INFO extends Struct {
     public final Struct.Unsigned32 HardLinks = new Unsigned32();      /* unimplemented: set to 0 */
     public final Struct.Unsigned32 EaSize = new Unsigned32();
 
+    /*
+     * Size and member offsets, taken once from a prototype so that they always match the layout above.
+     * They allow writing the struct directly through a Pointer (with putInt/putLong), instead of wrapping
+     * the native memory in a new struct object, with one object per member, on every callback.
+     */
+    public static final int SIZE;
+    public static final int OFFSET_FILE_ATTRIBUTES;
+    public static final int OFFSET_REPARSE_TAG;
+    public static final int OFFSET_ALLOCATION_SIZE;
+    public static final int OFFSET_FILE_SIZE;
+    public static final int OFFSET_CREATION_TIME;
+    public static final int OFFSET_LAST_ACCESS_TIME;
+    public static final int OFFSET_LAST_WRITE_TIME;
+    public static final int OFFSET_CHANGE_TIME;
+    public static final int OFFSET_INDEX_NUMBER;
+    public static final int OFFSET_HARD_LINKS;
+    public static final int OFFSET_EA_SIZE;
+
+    static {
+        var prototype = new FSP_FSCTL_FILE_INFO(Runtime.getSystemRuntime());
+        SIZE = Struct.size(prototype);
+        OFFSET_FILE_ATTRIBUTES = (int) prototype.FileAttributes.offset();
+        OFFSET_REPARSE_TAG = (int) prototype.ReparseTag.offset();
+        OFFSET_ALLOCATION_SIZE = (int) prototype.AllocationSize.offset();
+        OFFSET_FILE_SIZE = (int) prototype.FileSize.offset();
+        OFFSET_CREATION_TIME = (int) prototype.CreationTime.offset();
+        OFFSET_LAST_ACCESS_TIME = (int) prototype.LastAccessTime.offset();
+        OFFSET_LAST_WRITE_TIME = (int) prototype.LastWriteTime.offset();
+        OFFSET_CHANGE_TIME = (int) prototype.ChangeTime.offset();
+        OFFSET_INDEX_NUMBER = (int) prototype.IndexNumber.offset();
+        OFFSET_HARD_LINKS = (int) prototype.HardLinks.offset();
+        OFFSET_EA_SIZE = (int) prototype.EaSize.offset();
+    }
+
     public static Pointered<FSP_FSCTL_FILE_INFO> of(jnr.ffi.Pointer pointer) {
         return Pointered.wrap(new FSP_FSCTL_FILE_INFO(Runtime.getSystemRuntime()), pointer);
     }
@@ -10,6 +10,22 @@ public class FSP_FSCTL_OPEN_FILE_INFO extends Struct {
     public final Struct.Pointer NormalizedName = new Pointer(); /* PWSTR */
     public final Struct.Unsigned16 NormalizedNameSize = new Unsigned16();
 
+    /*
+     * Member offsets, taken once from a prototype (see FSP_FSCTL_FILE_INFO).
+     * The FSP_FSCTL_FILE_INFO member offsets must be added to OFFSET_FILE_INFO.
+     */
+    public static final int OFFSET_FILE_INFO;
+    public static final int OFFSET_NORMALIZED_NAME;
+    public static final int OFFSET_NORMALIZED_NAME_SIZE;
+
+    static {
+        var prototype = new FSP_FSCTL_OPEN_FILE_INFO(Runtime.getSystemRuntime());
+        OFFSET_FILE_INFO = (int) prototype.FileInfo.FileAttributes.offset()
+                - FSP_FSCTL_FILE_INFO.OFFSET_FILE_ATTRIBUTES;
+        OFFSET_NORMALIZED_NAME = (int) prototype.NormalizedName.offset();
+        OFFSET_NORMALIZED_NAME_SIZE = (int) prototype.NormalizedNameSize.offset();
+    }
+
     public static Pointered<FSP_FSCTL_OPEN_FILE_INFO> of(jnr.ffi.Pointer pointer) {
         return Pointered.wrap(new FSP_FSCTL_OPEN_FILE_INFO(Runtime.getSystemRuntime()), pointer);
     }
@@ -0,0 +1,32 @@
+package com.github.jnrwinfspteam.jnrwinfsp.internal.struct;
+
+import jnr.ffi.Runtime;
+import jnr.ffi.Struct;
+
+public class FSP_FSCTL_STREAM_INFO extends Struct {
+    public final Struct.Unsigned16 Size = new Unsigned16();
+    public final Struct.Unsigned64 StreamSize = new Unsigned64();
+    public final Struct.Unsigned64 StreamAllocationSize = new Unsigned64();
+    // followed by the stream name (WCHAR StreamNameBuf[])
+
+    /*
+     * Member offsets, taken once from a prototype (see FSP_FSCTL_FILE_INFO).
+     * HEADER_SIZE is the size of the struct without the stream name, i.e. sizeof(FSP_FSCTL_STREAM_INFO) in C.
+     */
+    public static final int OFFSET_SIZE;
+    public static final int OFFSET_STREAM_SIZE;
+    public static final int OFFSET_STREAM_ALLOCATION_SIZE;
+    public static final int HEADER_SIZE;
+
+    static {
+        var prototype = new FSP_FSCTL_STREAM_INFO(Runtime.getSystemRuntime());
+        OFFSET_SIZE = (int) prototype.Size.offset();
+        OFFSET_STREAM_SIZE = (int) prototype.StreamSize.offset();
+        OFFSET_STREAM_ALLOCATION_SIZE = (int) prototype.StreamAllocationSize.offset();
+        HEADER_SIZE = Struct.size(prototype);
+    }
+
+    private FSP_FSCTL_STREAM_INFO(Runtime runtime) {
+        super(runtime);
+    }
+}
@@ -15,6 +15,24 @@ public class FSP_FSCTL_VOLUME_INFO extends Struct {
     public final Struct.Unsigned16 VolumeLabelLength = new Unsigned16();
     public final Struct.Unsigned8[] VolumeLabel = array(new Unsigned8[32 * StringUtils.CS_BYTES_PER_CHAR]);
 
+    /*
+     * Member offsets, taken once from a prototype (see FSP_FSCTL_FILE_INFO).
+     */
+    public static final int OFFSET_TOTAL_SIZE;
+    public static final int OFFSET_FREE_SIZE;
+    public static final int OFFSET_VOLUME_LABEL_LENGTH;
+    public static final int OFFSET_VOLUME_LABEL;
+    public static final int VOLUME_LABEL_CAPACITY;
+
+    static {
+        var prototype = new FSP_FSCTL_VOLUME_INFO(Runtime.getSystemRuntime());
+        OFFSET_TOTAL_SIZE = (int) prototype.TotalSize.offset();
+        OFFSET_FREE_SIZE = (int) prototype.FreeSize.offset();
+        OFFSET_VOLUME_LABEL_LENGTH = (int) prototype.VolumeLabelLength.offset();
+        OFFSET_VOLUME_LABEL = (int) prototype.VolumeLabel[0].offset();
+        VOLUME_LABEL_CAPACITY = prototype.VolumeLabel.length;
+    }
+
     private FSP_FSCTL_VOLUME_INFO(Runtime runtime) {
         super(runtime);
     }
@@ -23,22 +41,26 @@ public class FSP_FSCTL_VOLUME_INFO extends Struct {
         return Pointered.wrap(new FSP_FSCTL_VOLUME_INFO(Runtime.getSystemRuntime()), pointer);
     }
 
-    public void setVolumeLabel(java.lang.String label) {
+    /**
+     * Writes the given volume label into the FSP_FSCTL_VOLUME_INFO struct pointed to by the given pointer.
+     */
+    public static void putVolumeLabel(jnr.ffi.Pointer pVolumeInfo, java.lang.String label) {
         try {
             ByteBuffer bytes = StringUtils.getEncoder().reset().encode(CharBuffer.wrap(label));
             final int byteLength = bytes.remaining();
 
-            if (byteLength > VolumeLabel.length - StringUtils.CS_BYTES_PER_CHAR)
+            if (byteLength > VOLUME_LABEL_CAPACITY - StringUtils.CS_BYTES_PER_CHAR)
                 throw new IllegalArgumentException("label is too large");
 
-            int i = 0;
-            for (; i < byteLength; i++) {
-                this.VolumeLabel[i].set(bytes.get(i));
-            }
-            this.VolumeLabel[i].set((byte) '\0');
-            this.VolumeLabelLength.set(byteLength);
+            pVolumeInfo.put(OFFSET_VOLUME_LABEL, bytes.array(), bytes.arrayOffset() + bytes.position(), byteLength);
+            pVolumeInfo.putShort(OFFSET_VOLUME_LABEL + byteLength, (short) 0);
+            pVolumeInfo.putShort(OFFSET_VOLUME_LABEL_LENGTH, (short) byteLength);
         } catch (CharacterCodingException cce) {
             throw new RuntimeException(cce);
         }
     }
+
+    public void setVolumeLabel(java.lang.String label) {
+        putVolumeLabel(Struct.getMemory(this), label);
+    }
 }
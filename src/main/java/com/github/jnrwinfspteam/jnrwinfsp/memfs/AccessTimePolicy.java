@@ -0,0 +1,75 @@
+package com.github.jnrwinfspteam.jnrwinfsp.memfs;
+
+import com.github.jnrwinfspteam.jnrwinfsp.api.CleanupFlags;
+
+/**
+ * Determines when the last access time of a file or directory is updated.
+ * <p>
+ * Explicit changes to the last access time (via SetBasicInfo) are always applied, regardless of the policy.
+ */
+public enum AccessTimePolicy {
+
+    /**
+     * The last access time is updated on every read, and on cleanup when
+     * {@link CleanupFlags#SET_LAST_ACCESS_TIME} is set.
+     */
+    ALWAYS,
+
+    /**
+     * Like {@link #ALWAYS}, but the last access time is only updated when the stored value is at least one hour
+     * old (this mimics the NTFS behaviour). Reads of a recently accessed file do not modify it.
+     */
+    COARSE,
+
+    /**
+     * The last access time is only updated on cleanup, when {@link CleanupFlags#SET_LAST_ACCESS_TIME} is set.
+     */
+    ON_CLEANUP,
+
+    /**
+     * The last access time is never updated implicitly.
+     */
+    DISABLED;
+
+    // one hour in (10^-7)s intervals
+    private static final long COARSE_GRANULARITY = 60L * 60L * 10_000_000L;
+
+    /**
+     * Whether a read should update a last access time.
+     *
+     * @param lastAccessTime The current last access time (Windows NT system time)
+     * @param now            The current time (Windows NT system time)
+     */
+    public boolean shouldUpdateOnRead(long lastAccessTime, long now) {
+        switch (this) {
+            case ALWAYS:
+                return true;
+            case COARSE:
+                return isStale(lastAccessTime, now);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Whether a cleanup with {@link CleanupFlags#SET_LAST_ACCESS_TIME} should update a last access time.
+     *
+     * @param lastAccessTime The current last access time (Windows NT system time)
+     * @param now            The current time (Windows NT system time)
+     */
+    public boolean shouldUpdateOnCleanup(long lastAccessTime, long now) {
+        switch (this) {
+            case ALWAYS:
+            case ON_CLEANUP:
+                return true;
+            case COARSE:
+                return isStale(lastAccessTime, now);
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isStale(long lastAccessTime, long now) {
+        return now - lastAccessTime >= COARSE_GRANULARITY;
+    }
+}
@@ -0,0 +1,500 @@
+package com.github.jnrwinfspteam.jnrwinfsp.memfs;
+
+import com.github.jnrwinfspteam.jnrwinfsp.api.NTStatusException;
+import jnr.ffi.Pointer;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.ObjLongConsumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * File content kept in a single byte array.
+ * <p>
+ * The content of a file that is not accessed for a while can be compressed (see {@link #compressIfCold}). It is
+ * then inflated again on the next access.
+ * <p>
+ * The data buffer can be shared with {@link #snapshot() snapshots}; a shared buffer is copied before it is modified.
+ */
+final class ArrayFileData implements FileData {
+    private static final int ALLOCATION_UNIT = 512;
+    private static final int MIN_COMPRESSED_FILE_SIZE = 4096;
+    private static final byte[] EMPTY = new byte[0];
+
+    // Guards the data buffer and the file size:
+    //  - reads use an optimistic read (falling back to a read lock), so they never block each other, plus a shared
+    //    lock on the read range, so they never see a partial write;
+    //  - writes within the current file size hold a read lock plus a lock on the written range;
+    //  - anything that changes the file size or reallocates the buffer holds the write lock.
+    // While the content is compressed, the data buffer is empty; it is inflated under the write lock.
+    // While the data buffer is shared, it is copied under the write lock before being modified.
+    private final StampedLock lock;
+    private final RangeLock writeRanges;
+    private byte[] data;
+    private AtomicInteger dataOwners; // the number of contents sharing the data buffer, or null if not shared
+    private int fileSize;
+    private volatile byte[] compressed;
+    private int inflatedAllocationSize;
+    private volatile boolean accessed;
+    private volatile boolean incompressible;
+    private volatile boolean released; // set while holding the write lock
+
+    ArrayFileData() {
+        this.lock = new StampedLock();
+        this.writeRanges = new RangeLock();
+        this.data = EMPTY;
+        this.fileSize = 0;
+        this.compressed = null;
+    }
+
+    @Override
+    public int getAllocationSize() {
+        long stamp = lock.tryOptimisticRead();
+        int allocationSize = _getAllocationSize();
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                allocationSize = _getAllocationSize();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        return allocationSize;
+    }
+
+    @Override
+    public int getFileSize() {
+        long stamp = lock.tryOptimisticRead();
+        int size = fileSize;
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                size = fileSize;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        return size;
+    }
+
+    @Override
+    public void setFileSize(int fileSize) {
+        long stamp = lock.writeLock();
+        try {
+            if (released)
+                return;
+            _inflate();
+            _setFileSize(fileSize);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void adaptAllocationSize(int fileSize) {
+        long stamp = lock.writeLock();
+        try {
+            if (released)
+                return;
+            _inflate();
+            _adaptAllocationSize(fileSize);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void setAllocationSize(int newAllocationSize) {
+        long stamp = lock.writeLock();
+        try {
+            if (released)
+                return;
+            _inflate();
+            _setAllocationSize(newAllocationSize);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public int read(Pointer buffer, long offsetL, int size) throws NTStatusException {
+        int offset = Math.toIntExact(offsetL);
+        markAccessed();
+
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0L) {
+            byte[] d = data;
+            int fs = fileSize;
+            if (fs <= d.length) { // otherwise we have seen a resize in progress (or the content is compressed)
+                int bytesRead = copyOutRange(d, fs, buffer, offset, size);
+                if (lock.validate(stamp))
+                    return checkEndOfFile(bytesRead);
+            }
+        }
+
+        stamp = readLockInflated();
+        try {
+            return checkEndOfFile(copyOutRange(data, fileSize, buffer, offset, size));
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public int write(Pointer buffer, long offsetL, int size, boolean writeToEndOfFile) {
+        markModified();
+
+        if (!writeToEndOfFile) {
+            int begOffset = Math.toIntExact(offsetL);
+            int endOffset = Math.addExact(begOffset, size);
+
+            boolean written = false;
+            long stamp = readLockExclusive();
+            try {
+                if (endOffset <= fileSize) {
+                    copyIn(buffer, begOffset, size);
+                    written = true;
+                }
+            } finally {
+                lock.unlockRead(stamp);
+            }
+
+            if (written)
+                return size;
+        }
+
+        // the file needs to be extended
+        long stamp = lock.writeLock();
+        try {
+            if (released)
+                return 0;
+            _inflate();
+            int begOffset = writeToEndOfFile ? fileSize : Math.toIntExact(offsetL);
+            int endOffset = Math.addExact(begOffset, size);
+            if (endOffset > fileSize)
+                _setFileSize(endOffset);
+            _unshare();
+
+            buffer.get(0, data, begOffset, size);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+
+        return size;
+    }
+
+    @Override
+    public int constrainedWrite(Pointer buffer, long offsetL, int size) {
+        int begOffset = Math.toIntExact(offsetL);
+        markModified();
+
+        final int transferredLength;
+        long stamp = readLockExclusive();
+        try {
+            if (begOffset >= fileSize)
+                return 0;
+
+            int endOffset = Math.min(fileSize, Math.addExact(begOffset, size));
+            transferredLength = endOffset - begOffset;
+
+            copyIn(buffer, begOffset, transferredLength);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+
+        return transferredLength;
+    }
+
+    @Override
+    public void seal() {
+        // the content is always in its final storage
+    }
+
+    @Override
+    public void release() {
+        long stamp = lock.writeLock();
+        try {
+            _dropShare();
+            this.data = EMPTY;
+            this.fileSize = 0;
+            this.compressed = null;
+            this.released = true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public boolean isReleased() {
+        return released;
+    }
+
+    @Override
+    public boolean compressIfCold(Deflater deflater) {
+        long stamp = lock.writeLock();
+        try {
+            if (accessed) {
+                accessed = false; // cold if still not accessed on the next call
+                return false;
+            }
+            if (compressed != null || incompressible || fileSize < MIN_COMPRESSED_FILE_SIZE)
+                return false;
+
+            byte[] deflated = deflate(deflater, data, fileSize);
+            if (deflated == null) {
+                incompressible = true; // until the content is modified
+                return false;
+            }
+
+            this.inflatedAllocationSize = data.length;
+            this.compressed = deflated;
+            _dropShare();
+            this.data = EMPTY;
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public FileData snapshot() {
+        long stamp = lock.writeLock();
+        try {
+            var copy = new ArrayFileData();
+            copy.fileSize = fileSize;
+            copy.incompressible = incompressible;
+
+            if (compressed != null) {
+                // compressed content is never modified, it is replaced when inflated
+                copy.compressed = compressed;
+                copy.inflatedAllocationSize = inflatedAllocationSize;
+            } else if (data.length > 0) {
+                if (dataOwners == null)
+                    dataOwners = new AtomicInteger(1);
+                dataOwners.incrementAndGet();
+                copy.data = data;
+                copy.dataOwners = dataOwners;
+            }
+
+            return copy;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public boolean isCompressed() {
+        return compressed != null;
+    }
+
+    private void markAccessed() {
+        if (!accessed)
+            accessed = true;
+    }
+
+    private void markModified() {
+        markAccessed();
+        if (incompressible)
+            incompressible = false;
+    }
+
+    // takes the read lock, after inflating the content if it is compressed and copying the data buffer if it is
+    // shared, so that the buffer can be modified in place
+    private long readLockExclusive() {
+        long stamp = lock.readLock();
+        while (compressed != null || dataOwners != null) {
+            lock.unlockRead(stamp);
+
+            stamp = lock.writeLock();
+            try {
+                _inflate();
+                _unshare();
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+
+            stamp = lock.readLock();
+        }
+
+        return stamp;
+    }
+
+    // must be called while holding the write lock
+    private void _unshare() {
+        if (dataOwners != null) {
+            if (dataOwners.decrementAndGet() > 0)
+                this.data = data.clone(); // the other owners keep the original buffer
+            this.dataOwners = null;
+        }
+    }
+
+    // must be called while holding the write lock, when the data buffer is about to be replaced
+    private void _dropShare() {
+        if (dataOwners != null) {
+            dataOwners.decrementAndGet();
+            this.dataOwners = null;
+        }
+    }
+
+    // must be called while holding a lock
+    private int _getAllocationSize() {
+        byte[] c = compressed;
+        if (c != null)
+            return (c.length + ALLOCATION_UNIT - 1) / ALLOCATION_UNIT * ALLOCATION_UNIT;
+
+        return data.length;
+    }
+
+    @Override
+    public void forEachBuffer(int maxLength, ObjLongConsumer<ByteBuffer> consumer) {
+        byte[] d;
+        int size;
+        long stamp = lock.readLock();
+        try {
+            size = fileSize;
+            byte[] c = compressed;
+            // compressed content is inflated into a private copy, leaving this content compressed
+            d = c != null ? inflate(c, inflatedAllocationSize, size) : data;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+
+        for (int offset = 0; offset < size; offset += maxLength)
+            consumer.accept(ByteBuffer.wrap(d, offset, Math.min(maxLength, size - offset)).slice(), offset);
+    }
+
+    // takes the read lock, after inflating the content if it is compressed
+    private long readLockInflated() {
+        long stamp = lock.readLock();
+        while (compressed != null) {
+            lock.unlockRead(stamp);
+
+            stamp = lock.writeLock();
+            try {
+                _inflate();
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+
+            stamp = lock.readLock();
+        }
+
+        return stamp;
+    }
+
+    // must be called while holding the write lock
+    private void _inflate() {
+        byte[] c = compressed;
+        if (c == null)
+            return;
+
+        this.data = inflate(c, inflatedAllocationSize, fileSize);
+        this.compressed = null;
+    }
+
+    private static byte[] inflate(byte[] compressed, int allocationSize, int fileSize) {
+        byte[] d = new byte[allocationSize];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int n = 0;
+            while (n < fileSize && !inflater.finished())
+                n += inflater.inflate(d, n, fileSize - n);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupted compressed file content", e);
+        } finally {
+            inflater.end();
+        }
+
+        return d;
+    }
+
+    // returns null unless the content shrinks by at least 1/8
+    private static byte[] deflate(Deflater deflater, byte[] data, int length) {
+        deflater.reset();
+        deflater.setInput(data, 0, length);
+        deflater.finish();
+
+        byte[] out = new byte[length - length / 8];
+        int n = 0;
+        while (!deflater.finished() && n < out.length)
+            n += deflater.deflate(out, n, out.length - n);
+
+        return deflater.finished() ? Arrays.copyOf(out, n) : null;
+    }
+
+    // must be called while holding the read lock
+    private void copyIn(Pointer buffer, int offset, int length) {
+        RangeLock.Range range = writeRanges.lock(offset, (long) offset + length);
+        try {
+            buffer.get(0, data, offset, length);
+        } finally {
+            writeRanges.unlock(range);
+        }
+    }
+
+    // in-place writes only hold the read lock (see copyIn), so the read range is locked against them
+    private int copyOutRange(byte[] data, int fileSize, Pointer buffer, int offset, int size) {
+        RangeLock.Range range = writeRanges.lockShared(offset, (long) offset + size);
+        try {
+            return copyOut(data, fileSize, buffer, offset, size);
+        } finally {
+            writeRanges.unlock(range);
+        }
+    }
+
+    private static int copyOut(byte[] data, int fileSize, Pointer buffer, int offset, int size) {
+        if (offset >= fileSize)
+            return -1;
+
+        int bytesToRead = Math.min(fileSize - offset, size);
+        buffer.put(0, data, offset, bytesToRead);
+
+        return bytesToRead;
+    }
+
+    private static int checkEndOfFile(int bytesRead) throws NTStatusException {
+        if (bytesRead < 0)
+            throw new NTStatusException(0xC0000011); // STATUS_END_OF_FILE
+
+        return bytesRead;
+    }
+
+    // must be called while holding the write lock
+    private void _setFileSize(int fileSize) {
+        final int prevFileSize = this.fileSize;
+
+        if (fileSize < prevFileSize) {
+            _unshare();
+            for (int i = fileSize; i < prevFileSize; i++) {
+                data[i] = (byte) 0;
+            }
+        } else if (fileSize > data.length)
+            _adaptAllocationSize(fileSize);
+
+        this.fileSize = fileSize;
+    }
+
+    // must be called while holding the write lock
+    private void _adaptAllocationSize(int fileSize) {
+        int units = (Math.addExact(fileSize, ALLOCATION_UNIT) - 1) / ALLOCATION_UNIT;
+        _setAllocationSize(units * ALLOCATION_UNIT);
+    }
+
+    // must be called while holding the write lock
+    private void _setAllocationSize(int newAllocationSize) {
+        if (newAllocationSize != data.length) {
+            // truncate or extend the data buffer
+            final int newFileSize = Math.min(fileSize, newAllocationSize);
+            this.data = Arrays.copyOf(data, newAllocationSize);
+            _dropShare();
+            this.fileSize = newFileSize;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.github.jnrwinfspteam.jnrwinfsp.memfs;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A content-addressed store of chunks of at most {@link #CHUNK_SIZE} bytes. Identical chunks are stored once and
+ * reference counted, so files (or parts of files) with the same content share their memory.
+ */
+final class ChunkStore {
+
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * An immutable chunk. Its bytes must never be modified; a file that writes to a chunk copies it first.
+     */
+    static final class Chunk {
+        final byte[] bytes;
+        private final long hash;
+        private Chunk next; // next chunk with the same hash
+        private int refs;
+
+        private Chunk(byte[] bytes, long hash, Chunk next) {
+            this.bytes = bytes;
+            this.hash = hash;
+            this.next = next;
+            this.refs = 1;
+        }
+    }
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final Map<Long, Chunk> chunks = new HashMap<>();
+    private final AtomicLong privateBytes = new AtomicLong();
+    private volatile long storedBytes;
+    private volatile long referencedBytes;
+
+    /**
+     * Returns the stored chunk with the given content, adding a reference to it. The given array is stored (and must
+     * no longer be modified) if there is no such chunk yet.
+     */
+    Chunk intern(byte[] bytes) {
+        long hash = hash(bytes);
+
+        synchronized (this) {
+            Chunk head = chunks.get(hash);
+            for (Chunk chunk = head; chunk != null; chunk = chunk.next) {
+                if (Arrays.equals(chunk.bytes, bytes)) {
+                    chunk.refs++;
+                    referencedBytes += bytes.length;
+                    return chunk;
+                }
+            }
+
+            Chunk chunk = new Chunk(bytes, hash, head);
+            chunks.put(hash, chunk);
+            storedBytes += bytes.length;
+            referencedBytes += bytes.length;
+            return chunk;
+        }
+    }
+
+    /**
+     * Adds a reference to a stored chunk.
+     */
+    synchronized void retain(Chunk chunk) {
+        chunk.refs++;
+        referencedBytes += chunk.bytes.length;
+    }
+
+    /**
+     * Removes a reference to a stored chunk, and removes the chunk from the store when it was the last one.
+     */
+    synchronized void release(Chunk chunk) {
+        referencedBytes -= chunk.bytes.length;
+        if (--chunk.refs > 0)
+            return;
+
+        Chunk head = chunks.get(chunk.hash);
+        if (head == chunk) {
+            if (chunk.next != null)
+                chunks.put(chunk.hash, chunk.next);
+            else
+                chunks.remove(chunk.hash);
+        } else {
+            Chunk prev = head;
+            while (prev.next != chunk)
+                prev = prev.next;
+            prev.next = chunk.next;
+        }
+        storedBytes -= chunk.bytes.length;
+    }
+
+    /**
+     * Accounts for chunks being written to, which are private to a file until they are interned.
+     */
+    void addPrivateBytes(long delta) {
+        privateBytes.addAndGet(delta);
+    }
+
+    /**
+     * The memory used by file contents: stored chunks plus chunks being written to.
+     */
+    long getUsedBytes() {
+        return storedBytes + privateBytes.get();
+    }
+
+    /**
+     * The ratio between the size of the content referenced by files and the size of the content actually stored
+     * (1 when nothing is shared).
+     */
+    double getDeduplicationRatio() {
+        long stored = storedBytes;
+        return stored > 0 ? (double) referencedBytes / stored : 1.0;
+    }
+
+    static long hash(byte[] bytes) {
+        long h = 0x9E3779B97F4A7C15L ^ bytes.length;
+        int i = 0;
+        for (; i + Long.BYTES <= bytes.length; i += Long.BYTES) {
+            long v = (long) LONGS.get(bytes, i) * 0xC2B2AE3D27D4EB4FL;
+            h = Long.rotateLeft(h ^ v, 31) * 0x9E3779B97F4A7C15L;
+        }
+        for (; i < bytes.length; i++)
+            h = (h ^ bytes[i]) * 0x100000001B3L;
+
+        // final mix, so that all the bits of the hash depend on all the input
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,399 @@
+package com.github.jnrwinfspteam.jnrwinfsp.memfs;
+
+import com.github.jnrwinfspteam.jnrwinfsp.api.NTStatusException;
+import jnr.ffi.Pointer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * File content split into fixed-size chunks kept in a {@link ChunkStore}, so that identical chunks of all files
+ * are stored once.
+ * <p>
+ * Stored chunks are immutable: writing to one copies it into a chunk private to this file, which is interned in the
+ * store again when the content is {@link #seal() sealed} (i.e. when the file is closed or flushed). Stored chunks
+ * omit their trailing zeros, so the last chunk of a small file only takes the size of its content, and chunks that
+ * only contain zeros are not stored at all. {@link #snapshot() Snapshots} share the stored chunks in the same way.
+ */
+final class ChunkedFileData implements FileData {
+    private static final int ALLOCATION_UNIT = 512;
+    private static final int CHUNK_SIZE = ChunkStore.CHUNK_SIZE;
+
+    // Guards the chunks and the sizes. Writes hold the write lock, since they may replace chunks.
+    // Invariants: at most one of chunks[i] and dirty[i] is set (neither means zeros), the content beyond the file
+    // size is zero, and there are no chunks beyond the one containing the end of the file.
+    private final StampedLock lock;
+    private final ChunkStore store;
+    private ChunkStore.Chunk[] chunks;
+    private byte[][] dirty;
+    private int dirtyCount;
+    private int allocationSize;
+    private int fileSize;
+    private volatile boolean released; // set while holding the write lock
+
+    ChunkedFileData(ChunkStore store) {
+        this.lock = new StampedLock();
+        this.store = store;
+        this.chunks = new ChunkStore.Chunk[0];
+        this.dirty = new byte[0][];
+        this.dirtyCount = 0;
+        this.allocationSize = 0;
+        this.fileSize = 0;
+    }
+
+    @Override
+    public int getAllocationSize() {
+        long stamp = lock.tryOptimisticRead();
+        int size = allocationSize;
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                size = allocationSize;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        return size;
+    }
+
+    @Override
+    public int getFileSize() {
+        long stamp = lock.tryOptimisticRead();
+        int size = fileSize;
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                size = fileSize;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        return size;
+    }
+
+    @Override
+    public void setFileSize(int fileSize) {
+        long stamp = lock.writeLock();
+        try {
+            if (released)
+                return;
+            _setFileSize(fileSize);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void adaptAllocationSize(int fileSize) {
+        long stamp = lock.writeLock();
+        try {
+            if (released)
+                return;
+            _adaptAllocationSize(fileSize);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void setAllocationSize(int newAllocationSize) {
+        long stamp = lock.writeLock();
+        try {
+            if (released)
+                return;
+            _setAllocationSize(newAllocationSize);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public int read(Pointer buffer, long offsetL, int size) throws NTStatusException {
+        int offset = Math.toIntExact(offsetL);
+
+        long stamp = lock.readLock();
+        try {
+            if (offset >= fileSize)
+                throw new NTStatusException(0xC0000011); // STATUS_END_OF_FILE
+
+            int length = Math.min(fileSize - offset, size);
+            for (int done = 0; done < length; ) {
+                int pos = offset + done;
+                int chunkOffset = pos % CHUNK_SIZE;
+                int n = Math.min(CHUNK_SIZE - chunkOffset, length - done);
+
+                // the bytes missing at the end of a stored chunk are zeros
+                byte[] bytes = getBytes(pos / CHUNK_SIZE);
+                int stored = bytes != null ? Math.max(0, Math.min(n, bytes.length - chunkOffset)) : 0;
+                if (stored > 0)
+                    buffer.put(done, bytes, chunkOffset, stored);
+                if (stored < n)
+                    buffer.setMemory(done + stored, n - stored, (byte) 0);
+
+                done += n;
+            }
+
+            return length;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public int write(Pointer buffer, long offsetL, int size, boolean writeToEndOfFile) {
+        long stamp = lock.writeLock();
+        try {
+            if (released)
+                return 0;
+            int begOffset = writeToEndOfFile ? fileSize : Math.toIntExact(offsetL);
+            int endOffset = Math.addExact(begOffset, size);
+            if (endOffset > fileSize)
+                _setFileSize(endOffset);
+
+            copyIn(buffer, begOffset, size);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+
+        return size;
+    }
+
+    @Override
+    public int constrainedWrite(Pointer buffer, long offsetL, int size) {
+        int begOffset = Math.toIntExact(offsetL);
+
+        long stamp = lock.writeLock();
+        try {
+            if (begOffset >= fileSize)
+                return 0;
+
+            int endOffset = Math.min(fileSize, Math.addExact(begOffset, size));
+            copyIn(buffer, begOffset, endOffset - begOffset);
+
+            return endOffset - begOffset;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void seal() {
+        long stamp = lock.writeLock();
+        try {
+            _seal();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public FileData snapshot() {
+        long stamp = lock.writeLock();
+        try {
+            _seal();
+
+            var copy = new ChunkedFileData(store);
+            copy.chunks = chunks.clone();
+            copy.dirty = new byte[chunks.length][];
+            copy.allocationSize = allocationSize;
+            copy.fileSize = fileSize;
+            for (ChunkStore.Chunk chunk : chunks) {
+                if (chunk != null)
+                    store.retain(chunk);
+            }
+
+            return copy;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void forEachBuffer(int maxLength, ObjLongConsumer<ByteBuffer> consumer) {
+        List<ByteBuffer> buffers = new ArrayList<>();
+        List<Integer> offsets = new ArrayList<>();
+        long stamp = lock.readLock();
+        try {
+            for (int i = 0; i < chunks.length && (long) i * CHUNK_SIZE < fileSize; i++) {
+                byte[] bytes = getBytes(i);
+                if (bytes == null)
+                    continue; // zeros
+
+                // dirty chunks may still be modified by writes
+                if (dirty[i] != null)
+                    bytes = bytes.clone();
+
+                int chunkStart = i * CHUNK_SIZE;
+                int chunkLength = Math.min(bytes.length, fileSize - chunkStart); // the rest is zeros
+                for (int pos = 0; pos < chunkLength; pos += maxLength) {
+                    buffers.add(ByteBuffer.wrap(bytes, pos, Math.min(maxLength, chunkLength - pos)).slice());
+                    offsets.add(chunkStart + pos);
+                }
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+
+        for (int i = 0; i < buffers.size(); i++)
+            consumer.accept(buffers.get(i), offsets.get(i));
+    }
+
+    @Override
+    public void release() {
+        long stamp = lock.writeLock();
+        try {
+            releaseFrom(0);
+            this.chunks = new ChunkStore.Chunk[0];
+            this.dirty = new byte[0][];
+            this.allocationSize = 0;
+            this.fileSize = 0;
+            this.released = true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public boolean isReleased() {
+        return released;
+    }
+
+    // must be called while holding the write lock
+    private void _seal() {
+        for (int i = 0; dirtyCount > 0 && i < dirty.length; i++) {
+            byte[] bytes = dirty[i];
+            if (bytes != null) {
+                dirty[i] = null;
+                dirtyCount--;
+                store.addPrivateBytes(-CHUNK_SIZE);
+                int length = storedLength(bytes);
+                if (length == 0)
+                    chunks[i] = null;
+                else
+                    chunks[i] = store.intern(length < CHUNK_SIZE ? Arrays.copyOf(bytes, length) : bytes);
+            }
+        }
+    }
+
+    // must be called while holding a lock
+    private byte[] getBytes(int index) {
+        if (dirty[index] != null)
+            return dirty[index];
+
+        ChunkStore.Chunk chunk = chunks[index];
+        return chunk != null ? chunk.bytes : null;
+    }
+
+    // must be called while holding the write lock
+    private void copyIn(Pointer buffer, int offset, int length) {
+        for (int done = 0; done < length; ) {
+            int pos = offset + done;
+            int chunkOffset = pos % CHUNK_SIZE;
+            int n = Math.min(CHUNK_SIZE - chunkOffset, length - done);
+
+            byte[] bytes = getDirtyChunk(pos / CHUNK_SIZE, n == CHUNK_SIZE);
+            buffer.get(done, bytes, chunkOffset, n);
+
+            done += n;
+        }
+    }
+
+    // must be called while holding the write lock
+    // (copy on write: a stored chunk is replaced by a private copy, unless it is about to be overwritten entirely)
+    private byte[] getDirtyChunk(int index, boolean overwrite) {
+        byte[] bytes = dirty[index];
+        if (bytes == null) {
+            ChunkStore.Chunk chunk = chunks[index];
+            if (chunk != null) {
+                bytes = overwrite ? new byte[CHUNK_SIZE] : Arrays.copyOf(chunk.bytes, CHUNK_SIZE);
+                chunks[index] = null;
+                store.release(chunk);
+            } else
+                bytes = new byte[CHUNK_SIZE];
+
+            dirty[index] = bytes;
+            dirtyCount++;
+            store.addPrivateBytes(CHUNK_SIZE);
+        }
+
+        return bytes;
+    }
+
+    // must be called while holding the write lock
+    private void _setFileSize(int fileSize) {
+        if (fileSize < this.fileSize)
+            zeroFrom(fileSize);
+        else if (fileSize > allocationSize)
+            _adaptAllocationSize(fileSize);
+
+        this.fileSize = fileSize;
+    }
+
+    // must be called while holding the write lock
+    private void _adaptAllocationSize(int fileSize) {
+        int units = (Math.addExact(fileSize, ALLOCATION_UNIT) - 1) / ALLOCATION_UNIT;
+        _setAllocationSize(units * ALLOCATION_UNIT);
+    }
+
+    // must be called while holding the write lock
+    private void _setAllocationSize(int newAllocationSize) {
+        if (newAllocationSize == allocationSize)
+            return;
+
+        if (fileSize > newAllocationSize) {
+            zeroFrom(newAllocationSize);
+            this.fileSize = newAllocationSize;
+        }
+
+        int chunkCount = chunkCount(newAllocationSize);
+        if (chunkCount != chunks.length) {
+            this.chunks = Arrays.copyOf(chunks, chunkCount);
+            this.dirty = Arrays.copyOf(dirty, chunkCount);
+        }
+        this.allocationSize = newAllocationSize;
+    }
+
+    // must be called while holding the write lock
+    private void zeroFrom(int offset) {
+        int index = offset / CHUNK_SIZE;
+        int chunkOffset = offset % CHUNK_SIZE;
+        byte[] bytes = chunkOffset != 0 ? getBytes(index) : null;
+        if (bytes != null && bytes.length > chunkOffset) // (otherwise, the rest of the chunk is zeros already)
+            Arrays.fill(getDirtyChunk(index, false), chunkOffset, CHUNK_SIZE, (byte) 0);
+
+        releaseFrom(chunkCount(offset));
+    }
+
+    // must be called while holding the write lock
+    private void releaseFrom(int index) {
+        for (int i = index; i < chunks.length; i++) {
+            if (chunks[i] != null) {
+                store.release(chunks[i]);
+                chunks[i] = null;
+            }
+            if (dirty[i] != null) {
+                dirty[i] = null;
+                dirtyCount--;
+                store.addPrivateBytes(-CHUNK_SIZE);
+            }
+        }
+    }
+
+    // the length of a chunk without its trailing zeros
+    private static int storedLength(byte[] bytes) {
+        int length = bytes.length;
+        while (length > 0 && bytes[length - 1] == 0)
+            length--;
+        return length;
+    }
+
+    private static int chunkCount(int size) {
+        return (int) (((long) size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+    }
+}
@@ -0,0 +1,61 @@
+package com.github.jnrwinfspteam.jnrwinfsp.memfs;
+
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frees the contents of deleted files on a background thread, so that the operations deleting them return without
+ * waiting for it, and without holding up the other operations meanwhile. The thread only runs while there are
+ * contents to free.
+ * <p>
+ * The space allocated to a content stops being charged (see {@link VolumeCapacity}) as soon as it is queued, so that
+ * it is available right away; with deduplication, the chunks of the content are only freed by the thread.
+ */
+final class ContentReclaimer {
+    private final ThreadPoolExecutor executor;
+
+    ContentReclaimer() {
+        this.executor = new ThreadPoolExecutor(0, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "WinFspMemFS-reclaimer");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Frees the given contents, which no name refers to anymore, in the background (or right away once this
+     * reclaimer is closed).
+     */
+    void release(List<FileObj> contents) {
+        if (contents.isEmpty())
+            return;
+
+        for (FileObj content : contents)
+            content.getCharge().update(0);
+
+        Runnable task = () -> {
+            for (FileObj content : contents)
+                content.release();
+        };
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
+        }
+    }
+
+    /**
+     * Frees the contents still waiting, and stops the thread.
+     */
+    void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
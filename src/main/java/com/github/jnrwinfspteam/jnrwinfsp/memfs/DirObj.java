@@ -2,14 +2,36 @@ package com.github.jnrwinfspteam.jnrwinfsp.memfs;
 
 import com.github.jnrwinfspteam.jnrwinfsp.api.FileAttributes;
 import com.github.jnrwinfspteam.jnrwinfsp.api.ReparsePoint;
+import com.github.jnrwinfspteam.jnrwinfsp.api.WinSysClock;
 
 import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public class DirObj extends MemoryObj {
+    volatile VolumeCapacity.DirectoryQuota quota; // null unless the directory has a quota; only set under the FS lock
+    private Map<String, MemoryObj> children; // by name; null while empty; only used under the FS lock (see Namespace)
 
-    public DirObj(DirObj parent, Path path, byte[] securityDescriptor, ReparsePoint reparsePoint) {
-        super(parent, path, securityDescriptor, reparsePoint);
-        getFileAttributes().add(FileAttributes.FILE_ATTRIBUTE_DIRECTORY);
+    public DirObj(DirObj parent,
+                  Path path,
+                  byte[] securityDescriptor,
+                  ReparsePoint reparsePoint,
+                  WinSysClock clock) {
+        super(parent, path, securityDescriptor, reparsePoint, clock);
+        setFileAttributes(getFileAttributes().with(FileAttributes.FILE_ATTRIBUTE_DIRECTORY));
+    }
+
+    private DirObj(DirObj parent, DirObj source, NamespaceCopier copier) {
+        super(parent, source, copier);
+    }
+
+    @Override
+    DirObj copy(MemoryObj parent, NamespaceCopier copier) {
+        var copy = new DirObj((DirObj) parent, this, copier);
+        copy.copyNamedStreams(this, copier);
+        return copy;
     }
 
     @Override
@@ -21,4 +43,31 @@ public class DirObj extends MemoryObj {
     public int getFileSize() {
         return 0;
     }
+
+    MemoryObj getChild(String name) {
+        return children != null ? children.get(name) : null;
+    }
+
+    Collection<MemoryObj> getChildren() {
+        return children != null ? children.values() : List.of();
+    }
+
+    boolean hasChildren() {
+        return children != null;
+    }
+
+    void putChild(MemoryObj child) {
+        if (children == null)
+            children = new HashMap<>();
+        children.put(child.getName(), child);
+    }
+
+    boolean removeChild(MemoryObj child) {
+        if (children == null || !children.remove(child.getName(), child))
+            return false;
+
+        if (children.isEmpty())
+            children = null;
+        return true;
+    }
 }
@@ -0,0 +1,67 @@
+package com.github.jnrwinfspteam.jnrwinfsp.memfs;
+
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Comparator;
+
+/**
+ * The children of a directory, sorted by name, as seen when a directory listing started. It is kept on the open
+ * handle so that continuation calls (with a marker) can resume by binary search instead of listing and sorting the
+ * directory again.
+ */
+final class DirectorySnapshot {
+
+    private final Comparator<String> order;
+    private final MemoryObj[] entries;
+    private final Path[] paths;
+    private final String[] names;
+
+    DirectorySnapshot(Collection<MemoryObj> children, Comparator<String> order) {
+        this.order = order;
+        this.entries = children.stream()
+                .sorted(Comparator.comparing(MemoryObj::getName, order))
+                .toArray(MemoryObj[]::new);
+        this.paths = new Path[entries.length];
+        this.names = new String[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            paths[i] = entries[i].getPath();
+            names[i] = entries[i].getName();
+        }
+    }
+
+    int size() {
+        return entries.length;
+    }
+
+    String getName(int index) {
+        return names[index];
+    }
+
+    /**
+     * Returns the entry at the given index, or null if it was deleted or renamed after this snapshot was taken.
+     */
+    MemoryObj getEntry(int index) {
+        MemoryObj obj = entries[index];
+        return obj.isLinked() && obj.getPath().equals(paths[index]) ? obj : null;
+    }
+
+    /**
+     * Returns the index of the first entry whose name is greater than the given marker (0 if the marker is null).
+     */
+    int indexAfter(String marker) {
+        if (marker == null)
+            return 0;
+
+        int lo = 0;
+        int hi = names.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (order.compare(names[mid], marker) <= 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+
+        return lo;
+    }
+}
@@ -0,0 +1,92 @@
+package com.github.jnrwinfspteam.jnrwinfsp.memfs;
+
+import com.github.jnrwinfspteam.jnrwinfsp.api.NTStatusException;
+import jnr.ffi.Pointer;
+
+import java.nio.ByteBuffer;
+import java.util.function.ObjLongConsumer;
+import java.util.zip.Deflater;
+
+/**
+ * The content of a file (or of a named stream), shared by all the names (hard links) of the file.
+ * Implementations are thread-safe.
+ */
+interface FileData {
+
+    int getAllocationSize();
+
+    int getFileSize();
+
+    void setFileSize(int fileSize);
+
+    void adaptAllocationSize(int fileSize);
+
+    void setAllocationSize(int newAllocationSize);
+
+    /**
+     * @return the number of bytes read
+     * @throws NTStatusException STATUS_END_OF_FILE if the offset is at or beyond the end of the file
+     */
+    int read(Pointer buffer, long offsetL, int size) throws NTStatusException;
+
+    /**
+     * @return the number of bytes written
+     */
+    int write(Pointer buffer, long offsetL, int size, boolean writeToEndOfFile);
+
+    /**
+     * Writes without extending the file.
+     *
+     * @return the number of bytes written
+     */
+    int constrainedWrite(Pointer buffer, long offsetL, int size);
+
+    /**
+     * Moves the content written since the last call to its final storage (e.g. when the file is closed).
+     */
+    void seal();
+
+    /**
+     * Frees the content, once the file is deleted. The content stays empty afterwards: writes and size changes made
+     * through handles still open are ignored.
+     */
+    void release();
+
+    /**
+     * Whether the content was {@link #release() released}.
+     */
+    boolean isReleased();
+
+    /**
+     * Returns a copy of this content that shares its storage: the copy and this content only copy the parts they
+     * modify afterwards (copy on write).
+     */
+    FileData snapshot();
+
+    /**
+     * Passes the content, up to the file size, to the given consumer as buffers of at most {@code maxLength} bytes,
+     * in order, with their offsets. Parts that are known to only contain zeros may be skipped.
+     * <p>
+     * The buffers share the storage of this content rather than copying it: they must not be modified, and are only
+     * guaranteed to keep their values if this content is not modified either (e.g. a {@link #snapshot()}).
+     */
+    void forEachBuffer(int maxLength, ObjLongConsumer<ByteBuffer> consumer);
+
+    /**
+     * Compresses the content if it was not accessed since the previous call, and if compressing it is worthwhile.
+     * Compressed content is inflated again on the next access.
+     *
+     * @param deflater The deflater to use (reset before use)
+     * @return whether the content was compressed
+     */
+    default boolean compressIfCold(Deflater deflater) {
+        return false;
+    }
+
+    /**
+     * Whether the content is currently compressed. The allocation size of compressed content is its compressed size.
+     */
+    default boolean isCompressed() {
+        return false;
+    }
+}
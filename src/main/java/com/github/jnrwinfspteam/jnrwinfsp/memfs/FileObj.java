@@ -1,113 +1,186 @@
 package com.github.jnrwinfspteam.jnrwinfsp.memfs;
 
 import com.github.jnrwinfspteam.jnrwinfsp.api.FileAttributes;
+import com.github.jnrwinfspteam.jnrwinfsp.api.FileInfo;
 import com.github.jnrwinfspteam.jnrwinfsp.api.NTStatusException;
 import com.github.jnrwinfspteam.jnrwinfsp.api.ReparsePoint;
-import com.github.jnrwinfspteam.jnrwinfsp.api.WinSysTime;
+import com.github.jnrwinfspteam.jnrwinfsp.api.WinSysClock;
 import jnr.ffi.Pointer;
 
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
-import java.util.Arrays;
+import java.util.function.ObjLongConsumer;
+import java.util.zip.Deflater;
 
 public class FileObj extends MemoryObj {
-    private static final int ALLOCATION_UNIT = 512;
+    private final FileData data;
+    private final VolumeCapacity.Charge charge; // shared with the other names, like the content
+
+    public FileObj(DirObj parent,
+                   Path path,
+                   byte[] securityDescriptor,
+                   ReparsePoint reparsePoint,
+                   WinSysClock clock) {
+        this(parent, path, securityDescriptor, reparsePoint, clock, new ArrayFileData());
+    }
+
+    FileObj(DirObj parent,
+            Path path,
+            byte[] securityDescriptor,
+            ReparsePoint reparsePoint,
+            WinSysClock clock,
+            FileData data) {
+        super(parent, path, securityDescriptor, reparsePoint, clock);
+        this.data = data;
+        this.charge = new VolumeCapacity.Charge();
+        setFileAttributes(getFileAttributes().with(FileAttributes.FILE_ATTRIBUTE_ARCHIVE));
+    }
 
-    private byte[] data;
-    private int fileSize;
+    /**
+     * Creates a new name (hard link) for the given file, sharing its content and metadata.
+     */
+    public FileObj(DirObj parent, Path path, FileObj target) {
+        super(parent, path, target);
+        this.data = target.data;
+        this.charge = target.charge;
+    }
 
-    public FileObj(DirObj parent, Path path, byte[] securityDescriptor, ReparsePoint reparsePoint) {
-        super(parent, path, securityDescriptor, reparsePoint);
-        this.data = new byte[0];
-        this.fileSize = 0;
-        getFileAttributes().add(FileAttributes.FILE_ATTRIBUTE_ARCHIVE);
+    // copy constructor, for snapshots
+    FileObj(DirObj parent, FileObj source, NamespaceCopier copier) {
+        super(parent, source, copier);
+        this.data = copier.copyOf(source.data);
+        this.charge = new VolumeCapacity.Charge();
     }
 
     @Override
-    public synchronized int getAllocationSize() {
-        return data.length;
+    FileObj copy(MemoryObj parent, NamespaceCopier copier) {
+        var copy = new FileObj((DirObj) parent, this, copier);
+        copy.copyNamedStreams(this, copier);
+        return copy;
     }
 
     @Override
-    public synchronized int getFileSize() {
-        return fileSize;
+    public int getAllocationSize() {
+        return data.getAllocationSize();
     }
 
-    public synchronized void setFileSize(int fileSize) {
-        final int prevFileSize = getFileSize();
+    @Override
+    public int getFileSize() {
+        return data.getFileSize();
+    }
 
-        if (fileSize < prevFileSize) {
-            for (int i = fileSize; i < prevFileSize; i++) {
-                data[i] = (byte) 0;
-            }
-        } else if (fileSize > getAllocationSize())
-            adaptAllocationSize(fileSize);
+    public void setFileSize(int fileSize) {
+        data.setFileSize(fileSize);
+        updateCharge();
+    }
 
-        this.fileSize = fileSize;
+    public void adaptAllocationSize(int fileSize) {
+        data.adaptAllocationSize(fileSize);
+        updateCharge();
     }
 
-    public synchronized void adaptAllocationSize(int fileSize) {
-        int units = (Math.addExact(fileSize, ALLOCATION_UNIT) - 1) / ALLOCATION_UNIT;
-        setAllocationSize(units * ALLOCATION_UNIT);
+    public void setAllocationSize(int newAllocationSize) {
+        data.setAllocationSize(newAllocationSize);
+        updateCharge();
     }
 
-    public synchronized void setAllocationSize(int newAllocationSize) {
-        if (newAllocationSize != getAllocationSize()) {
-            // truncate or extend the data buffer
-            final int newFileSize = Math.min(getFileSize(), newAllocationSize);
-            this.data = Arrays.copyOf(data, newAllocationSize);
-            this.fileSize = newFileSize;
+    public int read(Pointer buffer, long offsetL, int size) throws NTStatusException {
+        try {
+            return data.read(buffer, offsetL, size);
+        } finally {
+            updateCharge(); // reading compressed content inflates it (even at the end of the file)
         }
     }
 
-    public synchronized int read(Pointer buffer, long offsetL, int size) throws NTStatusException {
-        int offset = Math.toIntExact(offsetL);
-        if (offset >= getFileSize())
-            throw new NTStatusException(0xC0000011); // STATUS_END_OF_FILE
-
-        int bytesToRead = Math.min(getFileSize() - offset, size);
-        buffer.put(0, data, offset, bytesToRead);
-
-        setReadTime();
-
-        return bytesToRead;
+    public int write(Pointer buffer, long offsetL, int size, boolean writeToEndOfFile) {
+        int bytesWritten = data.write(buffer, offsetL, size, writeToEndOfFile);
+        updateCharge();
+        setWriteTime();
+        return bytesWritten;
     }
 
-    public synchronized int write(Pointer buffer, long offsetL, int size, boolean writeToEndOfFile) {
-        int begOffset = Math.toIntExact(offsetL);
-        if (writeToEndOfFile)
-            begOffset = getFileSize();
+    public int constrainedWrite(Pointer buffer, long offsetL, int size) {
+        int transferredLength = data.constrainedWrite(buffer, offsetL, size);
+        updateCharge(); // writing to compressed content inflates it
+        if (transferredLength > 0)
+            setWriteTime();
+        return transferredLength;
+    }
 
-        int endOffset = Math.addExact(begOffset, size);
-        if (endOffset > getFileSize())
-            setFileSize(endOffset);
+    /**
+     * Writes to the content without changing the times of the file, when it is restored (see {@link JournalReplay}).
+     */
+    void restore(Pointer buffer, long offset, int size) {
+        data.write(buffer, offset, size, false);
+        updateCharge();
+    }
 
-        buffer.get(0, data, begOffset, size);
+    /**
+     * Passes the content of this file to the given consumer without copying it (see
+     * {@link FileData#forEachBuffer}).
+     */
+    void forEachBuffer(int maxLength, ObjLongConsumer<ByteBuffer> consumer) {
+        data.forEachBuffer(maxLength, consumer);
+    }
 
-        setWriteTime();
+    /**
+     * Moves the content written since the last call to its final storage; called when a handle is closed.
+     */
+    public void seal() {
+        data.seal();
+    }
 
-        return size;
+    /**
+     * Frees the content, once the last name of the file is deleted.
+     */
+    public void release() {
+        data.release();
+        updateCharge();
     }
 
-    public synchronized int constrainedWrite(Pointer buffer, long offsetL, int size) {
-        int begOffset = Math.toIntExact(offsetL);
-        if (begOffset >= getFileSize())
-            return 0;
+    /**
+     * Whether the content was freed (see {@link FileData#release()}).
+     */
+    public boolean isReleased() {
+        return data.isReleased();
+    }
 
-        int endOffset = Math.min(getFileSize(), Math.addExact(begOffset, size));
-        int transferredLength = endOffset - begOffset;
+    /**
+     * Compresses the content of this file if it was not accessed since the previous call.
+     *
+     * @return whether the content was compressed
+     */
+    public boolean compressIfCold(Deflater deflater) {
+        boolean compressed = data.compressIfCold(deflater);
+        if (compressed)
+            updateCharge();
+        return compressed;
+    }
 
-        buffer.get(0, data, begOffset, transferredLength);
+    public boolean isCompressed() {
+        return data.isCompressed();
+    }
 
-        setWriteTime();
+    @Override
+    public FileInfo generateFileInfo(String filePath) {
+        FileInfo res = super.generateFileInfo(filePath);
+        if (data.isCompressed())
+            res.getFileAttributes().add(FileAttributes.FILE_ATTRIBUTE_COMPRESSED);
+        return res;
+    }
 
-        return transferredLength;
+    /**
+     * The space charged for the content of this file (see {@link VolumeCapacity}).
+     */
+    VolumeCapacity.Charge getCharge() {
+        return charge;
     }
 
-    private void setReadTime() {
-        setAccessTime(WinSysTime.now());
+    private void updateCharge() {
+        charge.update(data.getAllocationSize());
     }
 
     private void setWriteTime() {
-        setWriteTime(WinSysTime.now());
+        setWriteTime(getClock().now());
     }
 }
@@ -0,0 +1,75 @@
+package com.github.jnrwinfspteam.jnrwinfsp.memfs;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out unique ids (index numbers, file handles) without a lock. Every thread reserves a block of consecutive
+ * ids at a time from a shared counter, and hands them out from its block: threads only touch the shared counter once
+ * per block, so concurrent creates and opens do not contend on it.
+ * <p>
+ * Ids increase within a thread, and every id handed out is below {@link #getLimit()}; ids of different threads are
+ * not ordered, and the unused ids of a block are skipped.
+ */
+final class IdAllocator {
+
+    private final int blockSize;
+    private final boolean nonZeroLow32; // whether ids must not end with 32 zero bits
+    private final AtomicLong limit; // end of the last reserved block
+    private volatile int generation; // blocks of earlier generations are discarded (see advanceTo)
+    private final ThreadLocal<Block> blocks;
+
+    /**
+     * @param first        The first id to hand out
+     * @param blockSize    The number of ids reserved by a thread at a time
+     * @param nonZeroLow32 Whether ids must be non-zero as 32-bit values too (e.g. handles on a 32-bit architecture)
+     */
+    IdAllocator(long first, int blockSize, boolean nonZeroLow32) {
+        this.blockSize = blockSize;
+        this.nonZeroLow32 = nonZeroLow32;
+        this.limit = new AtomicLong(first);
+        this.generation = 0;
+        this.blocks = ThreadLocal.withInitial(Block::new);
+    }
+
+    long next() {
+        Block block = blocks.get();
+        long id;
+        do {
+            if (block.next == block.end || block.generation != generation)
+                reserve(block);
+            id = block.next++;
+            // checked again once the id is taken, in case advanceTo ran while the block was being reserved
+        } while (block.generation != generation || id == 0L || (nonZeroLow32 && (int) id == 0));
+
+        return id;
+    }
+
+    private void reserve(Block block) {
+        // read before reserving, so that a block reserved during advanceTo is discarded by next
+        block.generation = generation;
+        block.next = limit.getAndAdd(blockSize);
+        block.end = block.next + blockSize;
+    }
+
+    /**
+     * @return An id greater than every id handed out so far
+     */
+    long getLimit() {
+        return limit.get();
+    }
+
+    /**
+     * Ensures that the ids handed out from now on are at least the given one (e.g. after loading files that already
+     * have index numbers).
+     */
+    synchronized void advanceTo(long id) {
+        limit.accumulateAndGet(id, Math::max);
+        generation++;
+    }
+
+    private static final class Block {
+        long next;
+        long end;
+        int generation = -1;
+    }
+}
@@ -0,0 +1,57 @@
+package com.github.jnrwinfspteam.jnrwinfsp.memfs;
+
+import com.github.jnrwinfspteam.jnrwinfsp.api.ExtendedAttributes;
+import com.github.jnrwinfspteam.jnrwinfsp.api.FileAttributes;
+import com.github.jnrwinfspteam.jnrwinfsp.api.IntFlags;
+import com.github.jnrwinfspteam.jnrwinfsp.api.WinSysTime;
+
+import java.util.Map;
+
+/**
+ * The state of a file that is shared by all its names (hard links): attributes, security, reparse data, extended
+ * attributes, named streams, times and index number. A {@link MemoryObj} is one name of an inode.
+ */
+final class Inode {
+    volatile IntFlags<FileAttributes> fileAttributes; // immutable, replaced on change
+    byte[] securityDescriptor;
+    byte[] reparseData;
+    int reparseTag;
+    volatile ExtendedAttributes extendedAttributes;
+    Map<String, NamedStream> namedStreams; // created on demand
+    volatile WinSysTime creationTime;
+    volatile WinSysTime lastAccessTime;
+    volatile WinSysTime lastWriteTime;
+    volatile WinSysTime changeTime;
+    long indexNumber;
+    volatile int linkCount; // number of linked names; only changed under the file system lock
+
+    Inode(byte[] securityDescriptor, WinSysTime now) {
+        this.fileAttributes = IntFlags.noneOf(FileAttributes.class);
+        this.securityDescriptor = securityDescriptor;
+        this.reparseData = null;
+        this.reparseTag = 0;
+        this.extendedAttributes = ExtendedAttributes.EMPTY;
+        this.creationTime = now;
+        this.lastAccessTime = now;
+        this.lastWriteTime = now;
+        this.changeTime = now;
+        this.indexNumber = 0;
+        this.linkCount = 0;
+    }
+
+    /**
+     * Returns an unlinked copy of this inode, without its named streams.
+     */
+    Inode copy() {
+        var copy = new Inode(securityDescriptor, creationTime);
+        copy.fileAttributes = fileAttributes;
+        copy.reparseData = reparseData;
+        copy.reparseTag = reparseTag;
+        copy.extendedAttributes = extendedAttributes;
+        copy.lastAccessTime = lastAccessTime;
+        copy.lastWriteTime = lastWriteTime;
+        copy.changeTime = changeTime;
+        copy.indexNumber = indexNumber;
+        return copy;
+    }
+}
@@ -0,0 +1,128 @@
+package com.github.jnrwinfspteam.jnrwinfsp.memfs;
+
+import jnr.ffi.Pointer;
+import jnr.ffi.Runtime;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Reads the records written by {@link JournalOutput} from a stream. A record that is incomplete or does not match
+ * its CRC ends the stream (see {@link #next()}).
+ */
+final class JournalInput {
+    private static final Runtime RUNTIME = Runtime.getSystemRuntime();
+
+    private final DataInputStream in;
+    private final long length;
+    private long position;
+    private byte[] body;
+    private int pos;
+
+    /**
+     * @param in     The stream
+     * @param length The length of the stream
+     */
+    JournalInput(DataInputStream in, long length) {
+        this.in = in;
+        this.length = length;
+        this.position = 0;
+    }
+
+    /**
+     * Reads the next record, and returns its type; or returns -1 if there is no valid record left.
+     */
+    int next() throws IOException {
+        if (length - position < JournalOutput.HEADER_SIZE + 1)
+            return -1;
+
+        int bodyLength = in.readInt();
+        int crc = in.readInt();
+        if (bodyLength < 1 || bodyLength > length - position - JournalOutput.HEADER_SIZE)
+            return -1;
+
+        byte[] body = new byte[bodyLength];
+        try {
+            in.readFully(body);
+        } catch (EOFException e) {
+            return -1;
+        }
+
+        var actualCrc = new CRC32();
+        actualCrc.update(body);
+        if ((int) actualCrc.getValue() != crc)
+            return -1;
+
+        this.position += JournalOutput.HEADER_SIZE + bodyLength;
+        this.body = body;
+        this.pos = 1;
+        return body[0];
+    }
+
+    /**
+     * The position after the last valid record read.
+     */
+    long getPosition() {
+        return position;
+    }
+
+    byte readByte() throws IOException {
+        check(1);
+        return body[pos++];
+    }
+
+    boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    int readInt() throws IOException {
+        check(Integer.BYTES);
+        int v = ((body[pos] & 0xFF) << 24) | ((body[pos + 1] & 0xFF) << 16)
+                | ((body[pos + 2] & 0xFF) << 8) | (body[pos + 3] & 0xFF);
+        pos += Integer.BYTES;
+        return v;
+    }
+
+    long readLong() throws IOException {
+        return ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+    }
+
+    byte[] readBytes() throws IOException {
+        int n = readInt();
+        if (n < 0)
+            return null;
+
+        check(n);
+        byte[] bytes = new byte[n];
+        System.arraycopy(body, pos, bytes, 0, n);
+        pos += n;
+        return bytes;
+    }
+
+    String readString() throws IOException {
+        byte[] bytes = readBytes();
+        return bytes != null ? new String(bytes, StandardCharsets.UTF_8) : null;
+    }
+
+    /**
+     * Reads length-prefixed bytes, as a pointer to the record body (which is not reused by the following records).
+     *
+     * @return the pointer; its size is the number of bytes
+     */
+    Pointer readPointer() throws IOException {
+        int n = readInt();
+        check(n);
+        Pointer p = Pointer.wrap(RUNTIME, ByteBuffer.wrap(body, pos, n).slice());
+        pos += n;
+        return p;
+    }
+
+    private void check(int n) throws IOException {
+        if (n < 0 || n > body.length - pos)
+            throw new IOException("Malformed journal record");
+    }
+}
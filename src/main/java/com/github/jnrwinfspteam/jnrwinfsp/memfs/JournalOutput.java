@@ -0,0 +1,191 @@
+package com.github.jnrwinfspteam.jnrwinfsp.memfs;
+
+import jnr.ffi.Pointer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * A growable buffer of journal records. A record is framed by its length and the CRC-32 of its body:
+ * <pre>
+ *     int length; int crc; byte type; ...fields
+ * </pre>
+ * Integers are big-endian; byte arrays and strings are prefixed with their length (-1 for null).
+ * <p>
+ * A record can end with data that is not copied into the buffer (see {@link #end(ByteBuffer)}); it is written from
+ * its own buffer with a gathering write.
+ */
+final class JournalOutput {
+    static final int HEADER_SIZE = 8;
+
+    private byte[] buf;
+    private int count;
+    private int recordStart = -1;
+
+    // the content so far, when it includes external data: parts of buf (up to bufWritten) and external buffers
+    private final List<ByteBuffer> segments = new ArrayList<>();
+    private int bufWritten;
+    private long externalBytes;
+
+    JournalOutput() {
+        this(64 * 1024);
+    }
+
+    JournalOutput(int initialCapacity) {
+        this.buf = new byte[initialCapacity];
+        this.count = 0;
+    }
+
+    /**
+     * Starts a record of the given type.
+     */
+    void begin(byte type) {
+        this.recordStart = count;
+        ensureCapacity(HEADER_SIZE + 1);
+        count += HEADER_SIZE;
+        buf[count++] = type;
+    }
+
+    /**
+     * Ends the current record, and returns its size (including the header).
+     */
+    int end() {
+        int bodyLength = count - recordStart - HEADER_SIZE;
+        var crc = new CRC32();
+        crc.update(buf, recordStart + HEADER_SIZE, bodyLength);
+        putInt(recordStart, bodyLength);
+        putInt(recordStart + 4, (int) crc.getValue());
+
+        int size = count - recordStart;
+        this.recordStart = -1;
+        return size;
+    }
+
+    /**
+     * Ends the current record with the given data, after the fields written so far, and returns its size. The data
+     * is not copied: it must not be modified until this output is written.
+     */
+    int end(ByteBuffer data) {
+        int fieldsLength = count - recordStart - HEADER_SIZE;
+        int bodyLength = Math.addExact(fieldsLength, data.remaining());
+        var crc = new CRC32();
+        crc.update(buf, recordStart + HEADER_SIZE, fieldsLength);
+        crc.update(data.duplicate());
+        putInt(recordStart, bodyLength);
+        putInt(recordStart + 4, (int) crc.getValue());
+
+        segments.add(ByteBuffer.wrap(buf, bufWritten, count - bufWritten));
+        segments.add(data.duplicate());
+        this.bufWritten = count;
+        this.externalBytes += data.remaining();
+
+        this.recordStart = -1;
+        return HEADER_SIZE + bodyLength;
+    }
+
+    void writeByte(int v) {
+        ensureCapacity(1);
+        buf[count++] = (byte) v;
+    }
+
+    void writeBoolean(boolean v) {
+        writeByte(v ? 1 : 0);
+    }
+
+    void writeInt(int v) {
+        ensureCapacity(Integer.BYTES);
+        putInt(count, v);
+        count += Integer.BYTES;
+    }
+
+    void writeLong(long v) {
+        writeInt((int) (v >>> 32));
+        writeInt((int) v);
+    }
+
+    void writeBytes(byte[] bytes) {
+        if (bytes == null) {
+            writeInt(-1);
+            return;
+        }
+
+        writeInt(bytes.length);
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buf, count, bytes.length);
+        count += bytes.length;
+    }
+
+    void writeString(String s) {
+        writeBytes(s != null ? s.getBytes(StandardCharsets.UTF_8) : null);
+    }
+
+    /**
+     * Writes length-prefixed bytes copied from native memory.
+     */
+    void writeBytes(Pointer buffer, int length) {
+        writeInt(length);
+        ensureCapacity(length);
+        buffer.get(0, buf, count, length);
+        count += length;
+    }
+
+    long size() {
+        return count + externalBytes;
+    }
+
+    void reset() {
+        this.count = 0;
+        this.recordStart = -1;
+        this.segments.clear();
+        this.bufWritten = 0;
+        this.externalBytes = 0;
+    }
+
+    /**
+     * Writes the content of this buffer (all of it) to the given channel, and resets the buffer.
+     */
+    void writeTo(WritableByteChannel channel) throws IOException {
+        if (segments.isEmpty()) {
+            ByteBuffer bb = ByteBuffer.wrap(buf, 0, count);
+            while (bb.hasRemaining())
+                channel.write(bb);
+        } else {
+            ByteBuffer[] buffers = segments.toArray(new ByteBuffer[segments.size() + 1]);
+            buffers[segments.size()] = ByteBuffer.wrap(buf, bufWritten, count - bufWritten);
+            if (channel instanceof GatheringByteChannel) {
+                var gatheringChannel = (GatheringByteChannel) channel;
+                for (int i = 0; i < buffers.length; ) {
+                    gatheringChannel.write(buffers, i, buffers.length - i);
+                    while (i < buffers.length && !buffers[i].hasRemaining())
+                        i++;
+                }
+            } else {
+                for (ByteBuffer bb : buffers) {
+                    while (bb.hasRemaining())
+                        channel.write(bb);
+                }
+            }
+        }
+
+        reset();
+    }
+
+    private void putInt(int pos, int v) {
+        buf[pos] = (byte) (v >>> 24);
+        buf[pos + 1] = (byte) (v >>> 16);
+        buf[pos + 2] = (byte) (v >>> 8);
+        buf[pos + 3] = (byte) v;
+    }
+
+    private void ensureCapacity(int n) {
+        if (n > buf.length - count)
+            this.buf = Arrays.copyOf(buf, Math.max(buf.length * 2, Math.addExact(count, n)));
+    }
+}
@@ -0,0 +1,410 @@
+package com.github.jnrwinfspteam.jnrwinfsp.memfs;
+
+import com.github.jnrwinfspteam.jnrwinfsp.api.ExtendedAttributes;
+import com.github.jnrwinfspteam.jnrwinfsp.api.FileAttributes;
+import com.github.jnrwinfspteam.jnrwinfsp.api.IntFlags;
+import com.github.jnrwinfspteam.jnrwinfsp.api.NTStatusException;
+import com.github.jnrwinfspteam.jnrwinfsp.api.WinSysClock;
+import com.github.jnrwinfspteam.jnrwinfsp.api.WinSysTime;
+import jnr.ffi.Pointer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Applies the records of a {@link MemFSJournal} to the namespace of a file system being recovered.
+ * <p>
+ * Changes to the namespace identify files by path, and all other changes by index number. Records about a file
+ * that no longer exists are ignored: a file can still be written to after its last name was deleted, while it is
+ * open.
+ * <p>
+ * While restoring a snapshot (see {@link #startWorkers}), changes to the contents of large files are applied by
+ * parallel workers; the changes to each file are still applied in order.
+ */
+final class JournalReplay {
+    private static final int MAX_PENDING_BYTES = 64 * 1024 * 1024;
+    private static final int MIN_PARALLEL_FILE_SIZE = 256 * 1024;
+
+    private final Namespace objects;
+    private final Map<Long, MemoryObj> files; // by index number, including unlinked ones
+    private final WinSysClock clock;
+    private final Supplier<FileData> newFileData;
+
+    private long nextIndexNumber;
+    private String volumeLabel;
+
+    private ExecutorService[] workers; // null unless restoring a snapshot
+    private Semaphore pendingBytes;
+    private Set<FileObj> parallelFiles; // whose content changes are applied by the workers
+    private volatile Throwable workerFailure;
+
+    /**
+     * @param objects     The namespace
+     * @param clock       The clock of the file system
+     * @param newFileData Creates the contents of new files
+     */
+    JournalReplay(Namespace objects, WinSysClock clock, Supplier<FileData> newFileData) {
+        this.objects = objects;
+        this.files = new HashMap<>();
+        this.clock = clock;
+        this.newFileData = newFileData;
+        this.nextIndexNumber = 1L;
+        this.volumeLabel = null;
+
+        objects.forEach(obj -> files.put(obj.getIndexNumber(), obj));
+    }
+
+    /**
+     * The next index number to assign, after all the files replayed so far.
+     */
+    long getNextIndexNumber() {
+        return nextIndexNumber;
+    }
+
+    void setNextIndexNumber(long nextIndexNumber) {
+        this.nextIndexNumber = Math.max(this.nextIndexNumber, nextIndexNumber);
+    }
+
+    /**
+     * The last volume label replayed, or null if there was none.
+     */
+    String getVolumeLabel() {
+        return volumeLabel;
+    }
+
+    /**
+     * Applies the following changes to file contents with the given number of parallel workers, until
+     * {@link #finishWorkers()}. Only suitable for snapshots, in which contents are not written after the file is
+     * deleted.
+     */
+    void startWorkers(int count) {
+        this.workers = new ExecutorService[count];
+        for (int i = 0; i < count; i++) {
+            workers[i] = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "WinFspMemFS-restore");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        this.pendingBytes = new Semaphore(MAX_PENDING_BYTES);
+        this.parallelFiles = Collections.newSetFromMap(new IdentityHashMap<>());
+        this.workerFailure = null;
+    }
+
+    /**
+     * Waits until the workers applied all the changes submitted to them, and stops them.
+     */
+    void finishWorkers() throws IOException {
+        ExecutorService[] w = workers;
+        this.workers = null;
+        this.parallelFiles = null;
+        for (ExecutorService worker : w)
+            worker.shutdown();
+
+        try {
+            for (ExecutorService worker : w) {
+                while (!worker.awaitTermination(1, TimeUnit.MINUTES)) {
+                    // still writing
+                }
+            }
+        } catch (InterruptedException e) {
+            for (ExecutorService worker : w)
+                worker.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+
+        if (workerFailure != null)
+            throw new IOException("Failed to restore file contents", workerFailure);
+    }
+
+    /**
+     * Applies the record just read from the input.
+     */
+    void apply(int type, JournalInput in) throws IOException {
+        switch (type) {
+            case MemFSJournal.VOLUME_LABEL:
+                this.volumeLabel = in.readString();
+                break;
+            case MemFSJournal.CREATE:
+                create(in);
+                break;
+            case MemFSJournal.SET_METADATA:
+                setMetadata(in);
+                break;
+            case MemFSJournal.LINK:
+                link(in);
+                break;
+            case MemFSJournal.UNLINK:
+                unlink(in);
+                break;
+            case MemFSJournal.RENAME:
+                rename(in);
+                break;
+            case MemFSJournal.CREATE_STREAM:
+                createStream(in);
+                break;
+            case MemFSJournal.DELETE_STREAM:
+                deleteStream(in);
+                break;
+            case MemFSJournal.WRITE:
+                write(in);
+                break;
+            case MemFSJournal.RESIZE:
+                resize(in);
+                break;
+            default:
+                throw new IOException("Unknown journal record type: " + type);
+        }
+    }
+
+    private void create(JournalInput in) throws IOException {
+        Path path = getPath(in.readString());
+        boolean directory = in.readBoolean();
+        Metadata metadata = Metadata.read(in);
+        long time = in.readLong();
+
+        MemoryObj parent = objects.get(path.getParent());
+        if (!(parent instanceof DirObj) || objects.contains(path))
+            return;
+
+        MemoryObj obj = directory
+                ? new DirObj((DirObj) parent, path, metadata.securityDescriptor, null, clock)
+                : new FileObj((DirObj) parent, path, metadata.securityDescriptor, null, clock, newFileData.get());
+        metadata.applyTo(obj);
+        putObject(obj, time);
+
+        files.put(metadata.indexNumber, obj);
+        setNextIndexNumber(metadata.indexNumber + 1);
+    }
+
+    private void setMetadata(JournalInput in) throws IOException {
+        Metadata metadata = Metadata.read(in);
+        MemoryObj obj = files.get(metadata.indexNumber);
+        if (obj != null)
+            metadata.applyTo(obj);
+    }
+
+    private void link(JournalInput in) throws IOException {
+        MemoryObj target = files.get(in.readLong());
+        Path path = getPath(in.readString());
+        long time = in.readLong();
+
+        MemoryObj parent = objects.get(path.getParent());
+        if (!(target instanceof FileObj) || !(parent instanceof DirObj) || objects.contains(path))
+            return;
+
+        putObject(new FileObj((DirObj) parent, path, (FileObj) target), time);
+    }
+
+    private void unlink(JournalInput in) throws IOException {
+        Path path = getPath(in.readString());
+        long time = in.readLong();
+
+        MemoryObj obj = objects.get(path);
+        if (obj == null)
+            return;
+
+        // a directory is deleted with its subtree, if any (see WinFspMemFS.deleteTree)
+        for (MemoryObj removed : objects.removeTree(obj))
+            WinFspMemFS.releaseIfUnlinked(removed);
+        touch(obj.getParent(), time);
+    }
+
+    private void rename(JournalInput in) throws IOException {
+        Path oldPath = getPath(in.readString());
+        Path newPath = getPath(in.readString());
+        long time = in.readLong();
+
+        MemoryObj obj = objects.get(oldPath);
+        MemoryObj newParent = objects.get(newPath.getParent());
+        if (obj == null || oldPath.equals(newPath) || !(newParent instanceof DirObj)
+                || Namespace.isInSubtree(newParent, obj instanceof DirObj ? (DirObj) obj : null))
+            return;
+
+        MemoryObj replaced = removeObject(newPath, time);
+        if (replaced != null)
+            WinFspMemFS.releaseIfUnlinked(replaced);
+
+        // as in WinFspMemFS.rename
+        touch(obj.getParent(), time);
+        objects.move(obj, (DirObj) newParent, newPath.getFileName().toString());
+        touch(newParent, time);
+    }
+
+    private void createStream(JournalInput in) throws IOException {
+        MemoryObj mainObj = files.get(in.readLong());
+        String streamName = Objects.requireNonNull(in.readString());
+        if (mainObj != null && mainObj.getNamedStream(streamName) == null)
+            mainObj.putNamedStream(new NamedStream(mainObj, streamName, clock, newFileData.get()));
+    }
+
+    private void deleteStream(JournalInput in) throws IOException {
+        FileObj file = readFile(in);
+        if (file instanceof NamedStream) {
+            NamedStream stream = (NamedStream) file;
+            stream.getMainObj().removeNamedStream(stream);
+            WinFspMemFS.releaseIfUnlinked(stream);
+        }
+    }
+
+    private void write(JournalInput in) throws IOException {
+        FileObj file = readFile(in);
+        long offset = in.readLong();
+        Pointer data = in.readPointer();
+        if (file == null)
+            return;
+
+        // the write time was logged with the metadata, if it was changed by a handle that was closed since
+        int length = Math.toIntExact(data.size());
+        applyContentChange(file, length, () -> file.restore(data, offset, length));
+    }
+
+    private void resize(JournalInput in) throws IOException {
+        FileObj file = readFile(in);
+        byte operation = in.readByte();
+        int size = in.readInt();
+        if (file == null)
+            return;
+
+        switch (operation) {
+            case MemFSJournal.SET_FILE_SIZE:
+                // the content of a snapshot file starts with its size
+                if (workers != null && size >= MIN_PARALLEL_FILE_SIZE)
+                    parallelFiles.add(file);
+                applyContentChange(file, 0, () -> file.setFileSize(size));
+                break;
+            case MemFSJournal.SET_ALLOCATION_SIZE:
+                applyContentChange(file, 0, () -> file.setAllocationSize(size));
+                break;
+            case MemFSJournal.ADAPT_ALLOCATION_SIZE:
+                applyContentChange(file, 0, () -> file.adaptAllocationSize(size));
+                break;
+            default:
+                throw new IOException("Unknown resize operation: " + operation);
+        }
+    }
+
+    // applies the change in this thread, or in the worker of the file (the record data stays valid meanwhile)
+    private void applyContentChange(FileObj file, int length, Runnable change) {
+        if (workers == null || !parallelFiles.contains(file)) {
+            change.run();
+            return;
+        }
+
+        // bounds the memory held by the records waiting for the workers
+        int permits = Math.min(length, MAX_PENDING_BYTES);
+        pendingBytes.acquireUninterruptibly(permits);
+        workers[Math.floorMod(System.identityHashCode(file), workers.length)].execute(() -> {
+            try {
+                if (workerFailure == null)
+                    change.run();
+            } catch (Throwable t) {
+                workerFailure = t;
+            } finally {
+                pendingBytes.release(permits);
+            }
+        });
+    }
+
+    // returns null if the file (or stream) does not exist
+    private FileObj readFile(JournalInput in) throws IOException {
+        MemoryObj mainObj = files.get(in.readLong());
+        String streamName = in.readString();
+        if (mainObj == null)
+            return null;
+
+        if (streamName != null)
+            return mainObj.getNamedStream(streamName);
+
+        return mainObj instanceof FileObj ? (FileObj) mainObj : null;
+    }
+
+    private void putObject(MemoryObj obj, long time) {
+        objects.put(obj);
+        touch(obj.getParent(), time);
+    }
+
+    private MemoryObj removeObject(Path path, long time) {
+        MemoryObj obj = objects.get(path);
+        if (obj != null) {
+            objects.remove(obj);
+            touch(obj.getParent(), time);
+        }
+        return obj;
+    }
+
+    // records written by a checkpoint have no time: the times of the parent are restored with its own metadata
+    private static void touch(MemoryObj obj, long time) {
+        if (obj != null && time != 0) {
+            WinSysTime t = new WinSysTime(time);
+            obj.setAccessTime(t);
+            obj.setWriteTime(t);
+            obj.setChangeTime(t);
+        }
+    }
+
+    private static Path getPath(String path) {
+        return Path.of(path).normalize();
+    }
+
+    /**
+     * The metadata of a file, as written by {@link MemFSJournal}.
+     */
+    private static final class Metadata {
+        long indexNumber;
+        int fileAttributes;
+        byte[] securityDescriptor;
+        int reparseTag;
+        byte[] reparseData;
+        ExtendedAttributes extendedAttributes;
+        long creationTime;
+        long lastAccessTime;
+        long lastWriteTime;
+        long changeTime;
+
+        static Metadata read(JournalInput in) throws IOException {
+            var metadata = new Metadata();
+            metadata.indexNumber = in.readLong();
+            metadata.fileAttributes = in.readInt();
+            metadata.securityDescriptor = Objects.requireNonNull(in.readBytes());
+            metadata.reparseTag = in.readInt();
+            metadata.reparseData = in.readBytes();
+            try {
+                metadata.extendedAttributes = ExtendedAttributes.fromPacked(in.readBytes());
+            } catch (NTStatusException e) {
+                throw new IOException("Malformed extended attributes in journal", e);
+            }
+            metadata.creationTime = in.readLong();
+            metadata.lastAccessTime = in.readLong();
+            metadata.lastWriteTime = in.readLong();
+            metadata.changeTime = in.readLong();
+            return metadata;
+        }
+
+        void applyTo(MemoryObj obj) {
+            obj.setIndexNumber(indexNumber);
+            obj.setFileAttributes(IntFlags.of(FileAttributes.class, fileAttributes));
+            obj.setSecurityDescriptor(securityDescriptor);
+            obj.setReparseTag(reparseTag);
+            obj.setReparseData(reparseData);
+            obj.setExtendedAttributes(extendedAttributes);
+            obj.setCreationTime(new WinSysTime(creationTime));
+            obj.setAccessTime(new WinSysTime(lastAccessTime));
+            obj.setWriteTime(new WinSysTime(lastWriteTime));
+            obj.setChangeTime(new WinSysTime(changeTime));
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package com.github.jnrwinfspteam.jnrwinfsp.memfs;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes a {@link MemFSSnapshot} as a stream of journal records, and reads it back: for the checkpoints of a
+ * {@link MemFSJournal}, and for the archives exported and imported by {@link WinFspMemFS}.
+ * <p>
+ * The records are the volume label, then every file, parents first: its metadata (attributes, security descriptor,
+ * reparse data, extended attributes and times), its content and its named streams; and an {@link MemFSJournal#END}
+ * record. An archive starts with {@link #MAGIC} and an {@link MemFSJournal#ARCHIVE} record.
+ * <p>
+ * Contents are written straight from the storage of the snapshot (see {@link FileData#forEachBuffer}), while parallel
+ * workers compute the CRCs of the records; when reading, contents are written to the files by parallel workers.
+ */
+final class MemFSArchive {
+    static final byte[] MAGIC = "MEMFSARC".getBytes(StandardCharsets.US_ASCII);
+    static final int VERSION = 1;
+
+    private static final int CONTENT_RECORD_SIZE = 1024 * 1024;
+    private static final ByteBuffer ZEROS = ByteBuffer.allocate(CONTENT_RECORD_SIZE);
+    private static final int WORKERS = Runtime.getRuntime().availableProcessors();
+    private static final int MAX_PENDING_RECORDS = Math.max(16, 4 * WORKERS);
+    private static final int RECORDS_FLUSH_SIZE = 1024 * 1024;
+    private static final int MIN_PARALLEL_CONTENT_SIZE = 256 * 1024; // smaller contents are encoded in order
+
+    private MemFSArchive() {
+    }
+
+    /**
+     * Writes an archive of the given snapshot, and releases its contents (even if writing fails).
+     */
+    static void writeArchive(MemFSSnapshot snapshot, WritableByteChannel channel) throws IOException {
+        try {
+            ByteBuffer magic = ByteBuffer.wrap(MAGIC);
+            while (magic.hasRemaining())
+                channel.write(magic);
+
+            var header = new JournalOutput(1024);
+            header.begin(MemFSJournal.ARCHIVE);
+            header.writeInt(VERSION);
+            header.writeLong(snapshot.nextIndexNumber);
+            header.end();
+            writeSnapshot(snapshot, header, channel);
+        } finally {
+            snapshot.release();
+        }
+    }
+
+    /**
+     * Reads an archive written by {@link #writeArchive}. The channel is not closed.
+     */
+    static void readArchive(ReadableByteChannel channel, JournalReplay replay) throws IOException {
+        // not closed, since that would close the channel
+        var in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 64 * 1024));
+
+        byte[] magic = new byte[MAGIC.length];
+        try {
+            in.readFully(magic);
+        } catch (EOFException e) {
+            throw new IOException("Not a memfs archive");
+        }
+        if (!Arrays.equals(magic, MAGIC))
+            throw new IOException("Not a memfs archive");
+
+        var input = new JournalInput(in, Long.MAX_VALUE);
+        if (input.next() != MemFSJournal.ARCHIVE)
+            throw new IOException("Corrupt memfs archive");
+
+        int version = input.readInt();
+        if (version != VERSION)
+            throw new IOException("Unsupported memfs archive version: " + version);
+
+        replay.setNextIndexNumber(input.readLong());
+        if (!readSnapshot(input, replay))
+            throw new IOException("Corrupt memfs archive");
+    }
+
+    /**
+     * Writes the given header records, then the records of the snapshot, and releases its contents as they are written
+     * (the caller releases the snapshot if writing fails).
+     */
+    static void writeSnapshot(MemFSSnapshot snapshot, JournalOutput header, WritableByteChannel channel)
+            throws IOException {
+
+        header.begin(MemFSJournal.VOLUME_LABEL);
+        header.writeString(snapshot.getVolumeLabel());
+        header.end();
+        header.writeTo(channel);
+
+        // parents first
+        List<MemoryObj> objects = new ArrayList<>(snapshot.objects.size());
+        snapshot.objects.forEach(objects::add);
+
+        ExecutorService workers = Executors.newFixedThreadPool(WORKERS, r -> {
+            Thread t = new Thread(r, "WinFspMemFS-archive");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            var writer = new Writer(channel, workers);
+            Set<Long> writtenFiles = new HashSet<>();
+            for (MemoryObj obj : objects) {
+                boolean link = obj.getParent() != null && !writtenFiles.add(obj.getIndexNumber());
+                writer.writeObject(obj.getPath().toString(), obj, link);
+            }
+
+            writer.records.begin(MemFSJournal.END);
+            writer.records.end();
+            writer.finish();
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Applies the records of a snapshot, up to its {@link MemFSJournal#END} record.
+     *
+     * @return false if the records are incomplete or corrupt
+     */
+    static boolean readSnapshot(JournalInput input, JournalReplay replay) throws IOException {
+        replay.startWorkers(WORKERS);
+        try {
+            int type;
+            while ((type = input.next()) != MemFSJournal.END) {
+                if (type < 0)
+                    return false;
+                replay.apply(type, input);
+            }
+
+            return true;
+        } finally {
+            replay.finishWorkers();
+        }
+    }
+
+    /**
+     * Writes records in order, while the records of contents are prepared by the workers.
+     */
+    private static final class Writer {
+        private final WritableByteChannel channel;
+        private final ExecutorService workers;
+        private final Deque<Pending> pending;
+        private JournalOutput records;
+        private List<FileObj> recordsContents; // released once the records are written (see writeContent)
+
+        Writer(WritableByteChannel channel, ExecutorService workers) {
+            this.channel = channel;
+            this.workers = workers;
+            this.pending = new ArrayDeque<>();
+            this.records = new JournalOutput(4096);
+            this.recordsContents = new ArrayList<>();
+        }
+
+        /**
+         * @param link Whether the object is another name of a file already written
+         */
+        void writeObject(String path, MemoryObj obj, boolean link) throws IOException {
+            if (obj.getParent() == null) {
+                MemFSJournal.writeSetMetadata(records, obj); // the root
+            } else if (link) {
+                MemFSJournal.writeLink(records, obj, path, 0);
+                records.end();
+                return;
+            } else {
+                MemFSJournal.writeCreate(records, path, obj, 0);
+            }
+            records.end();
+
+            if (obj instanceof FileObj)
+                writeContent((FileObj) obj);
+            for (NamedStream stream : obj.getNamedStreams()) {
+                MemFSJournal.writeCreateStream(records, stream);
+                records.end();
+                writeContent(stream);
+            }
+
+            if (records.size() >= RECORDS_FLUSH_SIZE)
+                flushRecords();
+        }
+
+        // writes the content of a snapshot file, and releases it once written
+        private void writeContent(FileObj file) throws IOException {
+            MemFSJournal.writeResize(records, file, MemFSJournal.SET_FILE_SIZE, file.getFileSize());
+            records.end();
+
+            try {
+                file.forEachBuffer(CONTENT_RECORD_SIZE, (buffer, offset) -> {
+                    try {
+                        if (buffer.remaining() >= MIN_PARALLEL_CONTENT_SIZE)
+                            submit(() -> encodeWrite(new JournalOutput(256), file, offset, buffer));
+                        else
+                            encodeWrite(records, file, offset, buffer);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            // the allocation size of a compressed file is that of its compressed content
+            if (!file.isCompressed()) {
+                MemFSJournal.writeResize(records, file, MemFSJournal.SET_ALLOCATION_SIZE, file.getAllocationSize());
+                records.end();
+            }
+
+            // The buffers share the storage of the content, which must not be released before they are written:
+            // releasing it could let the file system modify a storage that is no longer shared in place. The records
+            // are written after the ones submitted to the workers, so the content is released after them.
+            recordsContents.add(file);
+        }
+
+        void finish() throws IOException {
+            flushRecords();
+            while (!pending.isEmpty())
+                writeNext();
+        }
+
+        private void submit(Callable<JournalOutput> task) throws IOException {
+            flushRecords();
+            pending.add(new Pending(workers.submit(task), List.of()));
+            while (pending.size() > MAX_PENDING_RECORDS)
+                writeNext();
+        }
+
+        private void flushRecords() {
+            if (records.size() > 0 || !recordsContents.isEmpty()) {
+                pending.add(new Pending(CompletableFuture.completedFuture(records), recordsContents));
+                this.records = new JournalOutput(4096);
+                this.recordsContents = new ArrayList<>();
+            }
+        }
+
+        private void writeNext() throws IOException {
+            Pending next = pending.removeFirst();
+            JournalOutput out;
+            try {
+                out = next.output.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } catch (ExecutionException e) {
+                throw new IOException("Failed to encode file content", e.getCause());
+            }
+
+            out.writeTo(channel);
+            for (FileObj file : next.contents)
+                file.release();
+        }
+    }
+
+    /**
+     * Records to write, and the contents to release once they are written.
+     */
+    private static final class Pending {
+        final Future<JournalOutput> output;
+        final List<FileObj> contents;
+
+        Pending(Future<JournalOutput> output, List<FileObj> contents) {
+            this.output = output;
+            this.contents = contents;
+        }
+    }
+
+    // writes nothing if the content only contains zeros: setting the file size already zeroed it
+    private static JournalOutput encodeWrite(JournalOutput out, FileObj file, long offset, ByteBuffer buffer) {
+        if (buffer.mismatch(ZEROS.duplicate().limit(buffer.remaining())) < 0)
+            return out;
+
+        out.begin(MemFSJournal.WRITE);
+        MemFSJournal.writeFile(out, file);
+        out.writeLong(offset);
+        out.writeInt(buffer.remaining());
+        out.end(buffer);
+        return out;
+    }
+}
@@ -0,0 +1,518 @@
+package com.github.jnrwinfspteam.jnrwinfsp.memfs;
+
+import com.github.jnrwinfspteam.jnrwinfsp.api.WinSysTime;
+import jnr.ffi.Pointer;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The persistence of a {@link WinFspMemFS}, kept in a directory: an append-only log of the changes to the file
+ * system, and a checkpoint of its whole state.
+ * <p>
+ * Changes are appended to an in-memory batch, which is written to the log and forced to disk by {@link #commit()}.
+ * A commit writes all the changes appended so far with a single write, so that concurrent operations share the cost
+ * of forcing the log (group commit). A checkpoint starts a new log and writes a snapshot of the file system to a new
+ * file, which then replaces the previous checkpoint and the logs it includes. On startup, the checkpoint is loaded
+ * and the logs written after it are replayed (see {@link JournalReplay}).
+ * <p>
+ * A checkpoint is a sequence of records like a log, between a {@link #CHECKPOINT} and an {@link #END} record (see
+ * {@link MemFSArchive}). A record torn by a crash ends the replay of the last log.
+ */
+final class MemFSJournal implements Closeable {
+
+    // record types
+    static final byte CHECKPOINT = 1;        // long generation, long nextIndexNumber
+    static final byte END = 2;               // of a checkpoint or archive
+    static final byte VOLUME_LABEL = 3;      // String label
+    static final byte CREATE = 4;            // String path, boolean directory, metadata, long time
+    static final byte SET_METADATA = 5;      // metadata
+    static final byte LINK = 6;              // long index, String path, long time
+    static final byte UNLINK = 7;            // String path, long time
+    static final byte RENAME = 8;            // String oldPath, String newPath, long time
+    static final byte CREATE_STREAM = 9;     // long index, String streamName
+    static final byte DELETE_STREAM = 10;    // long index, String streamName
+    static final byte WRITE = 11;            // long index, String streamName, long offset, bytes data
+    static final byte RESIZE = 12;           // long index, String streamName, byte operation, int size
+    static final byte ARCHIVE = 13;          // int version, long nextIndexNumber
+
+    // RESIZE operations
+    static final byte SET_FILE_SIZE = 0;
+    static final byte SET_ALLOCATION_SIZE = 1;
+    static final byte ADAPT_ALLOCATION_SIZE = 2;
+
+    private static final String CHECKPOINT_FILE = "memfs.checkpoint";
+    private static final String LOG_PREFIX = "memfs-";
+    private static final String LOG_SUFFIX = ".log";
+    private static final int MAX_BATCH_SIZE = 8 * 1024 * 1024;
+    private static final long MIN_CHECKPOINT_LOG_SIZE = 16 * 1024 * 1024;
+
+    private final Path directory;
+    private final Object commitLock = new Object();
+
+    // guarded by this
+    private JournalOutput batch;
+    private long appendedBytes;
+    private long logBytes; // appended since the last checkpoint started
+    private volatile long batchSize;
+
+    // guarded by the commit lock
+    private JournalOutput writing;
+    private FileChannel log;
+    private long generation;
+    private volatile long committedBytes;
+    private volatile IOException failure;
+
+    private volatile long checkpointBytes;
+
+    private MemFSJournal(Path directory, long generation, long logBytes, long checkpointBytes) throws IOException {
+        this.directory = directory;
+        this.batch = new JournalOutput();
+        this.writing = new JournalOutput();
+        this.generation = generation;
+        this.log = openLog(directory, generation);
+        this.logBytes = logBytes;
+        this.checkpointBytes = checkpointBytes;
+    }
+
+    /**
+     * Recovers the state of a file system from the given directory, if it contains any, and opens the journal to
+     * which the following changes are logged.
+     *
+     * @param directory The directory
+     * @param replay    Applies the recovered changes to the file system
+     * @param readOnly  Whether to only recover the state, without modifying the directory
+     * @return the journal, or null if read-only
+     */
+    static MemFSJournal open(Path directory, JournalReplay replay, boolean readOnly) throws IOException {
+        if (!readOnly)
+            Files.createDirectories(directory);
+
+        long generation = 0;
+        long checkpointBytes = 0;
+        Path checkpoint = directory.resolve(CHECKPOINT_FILE);
+        if (Files.exists(checkpoint)) {
+            generation = replayCheckpoint(checkpoint, replay);
+            checkpointBytes = Files.size(checkpoint);
+        }
+
+        long nextGeneration = generation;
+        long logBytes = 0;
+        List<Long> generations = listLogs(directory);
+        for (int i = 0; i < generations.size(); i++) {
+            long logGeneration = generations.get(i);
+            Path logFile = logFile(directory, logGeneration);
+            if (logGeneration < generation) {
+                // already included in the checkpoint
+                if (!readOnly)
+                    Files.delete(logFile);
+                continue;
+            }
+
+            long size = Files.size(logFile);
+            long end = replayLog(logFile, size, replay);
+            if (end < size) {
+                if (i < generations.size() - 1)
+                    throw new IOException("Corrupt journal: " + logFile);
+
+                // the last record was torn by a crash
+                if (!readOnly) {
+                    try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.WRITE)) {
+                        channel.truncate(end);
+                        channel.force(true);
+                    }
+                }
+            }
+
+            logBytes += end;
+            nextGeneration = logGeneration + 1;
+        }
+
+        return readOnly ? null : new MemFSJournal(directory, nextGeneration, logBytes, checkpointBytes);
+    }
+
+    private static long replayCheckpoint(Path checkpoint, JournalReplay replay) throws IOException {
+        long size = Files.size(checkpoint);
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(checkpoint), 64 * 1024))) {
+            var input = new JournalInput(in, size);
+            if (input.next() != CHECKPOINT)
+                throw new IOException("Corrupt checkpoint: " + checkpoint);
+
+            long generation = input.readLong();
+            replay.setNextIndexNumber(input.readLong());
+            if (!MemFSArchive.readSnapshot(input, replay))
+                throw new IOException("Corrupt checkpoint: " + checkpoint);
+
+            return generation;
+        }
+    }
+
+    // returns the position after the last valid record
+    private static long replayLog(Path logFile, long size, JournalReplay replay) throws IOException {
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(logFile), 64 * 1024))) {
+            var input = new JournalInput(in, size);
+            int type;
+            while ((type = input.next()) >= 0)
+                replay.apply(type, input);
+
+            return input.getPosition();
+        }
+    }
+
+    void logVolumeLabel(String volumeLabel) {
+        synchronized (this) {
+            batch.begin(VOLUME_LABEL);
+            batch.writeString(volumeLabel);
+            appended(batch.end());
+        }
+        throttle();
+    }
+
+    void logCreate(String path, MemoryObj obj, WinSysTime time) {
+        synchronized (this) {
+            writeCreate(batch, path, obj, time.get());
+            appended(batch.end());
+        }
+        throttle();
+    }
+
+    /**
+     * Logs the metadata of a file: attributes, security, reparse data, extended attributes and times.
+     */
+    void logMetadata(MemoryObj obj) {
+        synchronized (this) {
+            writeSetMetadata(batch, obj);
+            appended(batch.end());
+        }
+        throttle();
+    }
+
+    void logLink(MemoryObj target, String path, WinSysTime time) {
+        synchronized (this) {
+            writeLink(batch, target, path, time.get());
+            appended(batch.end());
+        }
+        throttle();
+    }
+
+    void logUnlink(String path, WinSysTime time) {
+        synchronized (this) {
+            batch.begin(UNLINK);
+            batch.writeString(path);
+            batch.writeLong(time.get());
+            appended(batch.end());
+        }
+        throttle();
+    }
+
+    void logRename(String oldPath, String newPath, WinSysTime time) {
+        synchronized (this) {
+            batch.begin(RENAME);
+            batch.writeString(oldPath);
+            batch.writeString(newPath);
+            batch.writeLong(time.get());
+            appended(batch.end());
+        }
+        throttle();
+    }
+
+    void logCreateStream(NamedStream stream) {
+        synchronized (this) {
+            writeCreateStream(batch, stream);
+            appended(batch.end());
+        }
+        throttle();
+    }
+
+    void logDeleteStream(NamedStream stream) {
+        synchronized (this) {
+            batch.begin(DELETE_STREAM);
+            writeFile(batch, stream);
+            appended(batch.end());
+        }
+        throttle();
+    }
+
+    /**
+     * Logs a write to the content of a file. Writes must be logged in the order they are applied to the file.
+     */
+    void logWrite(FileObj file, long offset, Pointer buffer, int length) {
+        synchronized (this) {
+            batch.begin(WRITE);
+            writeFile(batch, file);
+            batch.writeLong(offset);
+            batch.writeBytes(buffer, length);
+            appended(batch.end());
+        }
+        throttle();
+    }
+
+    /**
+     * Logs a change of the size of a file ({@link #SET_FILE_SIZE}, {@link #SET_ALLOCATION_SIZE} or
+     * {@link #ADAPT_ALLOCATION_SIZE}). Like writes, these must be logged in the order they are applied.
+     */
+    void logResize(FileObj file, byte operation, int size) {
+        synchronized (this) {
+            writeResize(batch, file, operation, size);
+            appended(batch.end());
+        }
+        throttle();
+    }
+
+    /**
+     * Writes all the changes logged so far to the log, and forces them to disk. If another thread is already
+     * committing, this waits for it and only writes what it did not.
+     */
+    void commit() throws IOException {
+        long target;
+        synchronized (this) {
+            target = appendedBytes;
+        }
+
+        synchronized (commitLock) {
+            if (committedBytes < target)
+                _commit();
+        }
+    }
+
+    /**
+     * Whether a commit failed. The log cannot be trusted anymore after a failure, so no further change should be
+     * made to the file system.
+     */
+    boolean hasFailed() {
+        return failure != null;
+    }
+
+    /**
+     * Whether enough changes were logged since the last checkpoint that replaying them would take longer than
+     * loading a new checkpoint.
+     */
+    synchronized boolean needsCheckpoint() {
+        return logBytes >= Math.max(MIN_CHECKPOINT_LOG_SIZE, checkpointBytes);
+    }
+
+    boolean hasCheckpoint() {
+        return checkpointBytes > 0;
+    }
+
+    synchronized boolean hasChangesSinceCheckpoint() {
+        return logBytes > 0;
+    }
+
+    /**
+     * Commits the changes logged so far and starts a new log, for a checkpoint. Must be called while no change can
+     * be logged, except for writes to file contents (see {@link #writeCheckpoint}).
+     *
+     * @return the generation of the new log
+     */
+    long rotate() throws IOException {
+        synchronized (commitLock) {
+            _commit();
+
+            log.close();
+            try {
+                this.log = openLog(directory, generation + 1);
+            } catch (IOException e) {
+                this.failure = e;
+                throw e;
+            }
+            this.generation++;
+
+            synchronized (this) {
+                this.logBytes = 0;
+            }
+
+            return generation;
+        }
+    }
+
+    /**
+     * Writes a checkpoint, which replaces the current one and the logs before the given generation. The contents of
+     * the snapshot are released, even if writing fails.
+     * <p>
+     * The snapshot must be taken after the log of the given generation was started (see {@link #rotate()}), and
+     * before any other change to the namespace or metadata. Writes to file contents may be made (and logged) in the
+     * meantime; they are logged with absolute offsets, so replaying them again over the checkpoint is harmless.
+     *
+     * @param snapshot   The snapshot of the file system
+     * @param generation The first log generation that is not included in the snapshot
+     */
+    void writeCheckpoint(MemFSSnapshot snapshot, long generation) throws IOException {
+        Path tmpFile = directory.resolve(CHECKPOINT_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmpFile,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            var header = new JournalOutput(1024);
+            header.begin(CHECKPOINT);
+            header.writeLong(generation);
+            header.writeLong(snapshot.nextIndexNumber);
+            header.end();
+            MemFSArchive.writeSnapshot(snapshot, header, channel);
+            channel.force(true);
+        } finally {
+            snapshot.release();
+        }
+
+        Files.move(tmpFile, directory.resolve(CHECKPOINT_FILE),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        this.checkpointBytes = Files.size(directory.resolve(CHECKPOINT_FILE));
+
+        for (long logGeneration : listLogs(directory)) {
+            if (logGeneration < generation)
+                Files.delete(logFile(directory, logGeneration));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (commitLock) {
+            try {
+                if (failure == null)
+                    _commit();
+            } finally {
+                log.close();
+            }
+        }
+    }
+
+    // must be called while holding this lock
+    private void appended(int recordSize) {
+        this.appendedBytes += recordSize;
+        this.logBytes += recordSize;
+        this.batchSize = batch.size();
+    }
+
+    // commits a large batch in the calling thread, rather than letting it grow until the next commit
+    private void throttle() {
+        if (batchSize >= MAX_BATCH_SIZE) {
+            try {
+                commit();
+            } catch (IOException e) {
+                // recorded as the failure of the journal
+            }
+        }
+    }
+
+    // must be called while holding the commit lock
+    private void _commit() throws IOException {
+        if (failure != null)
+            throw new IOException("The journal failed earlier", failure);
+
+        JournalOutput records;
+        long end;
+        synchronized (this) {
+            records = batch;
+            this.batch = writing;
+            this.writing = records;
+            this.batchSize = 0;
+            end = appendedBytes;
+        }
+
+        try {
+            records.writeTo(log);
+            log.force(false);
+        } catch (IOException e) {
+            records.reset();
+            this.failure = e;
+            throw e;
+        }
+
+        this.committedBytes = end;
+    }
+
+    static void writeCreate(JournalOutput out, String path, MemoryObj obj, long time) {
+        out.begin(CREATE);
+        out.writeString(path);
+        out.writeBoolean(obj instanceof DirObj);
+        writeMetadata(out, obj);
+        out.writeLong(time);
+    }
+
+    static void writeSetMetadata(JournalOutput out, MemoryObj obj) {
+        out.begin(SET_METADATA);
+        writeMetadata(out, obj);
+    }
+
+    static void writeLink(JournalOutput out, MemoryObj target, String path, long time) {
+        out.begin(LINK);
+        out.writeLong(target.getIndexNumber());
+        out.writeString(path);
+        out.writeLong(time);
+    }
+
+    static void writeCreateStream(JournalOutput out, NamedStream stream) {
+        out.begin(CREATE_STREAM);
+        writeFile(out, stream);
+    }
+
+    static void writeResize(JournalOutput out, FileObj file, byte operation, int size) {
+        out.begin(RESIZE);
+        writeFile(out, file);
+        out.writeByte(operation);
+        out.writeInt(size);
+    }
+
+    static void writeMetadata(JournalOutput out, MemoryObj obj) {
+        out.writeLong(obj.getIndexNumber());
+        out.writeInt(obj.getFileAttributes().intValue());
+        out.writeBytes(obj.getSecurityDescriptor());
+        out.writeInt(obj.getReparseTag());
+        out.writeBytes(obj.getReparseData());
+        out.writeBytes(obj.getExtendedAttributes().toPacked());
+        out.writeLong(obj.getCreationTime().get());
+        out.writeLong(obj.getLastAccessTime().get());
+        out.writeLong(obj.getLastWriteTime().get());
+        out.writeLong(obj.getChangeTime().get());
+    }
+
+    // a named stream is identified by the index number of its file and its name
+    static void writeFile(JournalOutput out, FileObj file) {
+        if (file instanceof NamedStream) {
+            NamedStream stream = (NamedStream) file;
+            out.writeLong(stream.getMainObj().getIndexNumber());
+            out.writeString(stream.getStreamName());
+        } else {
+            out.writeLong(file.getIndexNumber());
+            out.writeString(null);
+        }
+    }
+
+    private static FileChannel openLog(Path directory, long generation) throws IOException {
+        return FileChannel.open(logFile(directory, generation), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    private static Path logFile(Path directory, long generation) {
+        return directory.resolve(String.format("%s%016x%s", LOG_PREFIX, generation, LOG_SUFFIX));
+    }
+
+    private static List<Long> listLogs(Path directory) throws IOException {
+        List<Long> generations = new ArrayList<>();
+        if (!Files.isDirectory(directory))
+            return generations;
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, LOG_PREFIX + "*" + LOG_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                String hex = name.substring(LOG_PREFIX.length(), name.length() - LOG_SUFFIX.length());
+                try {
+                    generations.add(Long.parseUnsignedLong(hex, 16));
+                } catch (NumberFormatException e) {
+                    // not a log
+                }
+            }
+        }
+
+        generations.sort(null);
+        return generations;
+    }
+}
@@ -0,0 +1,127 @@
+package com.github.jnrwinfspteam.jnrwinfsp.memfs;
+
+import com.github.jnrwinfspteam.jnrwinfsp.api.WinSysClock;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Objects;
+
+public class MemFSOptions {
+
+    private WinSysClock clock = WinSysClock.coarse();
+    private AccessTimePolicy accessTimePolicy = AccessTimePolicy.COARSE;
+    private boolean deduplication = false;
+    private Duration compressionDelay = null;
+    private Path persistenceDirectory = null;
+    private long capacity = Runtime.getRuntime().maxMemory();
+
+    /**
+     * Sets "clock" option (default is {@link WinSysClock#coarse()}).
+     *
+     * @param clock Clock used to timestamp files and directories
+     */
+    public MemFSOptions setClock(WinSysClock clock) {
+        this.clock = Objects.requireNonNull(clock);
+        return this;
+    }
+
+    /**
+     * Sets "access time policy" option (default is {@link AccessTimePolicy#COARSE}).
+     *
+     * @param accessTimePolicy Determines when the last access time of files and directories is updated
+     */
+    public MemFSOptions setAccessTimePolicy(AccessTimePolicy accessTimePolicy) {
+        this.accessTimePolicy = Objects.requireNonNull(accessTimePolicy);
+        return this;
+    }
+
+    /**
+     * Sets "deduplication" option (default is false).
+     * <p>
+     * When enabled, file contents are stored as 64 KiB chunks in a content-addressed store, so that identical chunks
+     * (e.g. copies of the same file) use memory once. Writes to a shared chunk copy it, and the chunks written to are
+     * stored again when the file is closed. Chunks that only contain zeros use no memory.
+     *
+     * @param deduplication Whether to store identical file contents once
+     */
+    public MemFSOptions setDeduplication(boolean deduplication) {
+        this.deduplication = deduplication;
+        return this;
+    }
+
+    /**
+     * Sets "compression delay" option (default is null, i.e. file contents are never compressed).
+     * <p>
+     * When set, a background thread compresses (with Deflate) the contents of files that were not accessed for
+     * about this long, and which shrink by at least 1/8. Compressed files have the FILE_ATTRIBUTE_COMPRESSED
+     * attribute and report their compressed size as allocation size; they are inflated again on the next access.
+     * Contents stored with {@link #setDeduplication(boolean) deduplication} are not compressed.
+     *
+     * @param compressionDelay How long the content of a file must not be accessed before it is compressed
+     */
+    public MemFSOptions setCompressionDelay(Duration compressionDelay) {
+        if (compressionDelay != null && (compressionDelay.isNegative() || compressionDelay.isZero()))
+            throw new IllegalArgumentException("compression delay must be positive");
+
+        this.compressionDelay = compressionDelay;
+        return this;
+    }
+
+    /**
+     * Sets "persistence directory" option (default is null, i.e. the file system is lost when it is closed).
+     * <p>
+     * When set, every change to the file system is appended to a log in this directory, and the whole file system is
+     * periodically written to a checkpoint there (which replaces the log written before it). A file system created
+     * with the same directory recovers the state of the previous one. Changes are forced to disk in batches, a few
+     * milliseconds after they are made, and immediately when a file or the volume is flushed.
+     * <p>
+     * The file system should be closed after it is unmounted, which writes a last checkpoint.
+     *
+     * @param persistenceDirectory The directory where the file system is stored (created if needed)
+     */
+    public MemFSOptions setPersistenceDirectory(Path persistenceDirectory) {
+        this.persistenceDirectory = persistenceDirectory;
+        return this;
+    }
+
+    /**
+     * Sets "capacity" option (default is the maximum heap size of the JVM).
+     * <p>
+     * The capacity is the total size of the volume: the space allocated to file contents (or, with
+     * {@link #setDeduplication(boolean) deduplication}, the memory used by the stored chunks) cannot exceed it, and
+     * the free space of the volume is what remains of it.
+     *
+     * @param capacity The size of the volume, in bytes
+     */
+    public MemFSOptions setCapacity(long capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive");
+
+        this.capacity = capacity;
+        return this;
+    }
+
+    public WinSysClock getClock() {
+        return clock;
+    }
+
+    public AccessTimePolicy getAccessTimePolicy() {
+        return accessTimePolicy;
+    }
+
+    public boolean hasDeduplication() {
+        return deduplication;
+    }
+
+    public Duration getCompressionDelay() {
+        return compressionDelay;
+    }
+
+    public Path getPersistenceDirectory() {
+        return persistenceDirectory;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+}
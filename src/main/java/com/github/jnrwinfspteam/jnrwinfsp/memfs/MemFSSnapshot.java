@@ -0,0 +1,65 @@
+package com.github.jnrwinfspteam.jnrwinfsp.memfs;
+
+import com.github.jnrwinfspteam.jnrwinfsp.api.WinSysTime;
+
+/**
+ * A point-in-time image of a {@link WinFspMemFS} volume, taken with {@link WinFspMemFS#snapshot()}.
+ * <p>
+ * A snapshot is immutable. It can be mounted (read-only, or as a writable fork) any number of times by creating a
+ * new file system from it with {@link WinFspMemFS#WinFspMemFS(MemFSSnapshot, boolean, boolean, MemFSOptions)}.
+ * File contents are shared between the original volume, the snapshot and its forks, and only copied when modified.
+ * <p>
+ * A snapshot holds on to its contents until it is {@link #release() released}, which must be done once it is no
+ * longer needed: with deduplication, they stay stored until then.
+ */
+public final class MemFSSnapshot {
+    final Namespace objects;
+    final ChunkStore chunkStore;
+    final long nextIndexNumber;
+    private final String volumeLabel;
+    private final WinSysTime creationTime;
+    private boolean released;
+
+    MemFSSnapshot(Namespace objects,
+                  ChunkStore chunkStore,
+                  long nextIndexNumber,
+                  String volumeLabel,
+                  WinSysTime creationTime) {
+        this.objects = objects;
+        this.chunkStore = chunkStore;
+        this.nextIndexNumber = nextIndexNumber;
+        this.volumeLabel = volumeLabel;
+        this.creationTime = creationTime;
+    }
+
+    public String getVolumeLabel() {
+        return volumeLabel;
+    }
+
+    public WinSysTime getCreationTime() {
+        return creationTime;
+    }
+
+    /**
+     * The number of files and directories in the snapshot (including the root directory).
+     */
+    public int getObjectCount() {
+        return objects.size();
+    }
+
+    /**
+     * Frees the contents of this snapshot. The file systems created from it are not affected, but no other one can be
+     * created from it afterwards.
+     */
+    public synchronized void release() {
+        if (released)
+            return;
+
+        released = true;
+        objects.releaseContents();
+    }
+
+    synchronized boolean isReleased() {
+        return released;
+    }
+}
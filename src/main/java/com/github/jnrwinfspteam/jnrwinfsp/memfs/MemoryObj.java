@@ -1,111 +1,261 @@
 package com.github.jnrwinfspteam.jnrwinfsp.memfs;
 
+import com.github.jnrwinfspteam.jnrwinfsp.api.ExtendedAttributes;
 import com.github.jnrwinfspteam.jnrwinfsp.api.FileAttributes;
 import com.github.jnrwinfspteam.jnrwinfsp.api.FileInfo;
+import com.github.jnrwinfspteam.jnrwinfsp.api.IntFlags;
 import com.github.jnrwinfspteam.jnrwinfsp.api.ReparsePoint;
+import com.github.jnrwinfspteam.jnrwinfsp.api.WinSysClock;
 import com.github.jnrwinfspteam.jnrwinfsp.api.WinSysTime;
 
 import java.nio.file.Path;
-import java.util.EnumSet;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Objects;
-import java.util.Set;
 
+/**
+ * A name in the namespace of a file system: the root directory, or a child (with a name) of a directory. Paths are
+ * not stored, but derived from the parent on demand (see {@link #getPath()}), so moving a directory does not touch
+ * its descendants.
+ */
 public abstract class MemoryObj {
-    private final MemoryObj parent;
-    private Path path;
-    private final Set<FileAttributes> fileAttributes;
-    private byte[] securityDescriptor;
-    private byte[] reparseData;
-    private int reparseTag;
-    private WinSysTime creationTime;
-    private WinSysTime lastAccessTime;
-    private WinSysTime lastWriteTime;
-    private WinSysTime changeTime;
-    private long indexNumber;
-
-    public MemoryObj(MemoryObj parent, Path path, byte[] securityDescriptor, ReparsePoint reparsePoint) {
-        this.parent = parent;
-        this.path = Objects.requireNonNull(path);
-        this.fileAttributes = EnumSet.noneOf(FileAttributes.class);
-        this.securityDescriptor = Objects.requireNonNull(securityDescriptor);
-        this.reparseData = null;
-        this.reparseTag = 0;
-        WinSysTime now = WinSysTime.now();
-        this.creationTime = now;
-        this.lastAccessTime = now;
-        this.lastWriteTime = now;
-        this.changeTime = now;
-        this.indexNumber = 0;
+    private final WinSysClock clock;
+    // the parent and name are only changed under the file system lock (see Namespace)
+    private volatile DirObj parent; // null for the root directory
+    private volatile String name; // null for the root directory
+    private volatile DerivedPath path; // the path of the root, or the last path derived from the parent
+    private final Inode inode;
+    private volatile boolean linked;
+
+    public MemoryObj(DirObj parent,
+                     Path path,
+                     byte[] securityDescriptor,
+                     ReparsePoint reparsePoint,
+                     WinSysClock clock) {
+        this.clock = Objects.requireNonNull(clock);
+        initName(parent, path);
+        this.inode = new Inode(Objects.requireNonNull(securityDescriptor), clock.now());
 
         if (reparsePoint != null) {
-            this.reparseData = reparsePoint.getData();
-            this.reparseTag = reparsePoint.getTag();
-            fileAttributes.add(FileAttributes.FILE_ATTRIBUTE_REPARSE_POINT);
+            inode.reparseData = reparsePoint.getData();
+            inode.reparseTag = reparsePoint.getTag();
+            inode.fileAttributes = inode.fileAttributes.with(FileAttributes.FILE_ATTRIBUTE_REPARSE_POINT);
+        }
+    }
+
+    /**
+     * Creates a new name (hard link) for the given object. Both objects share everything but their path.
+     */
+    protected MemoryObj(DirObj parent, Path path, MemoryObj target) {
+        this.clock = target.clock;
+        initName(parent, path);
+        this.inode = target.inode;
+    }
+
+    // copy constructor, for snapshots (see NamespaceCopier)
+    MemoryObj(DirObj parent, MemoryObj source, NamespaceCopier copier) {
+        this.clock = source.clock;
+        this.parent = parent;
+        this.name = source.name;
+        this.path = parent == null ? source.path : null;
+        this.inode = copier.copyOf(source.inode);
+    }
+
+    private void initName(DirObj parent, Path path) {
+        Objects.requireNonNull(path);
+        this.parent = parent;
+        this.name = path.getNameCount() > 0 ? path.getFileName().toString() : null;
+        this.path = parent == null ? new DerivedPath(null, null, path) : null;
+    }
+
+    /**
+     * Returns an unlinked copy of this object under the given (copied) parent, for a snapshot of the file system.
+     */
+    abstract MemoryObj copy(MemoryObj parent, NamespaceCopier copier);
+
+    /**
+     * Copies the named streams of the given object to this copy of it, unless another name of the same file
+     * already got them.
+     */
+    final void copyNamedStreams(MemoryObj source, NamespaceCopier copier) {
+        if (inode.namedStreams != null)
+            return;
+
+        for (NamedStream stream : source.getNamedStreams())
+            putNamedStream(stream.copy(this, copier));
+    }
+
+    /**
+     * The path of this object, derived from the path of its parent. The derived path is kept until the path of the
+     * parent (or the name of this object) changes, so this normally only compares a reference per ancestor.
+     */
+    public Path getPath() {
+        DirObj parent = this.parent;
+        DerivedPath path = this.path;
+        if (parent == null)
+            return path.path;
+
+        Path parentPath = parent.getPath();
+        String name = this.name;
+        if (path == null || path.parentPath != parentPath || path.name != name) {
+            path = new DerivedPath(parentPath, name, parentPath.resolve(name));
+            this.path = path;
+        }
+        return path.path;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Moves this object to the given parent, under the given name. Only the namespace (see {@link Namespace})
+     * should call this.
+     */
+    final void setName(DirObj parent, String name) {
+        this.parent = Objects.requireNonNull(parent);
+        this.name = Objects.requireNonNull(name);
+    }
+
+    /**
+     * Whether this object is currently part of the file system namespace.
+     */
+    public final boolean isLinked() {
+        return linked;
+    }
+
+    final void setLinked(boolean linked) {
+        if (this.linked != linked) {
+            this.linked = linked;
+            inode.linkCount += linked ? 1 : -1;
         }
     }
 
-    public final Path getPath() {
-        return path;
+    /**
+     * The number of linked names (hard links) of this object.
+     */
+    public final int getHardLinks() {
+        return inode.linkCount;
     }
 
-    public final String getName() {
-        return path.getNameCount() > 0 ? path.getFileName().toString() : null;
+    /**
+     * Whether the given object is another name (hard link) of this object, or this object itself.
+     */
+    public final boolean isSameFile(MemoryObj other) {
+        return inode == other.inode;
     }
 
-    public final void setPath(Path path) {
-        this.path = Objects.requireNonNull(path);
+    public final WinSysClock getClock() {
+        return clock;
     }
 
-    public final MemoryObj getParent() {
+    /**
+     * The directory containing this object (which it stays attached to once deleted), or null for the root
+     * directory and named streams.
+     */
+    public final DirObj getParent() {
         return parent;
     }
 
-    public final Set<FileAttributes> getFileAttributes() {
-        return fileAttributes;
+    public final IntFlags<FileAttributes> getFileAttributes() {
+        return inode.fileAttributes;
+    }
+
+    public final void setFileAttributes(IntFlags<FileAttributes> fileAttributes) {
+        inode.fileAttributes = Objects.requireNonNull(fileAttributes);
     }
 
     public final byte[] getSecurityDescriptor() {
-        return securityDescriptor;
+        return inode.securityDescriptor;
     }
 
     public final void setSecurityDescriptor(byte[] securityDescriptor) {
-        this.securityDescriptor = Objects.requireNonNull(securityDescriptor);
+        inode.securityDescriptor = Objects.requireNonNull(securityDescriptor);
     }
 
     public final byte[] getReparseData() {
-        return reparseData;
+        return inode.reparseData;
     }
 
     public final void setReparseData(byte[] reparseData) {
-        this.reparseData = reparseData;
+        inode.reparseData = reparseData;
     }
 
     public final int getReparseTag() {
-        return reparseTag;
+        return inode.reparseTag;
     }
 
     public final void setReparseTag(int reparseTag) {
-        this.reparseTag = reparseTag;
+        inode.reparseTag = reparseTag;
+    }
+
+    public final ExtendedAttributes getExtendedAttributes() {
+        return inode.extendedAttributes;
+    }
+
+    public final void setExtendedAttributes(ExtendedAttributes extendedAttributes) {
+        inode.extendedAttributes = Objects.requireNonNull(extendedAttributes);
+    }
+
+    public final NamedStream getNamedStream(String streamName) {
+        return inode.namedStreams != null ? inode.namedStreams.get(streamName) : null;
     }
 
-    public final void setCreationTime(WinSysTime time) {
-        this.creationTime = Objects.requireNonNull(time);
+    public final Collection<NamedStream> getNamedStreams() {
+        return inode.namedStreams != null ? inode.namedStreams.values() : List.of();
     }
 
-    public final void setAccessTime(WinSysTime time) {
-        this.lastAccessTime = Objects.requireNonNull(time);
+    public final void putNamedStream(NamedStream stream) {
+        if (inode.namedStreams == null)
+            inode.namedStreams = new LinkedHashMap<>();
+        inode.namedStreams.put(stream.getStreamName(), stream);
+        stream.setLinked(true);
     }
 
-    public final void setWriteTime(WinSysTime time) {
-        this.lastWriteTime = Objects.requireNonNull(time);
+    public final void removeNamedStream(NamedStream stream) {
+        if (inode.namedStreams != null && inode.namedStreams.remove(stream.getStreamName(), stream))
+            stream.setLinked(false);
     }
 
-    public final void setChangeTime(WinSysTime time) {
-        this.changeTime = Objects.requireNonNull(time);
+    public WinSysTime getCreationTime() {
+        return inode.creationTime;
+    }
+
+    public WinSysTime getLastAccessTime() {
+        return inode.lastAccessTime;
+    }
+
+    public WinSysTime getLastWriteTime() {
+        return inode.lastWriteTime;
+    }
+
+    public WinSysTime getChangeTime() {
+        return inode.changeTime;
+    }
+
+    public void setCreationTime(WinSysTime time) {
+        inode.creationTime = Objects.requireNonNull(time);
+    }
+
+    public void setAccessTime(WinSysTime time) {
+        inode.lastAccessTime = Objects.requireNonNull(time);
+    }
+
+    public void setWriteTime(WinSysTime time) {
+        inode.lastWriteTime = Objects.requireNonNull(time);
+    }
+
+    public void setChangeTime(WinSysTime time) {
+        inode.changeTime = Objects.requireNonNull(time);
+    }
+
+    public final long getIndexNumber() {
+        return inode.indexNumber;
     }
 
     public final void setIndexNumber(long indexNumber) {
-        this.indexNumber = indexNumber;
+        inode.indexNumber = indexNumber;
     }
 
     public abstract int getAllocationSize();
@@ -113,26 +263,28 @@ public abstract class MemoryObj {
     public abstract int getFileSize();
 
 
-    public final FileInfo generateFileInfo() {
+    public FileInfo generateFileInfo() {
         return generateFileInfo(getPath().toString());
     }
 
-    public final FileInfo generateFileInfo(String filePath) {
-        FileInfo res = new FileInfo(filePath);
-        res.getFileAttributes().addAll(fileAttributes);
+    public FileInfo generateFileInfo(String filePath) {
+        FileInfo res = new FileInfo(filePath, inode.creationTime);
+        inode.fileAttributes.addTo(res.getFileAttributes());
         res.setAllocationSize(getAllocationSize());
         res.setFileSize(getFileSize());
-        res.setCreationTime(creationTime);
-        res.setLastAccessTime(lastAccessTime);
-        res.setLastWriteTime(lastWriteTime);
-        res.setChangeTime(changeTime);
-        res.setReparseTag(reparseTag);
-        res.setIndexNumber(indexNumber);
+        res.setCreationTime(inode.creationTime);
+        res.setLastAccessTime(inode.lastAccessTime);
+        res.setLastWriteTime(inode.lastWriteTime);
+        res.setChangeTime(inode.changeTime);
+        res.setReparseTag(inode.reparseTag);
+        res.setEaSize(inode.extendedAttributes.getEaSize());
+        res.setIndexNumber(inode.indexNumber);
+        res.setHardLinks(inode.linkCount);
         return res;
     }
 
     public final void touch() {
-        WinSysTime now = WinSysTime.now();
+        WinSysTime now = clock.now();
         setAccessTime(now);
         setWriteTime(now);
         setChangeTime(now);
@@ -143,4 +295,16 @@ public abstract class MemoryObj {
         if (parent != null)
             parent.touch();
     }
+
+    private static final class DerivedPath {
+        final Path parentPath;
+        final String name;
+        final Path path;
+
+        DerivedPath(Path parentPath, String name, Path path) {
+            this.parentPath = parentPath;
+            this.name = name;
+            this.path = path;
+        }
+    }
 }
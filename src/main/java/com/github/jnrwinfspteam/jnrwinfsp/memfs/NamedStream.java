@@ -0,0 +1,118 @@
+package com.github.jnrwinfspteam.jnrwinfsp.memfs;
+
+import com.github.jnrwinfspteam.jnrwinfsp.api.FileAttributes;
+import com.github.jnrwinfspteam.jnrwinfsp.api.FileInfo;
+import com.github.jnrwinfspteam.jnrwinfsp.api.WinSysClock;
+import com.github.jnrwinfspteam.jnrwinfsp.api.WinSysTime;
+
+import java.nio.file.Path;
+import java.util.Objects;
+
+/**
+ * A named (alternate data) stream of a file or directory. Its contents are stored like the main stream of a file;
+ * everything else (attributes, times, security) belongs to the main object.
+ */
+public class NamedStream extends FileObj {
+    private final MemoryObj mainObj;
+    private final String streamName;
+
+    public NamedStream(MemoryObj mainObj, String streamName, WinSysClock clock) {
+        this(mainObj, streamName, clock, new ArrayFileData());
+    }
+
+    NamedStream(MemoryObj mainObj, String streamName, WinSysClock clock, FileData data) {
+        super(null, mainObj.getPath(), mainObj.getSecurityDescriptor(), null, clock, data);
+        this.mainObj = Objects.requireNonNull(mainObj);
+        this.streamName = Objects.requireNonNull(streamName);
+    }
+
+    private NamedStream(MemoryObj mainObj, NamedStream source, NamespaceCopier copier) {
+        super(null, source, copier);
+        this.mainObj = mainObj;
+        this.streamName = source.streamName;
+    }
+
+    /**
+     * Returns an unlinked copy of this stream for the given (copied) main object.
+     */
+    @Override
+    NamedStream copy(MemoryObj mainObj, NamespaceCopier copier) {
+        return new NamedStream(mainObj, this, copier);
+    }
+
+    public MemoryObj getMainObj() {
+        return mainObj;
+    }
+
+    public String getStreamName() {
+        return streamName;
+    }
+
+    // the path and name of a stream are those of its main object
+
+    @Override
+    public Path getPath() {
+        return mainObj.getPath();
+    }
+
+    @Override
+    public String getName() {
+        return mainObj.getName();
+    }
+
+    // so are its times, which reading or writing the stream updates
+
+    @Override
+    public WinSysTime getCreationTime() {
+        return mainObj.getCreationTime();
+    }
+
+    @Override
+    public WinSysTime getLastAccessTime() {
+        return mainObj.getLastAccessTime();
+    }
+
+    @Override
+    public WinSysTime getLastWriteTime() {
+        return mainObj.getLastWriteTime();
+    }
+
+    @Override
+    public WinSysTime getChangeTime() {
+        return mainObj.getChangeTime();
+    }
+
+    @Override
+    public void setCreationTime(WinSysTime time) {
+        mainObj.setCreationTime(time);
+    }
+
+    @Override
+    public void setAccessTime(WinSysTime time) {
+        mainObj.setAccessTime(time);
+    }
+
+    @Override
+    public void setWriteTime(WinSysTime time) {
+        mainObj.setWriteTime(time);
+    }
+
+    @Override
+    public void setChangeTime(WinSysTime time) {
+        mainObj.setChangeTime(time);
+    }
+
+    @Override
+    public FileInfo generateFileInfo() {
+        return generateFileInfo(mainObj.getPath() + ":" + streamName);
+    }
+
+    @Override
+    public FileInfo generateFileInfo(String filePath) {
+        FileInfo res = mainObj.generateFileInfo(filePath);
+        res.getFileAttributes().remove(FileAttributes.FILE_ATTRIBUTE_DIRECTORY); // a stream is never a directory
+        res.setAllocationSize(getAllocationSize());
+        res.setFileSize(getFileSize());
+        return res;
+    }
+}
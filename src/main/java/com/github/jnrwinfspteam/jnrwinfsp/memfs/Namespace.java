@@ -0,0 +1,160 @@
+package com.github.jnrwinfspteam.jnrwinfsp.memfs;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * The tree of names of a file system: every directory holds its children by name, and every object its parent and
+ * name. Paths are resolved from the root, one name at a time, and derived from the parents (see
+ * {@link MemoryObj#getPath()}): moving a directory only relinks it, whatever the size of its subtree.
+ * <p>
+ * This class is not thread-safe: the file system accesses it under its lock (the namespace itself).
+ */
+final class Namespace {
+    private final DirObj root;
+    private int size;
+
+    /**
+     * @param root The root directory, which is linked
+     */
+    Namespace(DirObj root) {
+        this.root = Objects.requireNonNull(root);
+        this.size = 1;
+        root.setLinked(true);
+    }
+
+    DirObj getRoot() {
+        return root;
+    }
+
+    /**
+     * The number of files and directories (including the root directory).
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the object with the given (absolute, normalized) path, or null if there is none (or the path is null,
+     * e.g. the parent of the root).
+     */
+    MemoryObj get(Path path) {
+        if (path == null)
+            return null;
+
+        MemoryObj obj = root;
+        for (int i = 0, n = path.getNameCount(); i < n; i++) {
+            if (!(obj instanceof DirObj))
+                return null;
+
+            obj = ((DirObj) obj).getChild(path.getName(i).toString());
+            if (obj == null)
+                return null;
+        }
+
+        return obj;
+    }
+
+    boolean contains(Path path) {
+        return get(path) != null;
+    }
+
+    /**
+     * Links an object under its parent, which must not already have a child with the same name.
+     */
+    void put(MemoryObj obj) {
+        obj.getParent().putChild(obj);
+        obj.setLinked(true);
+        size++;
+    }
+
+    /**
+     * Unlinks an object from its parent. It stays attached to its parent, so that its path still is the one it had.
+     */
+    void remove(MemoryObj obj) {
+        if (obj.getParent() != null && obj.getParent().removeChild(obj)) {
+            obj.setLinked(false);
+            size--;
+        }
+    }
+
+    /**
+     * Unlinks an object and, if it is a directory, all its descendants at once. The subtree stays attached to the
+     * object, so the paths of its objects still are the ones they had.
+     *
+     * @return The unlinked objects, parents first
+     */
+    List<MemoryObj> removeTree(MemoryObj top) {
+        List<MemoryObj> removed = new ArrayList<>();
+        if (top.getParent() == null || !top.getParent().removeChild(top))
+            return removed;
+
+        forEach(top, removed::add);
+        for (MemoryObj obj : removed)
+            obj.setLinked(false);
+        size -= removed.size();
+        return removed;
+    }
+
+    /**
+     * Moves a linked object (with its subtree, if it is a directory) to another parent and name, under which there
+     * must be no other object.
+     */
+    void move(MemoryObj obj, DirObj newParent, String newName) {
+        obj.getParent().removeChild(obj);
+        obj.setName(newParent, newName);
+        newParent.putChild(obj);
+    }
+
+    /**
+     * Whether an object is the given directory or one of its descendants.
+     */
+    static boolean isInSubtree(MemoryObj obj, DirObj dir) {
+        for (MemoryObj o = obj; o != null; o = o.getParent()) {
+            if (o == dir)
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Frees the contents of all the files and named streams (see {@link FileObj#release()}).
+     */
+    void releaseContents() {
+        forEach(obj -> {
+            if (obj instanceof FileObj)
+                ((FileObj) obj).release();
+            for (NamedStream stream : obj.getNamedStreams())
+                stream.release();
+        });
+    }
+
+    /**
+     * Applies an action to every object, parents first.
+     */
+    void forEach(Consumer<MemoryObj> action) {
+        forEach(root, action);
+    }
+
+    /**
+     * Applies an action to an object and to its descendants, parents first.
+     */
+    static void forEach(MemoryObj top, Consumer<MemoryObj> action) {
+        Deque<MemoryObj> pending = new ArrayDeque<>();
+        pending.push(top);
+        while (!pending.isEmpty()) {
+            MemoryObj obj = pending.pop();
+            action.accept(obj);
+            if (obj instanceof DirObj) {
+                for (MemoryObj child : ((DirObj) obj).getChildren())
+                    pending.push(child);
+            }
+        }
+    }
+}
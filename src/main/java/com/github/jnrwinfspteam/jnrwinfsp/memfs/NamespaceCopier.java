@@ -0,0 +1,44 @@
+package com.github.jnrwinfspteam.jnrwinfsp.memfs;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Copies the namespace of a file system, for snapshots. Every object and inode is copied (so the copy can be
+ * modified independently), names of the same file are copied to names of the same copied file, and file contents
+ * are shared copy-on-write (see {@link FileData#snapshot()}).
+ */
+final class NamespaceCopier {
+    private final Map<MemoryObj, MemoryObj> objects = new IdentityHashMap<>();
+    private final Map<Inode, Inode> inodes = new IdentityHashMap<>();
+    private final Map<FileData, FileData> contents = new IdentityHashMap<>();
+
+    /**
+     * Copies the given namespace. The copied objects are linked.
+     */
+    static Namespace copy(Namespace namespace) {
+        var copier = new NamespaceCopier();
+        var copy = new Namespace(namespace.getRoot().copy(null, copier));
+        copier.objects.put(namespace.getRoot(), copy.getRoot());
+
+        // parents first
+        namespace.forEach(obj -> {
+            if (obj == namespace.getRoot())
+                return;
+
+            MemoryObj objCopy = obj.copy(copier.objects.get(obj.getParent()), copier);
+            copier.objects.put(obj, objCopy);
+            copy.put(objCopy);
+        });
+
+        return copy;
+    }
+
+    Inode copyOf(Inode inode) {
+        return inodes.computeIfAbsent(inode, Inode::copy);
+    }
+
+    FileData copyOf(FileData data) {
+        return contents.computeIfAbsent(data, FileData::snapshot);
+    }
+}
@@ -0,0 +1,82 @@
+package com.github.jnrwinfspteam.jnrwinfsp.memfs;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Mutual exclusion over ranges of bytes. A thread holding a range blocks every other thread that tries to lock
+ * an overlapping range, while threads locking disjoint ranges proceed concurrently. Shared ranges only block (and
+ * are only blocked by) the overlapping ranges that are not shared.
+ */
+final class RangeLock {
+
+    static final class Range {
+        private final long begin;
+        private final long end;
+        private final boolean shared;
+
+        private Range(long begin, long end, boolean shared) {
+            this.begin = begin;
+            this.end = end;
+            this.shared = shared;
+        }
+
+        private boolean conflicts(Range other) {
+            return begin < other.end && other.begin < end && !(shared && other.shared);
+        }
+    }
+
+    private final List<Range> held = new ArrayList<>();
+
+    /**
+     * Locks the range [begin, end), waiting until no overlapping range is held.
+     *
+     * @return a token to pass to {@link #unlock(Range)}
+     */
+    Range lock(long begin, long end) {
+        return acquire(new Range(begin, end, false));
+    }
+
+    /**
+     * Locks the range [begin, end) in shared mode, waiting until no overlapping range is held in exclusive mode.
+     *
+     * @return a token to pass to {@link #unlock(Range)}
+     */
+    Range lockShared(long begin, long end) {
+        return acquire(new Range(begin, end, true));
+    }
+
+    private Range acquire(Range range) {
+        boolean interrupted = false;
+
+        synchronized (this) {
+            while (isConflicting(range)) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            held.add(range);
+        }
+
+        if (interrupted)
+            Thread.currentThread().interrupt();
+
+        return range;
+    }
+
+    synchronized void unlock(Range range) {
+        held.remove(range);
+        notifyAll();
+    }
+
+    private boolean isConflicting(Range range) {
+        for (Range r : held) {
+            if (r.conflicts(range))
+                return true;
+        }
+
+        return false;
+    }
+}
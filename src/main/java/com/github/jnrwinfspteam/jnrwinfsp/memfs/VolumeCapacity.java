@@ -0,0 +1,148 @@
+package com.github.jnrwinfspteam.jnrwinfsp.memfs;
+
+import com.github.jnrwinfspteam.jnrwinfsp.api.NTStatusException;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Accounts for the space allocated to file contents, against the capacity of the volume and the quotas of its
+ * directories.
+ * <p>
+ * Allocated space is counted with {@link LongAdder}s, which concurrent writes update without contending on a single
+ * variable, and which can be read at any time without a lock (e.g. for the volume information). Limits are checked
+ * before an operation that can grow a content, and the actual change of its allocation is charged after it:
+ * concurrent operations can thus exceed a limit by the sizes they grow by.
+ * <p>
+ * A content is charged to the quotas of the directories containing one of the names of its file (normally the one
+ * it was created with, or last renamed to); named streams are charged like the main stream of their file. With
+ * deduplication, the space used on the volume is the memory actually used by the stored chunks, while quotas still
+ * count allocation sizes.
+ */
+final class VolumeCapacity {
+    static final DirectoryQuota[] NO_QUOTAS = new DirectoryQuota[0];
+
+    private final long totalSize;
+    private final ChunkStore chunkStore; // null unless deduplication is enabled
+    private final LongAdder allocatedBytes;
+
+    /**
+     * @param totalSize  The capacity of the volume, in bytes
+     * @param chunkStore The store of deduplicated contents, or null
+     */
+    VolumeCapacity(long totalSize, ChunkStore chunkStore) {
+        this.totalSize = totalSize;
+        this.chunkStore = chunkStore;
+        this.allocatedBytes = new LongAdder();
+    }
+
+    long getTotalSize() {
+        return totalSize;
+    }
+
+    long getUsedBytes() {
+        return chunkStore != null ? chunkStore.getUsedBytes() : allocatedBytes.sum();
+    }
+
+    long getFreeBytes() {
+        return Math.max(0, totalSize - getUsedBytes());
+    }
+
+    /**
+     * Checks that a content charged to the given quotas can grow by the given number of bytes.
+     *
+     * @throws NTStatusException STATUS_DISK_FULL if it would exceed the capacity of the volume or one of the quotas
+     */
+    void checkGrowth(DirectoryQuota[] quotas, long growth) throws NTStatusException {
+        if (growth <= 0)
+            return;
+
+        if (getUsedBytes() + growth > totalSize)
+            throw new NTStatusException(0xC000007F); // STATUS_DISK_FULL
+        for (DirectoryQuota quota : quotas) {
+            if (quota.usedBytes.sum() + growth > quota.limit)
+                throw new NTStatusException(0xC000007F); // STATUS_DISK_FULL
+        }
+    }
+
+    /**
+     * Starts charging a content to this volume and the given quotas.
+     */
+    void track(Charge charge, long allocationSize, DirectoryQuota[] quotas) {
+        synchronized (charge) {
+            if (charge.capacity != null)
+                return; // another name of the same content
+
+            charge.capacity = this;
+            charge.quotas = quotas;
+            charge.bytes = allocationSize;
+            add(allocationSize, quotas);
+        }
+    }
+
+    private void add(long bytes, DirectoryQuota[] quotas) {
+        allocatedBytes.add(bytes);
+        for (DirectoryQuota quota : quotas)
+            quota.usedBytes.add(bytes);
+    }
+
+    /**
+     * The limit of the space allocated to the contents in a directory and its subdirectories.
+     */
+    static final class DirectoryQuota {
+        final long limit;
+        private final LongAdder usedBytes;
+
+        DirectoryQuota(long limit) {
+            this.limit = limit;
+            this.usedBytes = new LongAdder();
+        }
+
+        long getUsedBytes() {
+            return usedBytes.sum();
+        }
+    }
+
+    /**
+     * The space charged for a content, which is shared by all the names of its file.
+     */
+    static final class Charge {
+        private volatile VolumeCapacity capacity; // null until the content is tracked (see VolumeCapacity#track)
+        private volatile DirectoryQuota[] quotas = NO_QUOTAS;
+        private volatile long bytes;
+
+        DirectoryQuota[] getQuotas() {
+            return quotas;
+        }
+
+        /**
+         * Charges the difference between the given allocation size of the content and the one charged so far.
+         */
+        void update(long allocationSize) {
+            if (capacity == null || allocationSize == bytes)
+                return;
+
+            synchronized (this) {
+                VolumeCapacity c = capacity;
+                if (c != null) {
+                    c.add(allocationSize - bytes, quotas);
+                    this.bytes = allocationSize;
+                }
+            }
+        }
+
+        /**
+         * Moves the charge of the content to other quotas (e.g. after a rename).
+         */
+        synchronized void setQuotas(DirectoryQuota[] newQuotas) {
+            if (capacity == null || Arrays.equals(quotas, newQuotas))
+                return;
+
+            for (DirectoryQuota quota : quotas)
+                quota.usedBytes.add(-bytes);
+            for (DirectoryQuota quota : newQuotas)
+                quota.usedBytes.add(bytes);
+            this.quotas = newQuotas;
+        }
+    }
+}
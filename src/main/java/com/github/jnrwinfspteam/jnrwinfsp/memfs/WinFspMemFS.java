@@ -6,17 +6,28 @@ import com.github.jnrwinfspteam.jnrwinfsp.service.ServiceRunner;
 import com.github.jnrwinfspteam.jnrwinfsp.util.NaturalOrderComparator;
 import jnr.ffi.Pointer;
 
+import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
+import java.util.zip.Deflater;
 
 /**
  * A simple in-memory file system.
+ * <p>
+ * If any background task or persistence is enabled in its {@link MemFSOptions options}, the file system should be
+ * closed after it is unmounted.
  */
-public class WinFspMemFS extends WinFspStubFS {
+public class WinFspMemFS extends WinFspStubFS implements AutoCloseable {
     public static void main(String[] args) throws NTStatusException, ServiceException {
         Path mountPoint = null;
         if (args.length > 0)
@@ -49,15 +60,28 @@ public class WinFspMemFS extends WinFspStubFS {
 
     private static final String ROOT_SECURITY_DESCRIPTOR = "O:BAG:BAD:PAR(A;OICI;FA;;;SY)(A;OICI;FA;;;BA)(A;OICI;FA;;;WD)";
     private static final Comparator<String> NATURAL_ORDER = new NaturalOrderComparator();
-    private static final long MAX_FILE_NODES = 10240;
-    private static final long MAX_FILE_SIZE = 16 * 1024 * 1024;
+    private static final long MAX_FILE_SIZE = Integer.MAX_VALUE - 1023; // contents are arrays, in allocation units
+    private static final int MAX_HARD_LINKS = 1024;
+    private static final long JOURNAL_COMMIT_INTERVAL_MILLIS = 10;
+    private static final long CHECKPOINT_CHECK_INTERVAL_MILLIS = 1000;
 
+    private final WinSysClock clock;
+    private final AccessTimePolicy accessTimePolicy;
     private final Path rootPath;
-    private final Map<String, MemoryObj> objects;
-    private final AtomicLong nextFileHandle;
-
-    private long nextIndexNumber;
-    private String volumeLabel;
+    private final Namespace objects; // also the file system lock
+    private final ChunkStore chunkStore; // null unless deduplication is enabled
+    private final VolumeCapacity capacity;
+    private final ScheduledExecutorService compactor; // null unless compression is enabled
+    private final Deflater deflater; // only used by the compactor thread
+    private final MemFSJournal journal; // null unless persistence is enabled (and the file system is writable)
+    private final ScheduledExecutorService journalWriter; // null unless there is a journal
+    private final ContentReclaimer reclaimer;
+    private final IdAllocator fileHandles;
+    private final IdAllocator indexNumbers;
+    private final boolean readOnly;
+
+    private volatile String volumeLabel; // also read without the lock, for the volume information
+    private int quotaCount; // number of directories with a quota
 
     private final PrintStream verboseOut;
 
@@ -66,37 +90,273 @@ public class WinFspMemFS extends WinFspStubFS {
     }
 
     public WinFspMemFS(boolean verbose) throws NTStatusException {
-        this.rootPath = Path.of("\\").normalize();
-        this.objects = new HashMap<>();
-        this.objects.put(rootPath.toString(), new DirObj(
-                null,
-                rootPath,
-                SecurityDescriptorHandler.securityDescriptorToBytes(ROOT_SECURITY_DESCRIPTOR),
-                null
-        ));
-        this.nextFileHandle = new AtomicLong(0);
-
-        this.nextIndexNumber = 1L;
-        this.volumeLabel = "MemFS";
+        this(verbose, new MemFSOptions());
+    }
+
+    public WinFspMemFS(boolean verbose, MemFSOptions options) throws NTStatusException {
+        this(verbose, options, null, false);
+    }
 
+    /**
+     * Creates a file system from a snapshot of another one. The new file system starts with the files of the
+     * snapshot, and its changes are not visible in the snapshot (or in other file systems created from it).
+     * Creating it copies the metadata of the files, but not their contents.
+     *
+     * @param snapshot The snapshot
+     * @param readOnly Whether the file system is read-only; if so, it should be mounted with
+     *                 {@link MountOptions#setReadOnly(boolean)}
+     * @param verbose  Whether to print every operation
+     * @param options  The options of the new file system (the contents of the snapshot keep the storage they had,
+     *                 e.g. with or without deduplication)
+     */
+    public WinFspMemFS(MemFSSnapshot snapshot, boolean readOnly, boolean verbose, MemFSOptions options)
+            throws NTStatusException {
+        this(verbose, options, Objects.requireNonNull(snapshot), readOnly);
+    }
+
+    private WinFspMemFS(boolean verbose, MemFSOptions options, MemFSSnapshot snapshot, boolean readOnly)
+            throws NTStatusException {
+        this.clock = options.getClock();
+        this.accessTimePolicy = options.getAccessTimePolicy();
+        this.rootPath = Path.of("\\").normalize();
+        this.readOnly = readOnly;
+        this.fileHandles = new IdAllocator(1L, 1024, true);
+        this.indexNumbers = new IdAllocator(1L, 64, false);
         this.verboseOut = verbose ? System.out : new PrintStream(OutputStream.nullOutputStream());
+
+        Path persistenceDirectory = options.getPersistenceDirectory();
+        if (persistenceDirectory != null && snapshot != null)
+            throw new IllegalArgumentException("A file system created from a snapshot cannot be persistent");
+
+        // forks of a deduplicated volume keep sharing its chunks
+        if (options.hasDeduplication())
+            this.chunkStore = snapshot != null && snapshot.chunkStore != null ? snapshot.chunkStore : new ChunkStore();
+        else
+            this.chunkStore = null;
+        this.capacity = new VolumeCapacity(options.getCapacity(), chunkStore);
+        this.reclaimer = new ContentReclaimer();
+
+        if (snapshot == null) {
+            this.objects = new Namespace(new DirObj(
+                    null,
+                    rootPath,
+                    SecurityDescriptorHandler.securityDescriptorToBytes(ROOT_SECURITY_DESCRIPTOR),
+                    null,
+                    clock
+            ));
+            this.volumeLabel = "MemFS";
+        } else {
+            synchronized (snapshot) {
+                if (snapshot.isReleased())
+                    throw new IllegalArgumentException("The snapshot was released");
+                this.objects = NamespaceCopier.copy(snapshot.objects);
+            }
+            indexNumbers.advanceTo(snapshot.nextIndexNumber);
+            this.volumeLabel = snapshot.getVolumeLabel();
+        }
+
+        if (persistenceDirectory != null) {
+            long start = System.nanoTime();
+            var replay = new JournalReplay(objects, clock, this::newFileData);
+            try {
+                this.journal = MemFSJournal.open(persistenceDirectory, replay, readOnly);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            indexNumbers.advanceTo(replay.getNextIndexNumber());
+            if (replay.getVolumeLabel() != null)
+                this.volumeLabel = replay.getVolumeLabel();
+            verboseOut.printf("== RECOVERED == %d objects in %d ms%n",
+                    objects.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+            // a new volume starts with a checkpoint, which records its root directory
+            if (journal != null && !journal.hasCheckpoint()) {
+                try {
+                    checkpoint();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        } else {
+            this.journal = null;
+        }
+
+        // the contents copied from the snapshot or recovered
+        synchronized (objects) {
+            trackContents();
+        }
+
+        // started once the files are recovered, which is done without the file system lock
+        Duration compressionDelay = options.getCompressionDelay();
+        if (compressionDelay != null) {
+            long delayMillis = Math.max(1, compressionDelay.toMillis());
+            this.deflater = new Deflater(Deflater.BEST_SPEED);
+            this.compactor = new ScheduledThreadPoolExecutor(1, r -> {
+                Thread t = new Thread(r, "WinFspMemFS-compactor");
+                t.setDaemon(true);
+                return t;
+            });
+            compactor.scheduleWithFixedDelay(this::compressColdFiles, delayMillis, delayMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.deflater = null;
+            this.compactor = null;
+        }
+
+        if (journal != null) {
+            this.journalWriter = new ScheduledThreadPoolExecutor(2, r -> {
+                Thread t = new Thread(r, "WinFspMemFS-journal");
+                t.setDaemon(true);
+                return t;
+            });
+            journalWriter.scheduleWithFixedDelay(this::groupCommit,
+                    JOURNAL_COMMIT_INTERVAL_MILLIS, JOURNAL_COMMIT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            journalWriter.scheduleWithFixedDelay(this::checkpointIfNeeded,
+                    CHECKPOINT_CHECK_INTERVAL_MILLIS, CHECKPOINT_CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        } else {
+            this.journalWriter = null;
+        }
+    }
+
+    /**
+     * Takes a point-in-time snapshot of this file system, from which new file systems can be created (see
+     * {@link #WinFspMemFS(MemFSSnapshot, boolean, boolean, MemFSOptions)}).
+     * <p>
+     * The metadata of every file is copied (which takes a few milliseconds for thousands of files), while file
+     * contents are shared copy-on-write: neither the snapshot nor this file system copy any content until it is
+     * modified. The snapshot must be {@link MemFSSnapshot#release() released} once it is no longer needed.
+     */
+    public MemFSSnapshot snapshot() {
+        verboseOut.println("== SNAPSHOT ==");
+        synchronized (objects) {
+            return takeSnapshot();
+        }
+    }
+
+    // must be called while holding the file system lock
+    private MemFSSnapshot takeSnapshot() {
+        return new MemFSSnapshot(
+                NamespaceCopier.copy(objects),
+                chunkStore,
+                indexNumbers.getLimit(),
+                volumeLabel,
+                clock.now()
+        );
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Writes the whole file system to the given channel, as an archive that can be loaded with
+     * {@link #importArchive}: the namespace, hard links, named streams and contents, and all the metadata (attributes,
+     * security descriptors, reparse data, extended attributes and times).
+     * <p>
+     * The archive is written from a {@link #snapshot() snapshot}, so the file system can be used meanwhile. Contents
+     * are written to the channel straight from memory, with gathering writes if the channel supports them.
+     */
+    public void exportArchive(WritableByteChannel channel) throws IOException {
+        verboseOut.println("== EXPORT ARCHIVE ==");
+        MemFSSnapshot snapshot;
+        synchronized (objects) {
+            snapshot = takeSnapshot();
+        }
+
+        MemFSArchive.writeArchive(snapshot, channel);
+    }
+
+    /**
+     * Loads the files of an archive written by {@link #exportArchive} into this file system, which must be empty
+     * (i.e. only contain its root directory), typically before it is mounted. The root directory, the volume label
+     * and the index numbers of the files are those of the archive. The channel is not closed.
+     *
+     * @throws IllegalStateException If the file system is read-only or not empty
+     */
+    public void importArchive(ReadableByteChannel channel) throws IOException {
+        verboseOut.println("== IMPORT ARCHIVE ==");
+        if (readOnly)
+            throw new IllegalStateException("The file system is read-only");
+
+        long start = System.nanoTime();
+        synchronized (objects) {
+            if (objects.size() > 1)
+                throw new IllegalStateException("The file system is not empty");
+
+            var replay = new JournalReplay(objects, clock, this::newFileData);
+            MemFSArchive.readArchive(channel, replay);
+            indexNumbers.advanceTo(replay.getNextIndexNumber());
+            if (replay.getVolumeLabel() != null)
+                this.volumeLabel = replay.getVolumeLabel();
+            trackContents();
+        }
+        publishVolumeInfo(generateVolumeInfo());
+        verboseOut.printf("== ARCHIVE IMPORTED == %d objects in %d ms%n",
+                objects.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        // the imported files are not in the journal
+        if (journal != null)
+            checkpoint();
+    }
+
+    /**
+     * Stops the background tasks of this file system, if any, and frees its contents (which may share storage with
+     * snapshots). If the file system is persistent, this also writes a checkpoint of it and closes its journal. The
+     * file system cannot be used afterwards.
+     */
+    @Override
+    public void close() {
+        reclaimer.close();
+
+        if (compactor != null) {
+            compactor.shutdownNow();
+            awaitTermination(compactor);
+            deflater.end();
+        }
+
+        try {
+            if (journal != null) {
+                journalWriter.shutdownNow();
+                awaitTermination(journalWriter);
+                try {
+                    if (!journal.hasFailed() && journal.hasChangesSinceCheckpoint())
+                        checkpoint();
+                } finally {
+                    journal.close();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            synchronized (objects) {
+                objects.releaseContents();
+            }
+        }
+    }
+
+    private static void awaitTermination(ScheduledExecutorService executor) {
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     @Override
     public VolumeInfo getVolumeInfo() {
 
         verboseOut.println("== GET VOLUME INFO ==");
-        synchronized (objects) {
-            return generateVolumeInfo();
-        }
+        return generateVolumeInfo();
     }
 
     @Override
-    public VolumeInfo setVolumeLabel(String volumeLabel) {
+    public VolumeInfo setVolumeLabel(String volumeLabel) throws NTStatusException {
 
         verboseOut.printf("== SET VOLUME LABEL == %s%n", volumeLabel);
+        checkWritable();
         synchronized (objects) {
             this.volumeLabel = volumeLabel;
+            if (journal != null)
+                journal.logVolumeLabel(volumeLabel);
             return generateVolumeInfo();
         }
     }
@@ -105,112 +365,192 @@ public class WinFspMemFS extends WinFspStubFS {
     public Optional<SecurityResult> getSecurityByName(String fileName) throws NTStatusException {
         verboseOut.printf("== GET SECURITY BY NAME == %s%n", fileName);
         synchronized (objects) {
-            Path filePath = getPath(fileName);
+            StreamName name = StreamName.parse(fileName);
+            Path filePath = getPath(name.mainName);
             if (!hasObject(filePath))
                 return Optional.empty();
 
-            MemoryObj obj = getObject(filePath);
-            byte[] securityDescriptor = obj.getSecurityDescriptor();
+            MemoryObj mainObj = getObject(filePath);
+            MemoryObj obj = name.streamName != null ? mainObj.getNamedStream(name.streamName) : mainObj;
+            if (obj == null)
+                return Optional.empty();
+
+            byte[] securityDescriptor = mainObj.getSecurityDescriptor();
             FileInfo info = obj.generateFileInfo();
             verboseOut.printf("== GET SECURITY BY NAME RETURNED == %s %s%n",
                     SecurityDescriptorHandler.securityDescriptorToString(securityDescriptor), info);
 
-            return Optional.of(new SecurityResult(securityDescriptor, EnumSet.copyOf(obj.getFileAttributes())));
+            return Optional.of(new SecurityResult(
+                    securityDescriptor,
+                    mainObj.getFileAttributes(),
+                    obj
+            ));
         }
     }
 
     @Override
     public OpenResult create(String fileName,
-                             Set<CreateOptions> createOptions,
+                             IntFlags<CreateOptions> createOptions,
                              int grantedAccess,
-                             Set<FileAttributes> fileAttributes,
+                             IntFlags<FileAttributes> fileAttributes,
                              byte[] securityDescriptor,
                              long allocationSize,
-                             ReparsePoint reparsePoint) throws NTStatusException {
+                             ReparsePoint reparsePoint,
+                             ExtendedAttributes extendedAttributes,
+                             Object resolvedParent) throws NTStatusException {
 
-        verboseOut.printf("== CREATE == %s co=%s ga=%X fa=%s sd=%s as=%d rp=%s%n",
+        verboseOut.printf("== CREATE == %s co=%s ga=%X fa=%s sd=%s as=%d rp=%s ea=%s%n",
                 fileName, createOptions, grantedAccess, fileAttributes,
-                SecurityDescriptorHandler.securityDescriptorToString(securityDescriptor), allocationSize, reparsePoint
+                SecurityDescriptorHandler.securityDescriptorToString(securityDescriptor), allocationSize, reparsePoint,
+                extendedAttributes
         );
+        checkWritable();
         synchronized (objects) {
-            Path filePath = getPath(fileName);
+            StreamName name = StreamName.parse(fileName);
+            if (name.streamName != null)
+                return createNamedStream(name, createOptions, allocationSize);
+
+            Path filePath = getPath(name.mainName);
 
             // Check for duplicate file/folder
             if (hasObject(filePath))
                 throw new NTStatusException(0xC0000035); // STATUS_OBJECT_NAME_COLLISION
 
             // Ensure the parent object exists and is a directory
-            DirObj parent = getParentObject(filePath);
+            DirObj parent;
+            if (resolvedParent instanceof DirObj && isResolved((DirObj) resolvedParent, filePath.getParent()))
+                parent = (DirObj) resolvedParent;
+            else
+                parent = getParentObject(filePath);
 
-            if (objects.size() >= MAX_FILE_NODES)
-                throw new NTStatusException(0xC00002EA); // STATUS_CANNOT_MAKE
+            VolumeCapacity.DirectoryQuota[] quotas = getQuotas(parent);
             if (allocationSize > MAX_FILE_SIZE)
                 throw new NTStatusException(0xC000007F); // STATUS_DISK_FULL
+            capacity.checkGrowth(quotas, allocationSize);
 
             MemoryObj obj;
             if (createOptions.contains(CreateOptions.FILE_DIRECTORY_FILE))
-                obj = new DirObj(parent, filePath, securityDescriptor, reparsePoint);
+                obj = new DirObj(parent, filePath, securityDescriptor, reparsePoint, clock);
             else {
-                var file = new FileObj(parent, filePath, securityDescriptor, reparsePoint);
+                var file = new FileObj(parent, filePath, securityDescriptor, reparsePoint, clock, newFileData());
+                capacity.track(file.getCharge(), 0, quotas);
                 file.setAllocationSize(Math.toIntExact(allocationSize));
                 obj = file;
             }
 
-            obj.getFileAttributes().addAll(fileAttributes);
-            obj.setIndexNumber(nextIndexNumber++);
+            obj.setFileAttributes(obj.getFileAttributes().withAll(fileAttributes));
+            obj.setExtendedAttributes(extendedAttributes);
+            obj.setIndexNumber(indexNumbers.next());
             putObject(obj);
 
+            if (journal != null) {
+                journal.logCreate(getPathKey(filePath), obj, clock.now());
+                if (obj instanceof FileObj)
+                    journal.logResize((FileObj) obj, MemFSJournal.SET_ALLOCATION_SIZE, Math.toIntExact(allocationSize));
+            }
+
             long fh = getNextFileHandle();
             FileInfo info = obj.generateFileInfo();
             verboseOut.printf("== CREATE RETURNED == %d - %s%n", fh, info);
 
-            return new OpenResult(fh, info);
+            return new OpenResult(fh, info, obj);
         }
     }
 
+    private OpenResult createNamedStream(StreamName name,
+                                         IntFlags<CreateOptions> createOptions,
+                                         long allocationSize) throws NTStatusException {
+
+        MemoryObj mainObj = getObject(getPath(name.mainName));
+
+        if (createOptions.contains(CreateOptions.FILE_DIRECTORY_FILE))
+            throw new NTStatusException(0xC000000D); // STATUS_INVALID_PARAMETER
+        if (mainObj.getNamedStream(name.streamName) != null)
+            throw new NTStatusException(0xC0000035); // STATUS_OBJECT_NAME_COLLISION
+        VolumeCapacity.DirectoryQuota[] quotas = getContentQuotas(mainObj);
+        if (allocationSize > MAX_FILE_SIZE)
+            throw new NTStatusException(0xC000007F); // STATUS_DISK_FULL
+        capacity.checkGrowth(quotas, allocationSize);
+
+        var stream = new NamedStream(mainObj, name.streamName, clock, newFileData());
+        capacity.track(stream.getCharge(), 0, quotas);
+        stream.setAllocationSize(Math.toIntExact(allocationSize));
+        mainObj.putNamedStream(stream);
+
+        if (journal != null) {
+            journal.logCreateStream(stream);
+            journal.logResize(stream, MemFSJournal.SET_ALLOCATION_SIZE, Math.toIntExact(allocationSize));
+        }
+
+        long fh = getNextFileHandle();
+        FileInfo info = stream.generateFileInfo();
+        verboseOut.printf("== CREATE RETURNED == %d - %s%n", fh, info);
+
+        return new OpenResult(fh, info, stream);
+    }
+
     @Override
     public OpenResult open(String fileName,
-                           Set<CreateOptions> createOptions,
-                           int grantedAccess) throws NTStatusException {
+                           IntFlags<CreateOptions> createOptions,
+                           int grantedAccess,
+                           Object resolvedNode) throws NTStatusException {
 
         verboseOut.printf("== OPEN == %s co=%s ga=%X%n", fileName, createOptions, grantedAccess);
         synchronized (objects) {
-            Path filePath = getPath(fileName);
-            MemoryObj obj = getObject(filePath);
+            MemoryObj obj = resolvedNode instanceof MemoryObj && isResolved((MemoryObj) resolvedNode, fileName)
+                    ? (MemoryObj) resolvedNode
+                    : getObject(StreamName.parse(fileName));
 
             long fh = getNextFileHandle();
             FileInfo info = obj.generateFileInfo();
             verboseOut.printf("== OPEN RETURNED == %d - %s%n", fh, info);
 
-            return new OpenResult(fh, info);
+            return new OpenResult(fh, info, obj);
         }
     }
 
     @Override
     public FileInfo overwrite(OpenContext ctx,
-                              Set<FileAttributes> fileAttributes,
+                              IntFlags<FileAttributes> fileAttributes,
                               boolean replaceFileAttributes,
-                              long allocationSize) throws NTStatusException {
+                              long allocationSize,
+                              ExtendedAttributes extendedAttributes) throws NTStatusException {
 
-        verboseOut.printf("== OVERWRITE == %s fa=%s replaceFA=%s as=%d%n",
-                ctx.getPath(), fileAttributes, replaceFileAttributes, allocationSize
+        verboseOut.printf("== OVERWRITE == %s fa=%s replaceFA=%s as=%d ea=%s%n",
+                ctx.getPath(), fileAttributes, replaceFileAttributes, allocationSize, extendedAttributes
         );
+        checkWritable();
         synchronized (objects) {
-            Path filePath = getPath(ctx.getPath());
-            FileObj file = getFileObject(filePath);
-
-            fileAttributes.add(FileAttributes.FILE_ATTRIBUTE_ARCHIVE);
-            if (replaceFileAttributes)
-                file.getFileAttributes().clear();
-            file.getFileAttributes().addAll(fileAttributes);
+            FileObj file = getFileObject(ctx);
+            checkNotDeleted(file);
+            MemoryObj mainObj = getMainObject(file);
+            checkGrowth(file, allocationSize);
+
+            // overwriting a named stream leaves the attributes of its file alone
+            if (mainObj == file) {
+                IntFlags<FileAttributes> newAttributes = fileAttributes.with(FileAttributes.FILE_ATTRIBUTE_ARCHIVE);
+                file.setFileAttributes(replaceFileAttributes
+                        ? newAttributes
+                        : file.getFileAttributes().withAll(newAttributes));
+
+                file.setExtendedAttributes(extendedAttributes);
+            }
 
-            file.setAllocationSize(Math.toIntExact(allocationSize));
-            file.setFileSize(0);
+            synchronized (file) { // see write
+                file.setAllocationSize(Math.toIntExact(allocationSize));
+                file.setFileSize(0);
+                if (journal != null) {
+                    journal.logResize(file, MemFSJournal.SET_ALLOCATION_SIZE, Math.toIntExact(allocationSize));
+                    journal.logResize(file, MemFSJournal.SET_FILE_SIZE, 0);
+                }
+            }
 
-            WinSysTime now = WinSysTime.now();
-            file.setAccessTime(now);
-            file.setWriteTime(now);
-            file.setChangeTime(now);
+            WinSysTime now = clock.now();
+            mainObj.setAccessTime(now);
+            mainObj.setWriteTime(now);
+            mainObj.setChangeTime(now);
+            if (journal != null)
+                journal.logMetadata(mainObj);
 
             FileInfo info = file.generateFileInfo();
             verboseOut.printf("== OVERWRITE RETURNED == %s%n", info);
@@ -220,35 +560,69 @@ public class WinFspMemFS extends WinFspStubFS {
     }
 
     @Override
-    public void cleanup(OpenContext ctx, Set<CleanupFlags> flags) {
+    public void cleanup(OpenContext ctx, IntFlags<CleanupFlags> flags) {
 
         verboseOut.printf("== CLEANUP == %s cf=%s%n", ctx, flags);
+        if (readOnly)
+            return; // nothing can have been modified
+
+        List<FileObj> released = new ArrayList<>();
         try {
             synchronized (objects) {
-                Path filePath = getPath(ctx.getPath());
-                MemoryObj memObj = getObject(filePath);
+                MemoryObj memObj = getObject(ctx);
+                MemoryObj mainObj = getMainObject(memObj);
 
-                if (flags.contains(CleanupFlags.SET_ARCHIVE_BIT) && memObj instanceof FileObj)
-                    memObj.getFileAttributes().add(FileAttributes.FILE_ATTRIBUTE_ARCHIVE);
+                if (flags.contains(CleanupFlags.SET_ARCHIVE_BIT) && mainObj instanceof FileObj)
+                    mainObj.setFileAttributes(mainObj.getFileAttributes().with(FileAttributes.FILE_ATTRIBUTE_ARCHIVE));
 
-                WinSysTime now = WinSysTime.now();
+                WinSysTime now = clock.now();
 
-                if (flags.contains(CleanupFlags.SET_LAST_ACCESS_TIME))
-                    memObj.setAccessTime(now);
+                if (flags.contains(CleanupFlags.SET_LAST_ACCESS_TIME)
+                        && accessTimePolicy.shouldUpdateOnCleanup(mainObj.getLastAccessTime().get(), now.get()))
+                    mainObj.setAccessTime(now);
 
                 if (flags.contains(CleanupFlags.SET_LAST_WRITE_TIME))
-                    memObj.setWriteTime(now);
+                    mainObj.setWriteTime(now);
 
                 if (flags.contains(CleanupFlags.SET_CHANGE_TIME))
-                    memObj.setChangeTime(now);
+                    mainObj.setChangeTime(now);
+
+                if (journal != null && (flags.contains(CleanupFlags.SET_ARCHIVE_BIT)
+                        || flags.contains(CleanupFlags.SET_LAST_ACCESS_TIME)
+                        || flags.contains(CleanupFlags.SET_LAST_WRITE_TIME)
+                        || flags.contains(CleanupFlags.SET_CHANGE_TIME)))
+                    journal.logMetadata(mainObj);
+
+                if (flags.contains(CleanupFlags.SET_ALLOCATION_SIZE) && memObj instanceof FileObj) {
+                    FileObj file = (FileObj) memObj;
+                    synchronized (file) { // see write
+                        int fileSize = file.getFileSize();
+                        file.adaptAllocationSize(fileSize);
+                        if (journal != null)
+                            journal.logResize(file, MemFSJournal.ADAPT_ALLOCATION_SIZE, fileSize);
+                    }
+                }
 
-                if (flags.contains(CleanupFlags.SET_ALLOCATION_SIZE) && memObj instanceof FileObj)
-                    ((FileObj) memObj).adaptAllocationSize(memObj.getFileSize());
+                if (memObj instanceof FileObj)
+                    ((FileObj) memObj).seal();
 
                 if (flags.contains(CleanupFlags.DELETE)) {
+                    // an object deleted meanwhile (e.g. with its directory, see deleteTree) has no name left to
+                    // delete, and its content is already freed
+                    if (!memObj.isLinked() || !mainObj.isLinked())
+                        return;
                     if (isNotEmptyDirectory(memObj))
                         return; // abort if trying to remove a non-empty directory
-                    removeObject(memObj.getPath());
+                    if (memObj instanceof NamedStream) {
+                        mainObj.removeNamedStream((NamedStream) memObj);
+                        if (journal != null)
+                            journal.logDeleteStream((NamedStream) memObj);
+                    } else {
+                        removeObject(memObj); // the content stays with the other names, if any
+                        if (journal != null)
+                            journal.logUnlink(getPathKey(memObj.getPath()), clock.now());
+                    }
+                    addUnlinkedContents(memObj, released);
 
                     verboseOut.println("== CLEANUP DELETED FILE/DIR ==");
                 }
@@ -257,6 +631,9 @@ public class WinFspMemFS extends WinFspStubFS {
         } catch (NTStatusException e) {
             // we have no way to pass an error status via cleanup
         }
+
+        // a large content is not freed while other operations wait for the lock
+        reclaimer.release(released);
     }
 
     @Override
@@ -270,13 +647,14 @@ public class WinFspMemFS extends WinFspStubFS {
 
         verboseOut.printf("== READ == %s off=%d len=%d%n", ctx.getPath(), offset, length);
 
-        final FileObj file;
-        synchronized (objects) {
-            Path filePath = getPath(ctx.getPath());
-            file = getFileObject(filePath);
-        }
+        final FileObj file = getFileObject(ctx);
 
         int bytesRead = file.read(pBuffer, offset, length);
+
+        // done outside of any lock; with the COARSE or stricter policies a read normally modifies nothing
+        if (accessTimePolicy.shouldUpdateOnRead(file.getLastAccessTime().get(), clock.nowFileTime()))
+            file.setAccessTime(clock.now());
+
         verboseOut.printf("== READ RETURNED == bytes=%d%n", bytesRead);
 
         return bytesRead;
@@ -293,18 +671,35 @@ public class WinFspMemFS extends WinFspStubFS {
         verboseOut.printf("== WRITE == %s off=%d len=%d writeToEnd=%s constrained=%s%n",
                 ctx.getPath(), offset, length, writeToEndOfFile, constrainedIo
         );
+        checkWritable();
 
-        final FileObj file;
-        synchronized (objects) {
-            Path filePath = getPath(ctx.getPath());
-            file = getFileObject(filePath);
-        }
+        final FileObj file = getFileObject(ctx);
+        checkNotDeleted(file);
 
         final long bytesTransferred;
-        if (constrainedIo)
-            bytesTransferred = file.constrainedWrite(pBuffer, offset, length);
-        else
-            bytesTransferred = file.write(pBuffer, offset, length, writeToEndOfFile);
+        if (journal == null) {
+            if (constrainedIo) {
+                bytesTransferred = file.constrainedWrite(pBuffer, offset, length);
+            } else {
+                checkGrowth(file, (writeToEndOfFile ? file.getFileSize() : offset) + length);
+                bytesTransferred = file.write(pBuffer, offset, length, writeToEndOfFile);
+            }
+        } else {
+            // the journal must get the changes to the content of a file in the order they are applied, so they are
+            // serialized (along with the other changes of the file size) and logged with their actual offset
+            synchronized (file) {
+                long writeOffset = writeToEndOfFile && !constrainedIo ? file.getFileSize() : offset;
+                if (!constrainedIo)
+                    checkGrowth(file, writeOffset + length);
+                int transferred = constrainedIo
+                        ? file.constrainedWrite(pBuffer, writeOffset, length)
+                        : file.write(pBuffer, writeOffset, length, false);
+
+                if (transferred > 0)
+                    journal.logWrite(file, writeOffset, pBuffer, transferred);
+                bytesTransferred = transferred;
+            }
+        }
 
         FileInfo info = file.generateFileInfo();
         verboseOut.printf("== WRITE RETURNED == bytes=%d %s%n", bytesTransferred, info);
@@ -315,18 +710,24 @@ public class WinFspMemFS extends WinFspStubFS {
     @Override
     public FileInfo flush(OpenContext ctx) throws NTStatusException {
         verboseOut.printf("== FLUSH == %s%n", ctx);
+        if (ctx == null) {
+            // whole volume is being flushed
+            commitJournal();
+            return null;
+        }
+
+        FileInfo info;
         synchronized (objects) {
-            if (ctx == null)
-                return null; // whole volume is being flushed
+            FileObj obj = getFileObject(ctx);
+            obj.seal();
 
-            Path filePath = getPath(ctx.getPath());
-            MemoryObj obj = getFileObject(filePath);
+            info = obj.generateFileInfo();
+        }
 
-            FileInfo info = obj.generateFileInfo();
-            verboseOut.printf("== FLUSH RETURNED == %s%n", info);
+        commitJournal(); // outside of the lock: other operations can be logged (and committed along) meanwhile
+        verboseOut.printf("== FLUSH RETURNED == %s%n", info);
 
-            return info;
-        }
+        return info;
     }
 
     @Override
@@ -334,8 +735,7 @@ public class WinFspMemFS extends WinFspStubFS {
 
         verboseOut.printf("== GET FILE INFO == %s%n", ctx);
         synchronized (objects) {
-            Path filePath = getPath(ctx.getPath());
-            MemoryObj obj = getObject(filePath);
+            MemoryObj obj = getObject(ctx);
 
             FileInfo info = obj.generateFileInfo();
             verboseOut.printf("== GET FILE INFO RETURNED == %s%n", info);
@@ -346,7 +746,7 @@ public class WinFspMemFS extends WinFspStubFS {
 
     @Override
     public FileInfo setBasicInfo(OpenContext ctx,
-                                 Set<FileAttributes> fileAttributes,
+                                 IntFlags<FileAttributes> fileAttributes,
                                  WinSysTime creationTime,
                                  WinSysTime lastAccessTime,
                                  WinSysTime lastWriteTime,
@@ -355,22 +755,24 @@ public class WinFspMemFS extends WinFspStubFS {
         verboseOut.printf("== SET BASIC INFO == %s fa=%s ct=%s ac=%s wr=%s ch=%s%n",
                 ctx, fileAttributes, creationTime, lastAccessTime, lastWriteTime, changeTime
         );
+        checkWritable();
         synchronized (objects) {
-            Path filePath = getPath(ctx.getPath());
-            MemoryObj obj = getObject(filePath);
+            MemoryObj obj = getObject(ctx);
+            MemoryObj mainObj = getMainObject(obj);
 
             if (!fileAttributes.contains(FileAttributes.INVALID_FILE_ATTRIBUTES)) {
-                obj.getFileAttributes().clear();
-                obj.getFileAttributes().addAll(fileAttributes);
+                mainObj.setFileAttributes(fileAttributes);
             }
             if (creationTime.get() != 0)
-                obj.setCreationTime(creationTime);
+                mainObj.setCreationTime(creationTime);
             if (lastAccessTime.get() != 0)
-                obj.setAccessTime(lastAccessTime);
+                mainObj.setAccessTime(lastAccessTime);
             if (lastWriteTime.get() != 0)
-                obj.setWriteTime(lastWriteTime);
+                mainObj.setWriteTime(lastWriteTime);
             if (changeTime.get() != 0)
-                obj.setChangeTime(changeTime);
+                mainObj.setChangeTime(changeTime);
+            if (journal != null)
+                journal.logMetadata(mainObj);
 
             FileInfo info = obj.generateFileInfo();
             verboseOut.printf("== SET BASIC INFO RETURNED == %s%n", info);
@@ -384,14 +786,24 @@ public class WinFspMemFS extends WinFspStubFS {
             throws NTStatusException {
 
         verboseOut.printf("== SET FILE SIZE == %s size=%d setAlloc=%s%n", ctx.getPath(), newSize, setAllocationSize);
+        checkWritable();
         synchronized (objects) {
-            Path filePath = getPath(ctx.getPath());
-            FileObj file = getFileObject(filePath);
-
-            if (setAllocationSize)
-                file.setAllocationSize(Math.toIntExact(newSize));
-            else
-                file.setFileSize(Math.toIntExact(newSize));
+            FileObj file = getFileObject(ctx);
+            checkNotDeleted(file);
+            checkGrowth(file, newSize);
+
+            synchronized (file) { // see write
+                if (setAllocationSize)
+                    file.setAllocationSize(Math.toIntExact(newSize));
+                else
+                    file.setFileSize(Math.toIntExact(newSize));
+
+                if (journal != null) {
+                    journal.logResize(file,
+                            setAllocationSize ? MemFSJournal.SET_ALLOCATION_SIZE : MemFSJournal.SET_FILE_SIZE,
+                            Math.toIntExact(newSize));
+                }
+            }
 
             FileInfo info = file.generateFileInfo();
             verboseOut.printf("== SET FILE SIZE RETURNED == %s%n", info);
@@ -404,9 +816,9 @@ public class WinFspMemFS extends WinFspStubFS {
     public void canDelete(OpenContext ctx) throws NTStatusException {
 
         verboseOut.printf("== CAN DELETE == %s%n", ctx);
+        checkWritable();
         synchronized (objects) {
-            Path filePath = getPath(ctx.getPath());
-            MemoryObj memObj = getObject(filePath);
+            MemoryObj memObj = getObject(ctx);
 
             if (isNotEmptyDirectory(memObj))
                 throw new NTStatusException(0xC0000101); // STATUS_DIRECTORY_NOT_EMPTY
@@ -420,32 +832,124 @@ public class WinFspMemFS extends WinFspStubFS {
             throws NTStatusException {
 
         verboseOut.printf("== RENAME == %s -> %s%n", oldFileName, newFileName);
+        checkWritable();
+        List<FileObj> released = new ArrayList<>(); // the content of a replaced file
         synchronized (objects) {
+            if (StreamName.parse(oldFileName).streamName != null || StreamName.parse(newFileName).streamName != null)
+                throw new NTStatusException(0xC00000BB); // STATUS_NOT_SUPPORTED
+
             Path oldFilePath = getPath(oldFileName);
             Path newFilePath = getPath(newFileName);
-
-            if (hasObject(newFilePath) && !oldFileName.equals(newFileName)) {
+            MemoryObj obj = getObject(oldFilePath);
+            DirObj oldParent = obj.getParent();
+            DirObj newParent = getParentObject(newFilePath);
+            if (oldParent == null || (obj instanceof DirObj && Namespace.isInSubtree(newParent, (DirObj) obj)))
+                throw new NTStatusException(0xC000000D); // STATUS_INVALID_PARAMETER
+
+            MemoryObj newMemObj = objects.get(newFilePath);
+            if (newMemObj != null && newMemObj != obj) {
                 if (!replaceIfExists)
                     throw new NTStatusException(0xC0000035); // STATUS_OBJECT_NAME_COLLISION
 
-                MemoryObj newMemObj = getObject(newFilePath);
                 if (newMemObj instanceof DirObj)
                     throw new NTStatusException(0xC0000022); // STATUS_ACCESS_DENIED
-            }
 
-            // Rename file or directory (and all existing descendants)
-            for (var obj : List.copyOf(objects.values())) {
-                if (obj.getPath().startsWith(oldFilePath)) {
-                    Path relativePath = oldFilePath.relativize(obj.getPath());
-                    Path newObjPath = newFilePath.resolve(relativePath);
-                    MemoryObj newObj = removeObject(obj.getPath());
-                    newObj.setPath(newObjPath);
-                    putObject(newObj);
-                }
+                removeObject(newMemObj);
+                addUnlinkedContents(newMemObj, released);
             }
 
+            // Rename file or directory: its descendants follow, since their paths derive from it
+            oldParent.touch();
+            objects.move(obj, newParent, newFilePath.getFileName().toString());
+            newParent.touch();
+
+            // the contents moved to other directories are charged to their quotas (if the quotas of the directories
+            // containing the subtree changed, every content in it is charged again)
+            if (quotaCount > 0 && !Arrays.equals(getQuotas(oldParent), getQuotas(newParent)))
+                Namespace.forEach(obj, this::updateQuotas);
+
+            if (journal != null)
+                journal.logRename(getPathKey(oldFilePath), getPathKey(newFilePath), clock.now());
+
             verboseOut.println("== RENAME RETURNED ==");
         }
+
+        reclaimer.release(released);
+    }
+
+    /**
+     * Deletes a directory with all the files and directories it contains, at once. The namespace is updated right
+     * away, while the contents of the deleted files are freed in the background (see {@link #cleanup}).
+     * <p>
+     * This is much faster than deleting the files one by one, as Windows does (e.g. for {@code rmdir /s}), e.g. to
+     * clear a scratch directory. Files of the tree that are still open are deleted too, and their contents emptied.
+     *
+     * @param directoryName The name of the directory, which cannot be the root directory
+     */
+    public void deleteTree(String directoryName) throws NTStatusException {
+
+        verboseOut.printf("== DELETE TREE == %s%n", directoryName);
+        checkWritable();
+        List<FileObj> contents = new ArrayList<>();
+        int count;
+        synchronized (objects) {
+            DirObj dir = getDirObject(getPath(directoryName));
+            if (dir.getParent() == null)
+                throw new NTStatusException(0xC0000022); // STATUS_ACCESS_DENIED
+
+            List<MemoryObj> removed = objects.removeTree(dir);
+            for (MemoryObj obj : removed)
+                addUnlinkedContents(obj, contents);
+            dir.touchParent();
+            count = removed.size();
+
+            if (journal != null)
+                journal.logUnlink(getPathKey(dir.getPath()), clock.now());
+        }
+
+        reclaimer.release(contents);
+        verboseOut.printf("== DELETE TREE RETURNED == %d objects%n", count);
+    }
+
+    /**
+     * Creates a new name (hard link) for an existing file. Both names share the same content and metadata, and the
+     * content is only released when the last name is deleted.
+     * <p>
+     * WinFsp does not pass hard link creation requests (FileLinkInformation) on to file systems, so this method is
+     * the way to create hard links in this file system, e.g. when populating it.
+     *
+     * @param existingFileName The name of the existing file
+     * @param newFileName      The new name for the file
+     */
+    public void createHardLink(String existingFileName, String newFileName) throws NTStatusException {
+
+        verboseOut.printf("== CREATE HARD LINK == %s -> %s%n", newFileName, existingFileName);
+        checkWritable();
+        synchronized (objects) {
+            if (StreamName.parse(existingFileName).streamName != null || StreamName.parse(newFileName).streamName != null)
+                throw new NTStatusException(0xC00000BB); // STATUS_NOT_SUPPORTED
+
+            FileObj file = getFileObject(getPath(existingFileName));
+            Path newFilePath = getPath(newFileName);
+
+            if (hasObject(newFilePath))
+                throw new NTStatusException(0xC0000035); // STATUS_OBJECT_NAME_COLLISION
+
+            DirObj parent = getParentObject(newFilePath);
+
+            if (file.getHardLinks() >= MAX_HARD_LINKS)
+                throw new NTStatusException(0xC0000265); // STATUS_TOO_MANY_LINKS
+
+            putObject(new FileObj(parent, newFilePath, file));
+            file.setChangeTime(clock.now());
+
+            if (journal != null) {
+                journal.logLink(file, getPathKey(newFilePath), clock.now());
+                journal.logMetadata(file);
+            }
+
+            verboseOut.println("== CREATE HARD LINK RETURNED ==");
+        }
     }
 
     @Override
@@ -453,8 +957,7 @@ public class WinFspMemFS extends WinFspStubFS {
 
         verboseOut.printf("== GET SECURITY == %s%n", ctx);
         synchronized (objects) {
-            Path filePath = getPath(ctx.getPath());
-            MemoryObj memObj = getObject(filePath);
+            MemoryObj memObj = getMainObject(getObject(ctx));
 
             byte[] securityDescriptor = memObj.getSecurityDescriptor();
             verboseOut.printf(
@@ -475,10 +978,12 @@ public class WinFspMemFS extends WinFspStubFS {
                 ctx,
                 SecurityDescriptorHandler.securityDescriptorToString(securityDescriptor)
         );
+        checkWritable();
         synchronized (objects) {
-            Path filePath = getPath(ctx.getPath());
-            MemoryObj memObj = getObject(filePath);
+            MemoryObj memObj = getMainObject(getObject(ctx));
             memObj.setSecurityDescriptor(securityDescriptor);
+            if (journal != null)
+                journal.logMetadata(memObj);
 
             verboseOut.println("== SET SECURITY RETURNED ==");
         }
@@ -492,8 +997,7 @@ public class WinFspMemFS extends WinFspStubFS {
 
         verboseOut.printf("== READ DIRECTORY == %s pa=%s ma=%s%n", ctx.getPath(), pattern, marker);
         synchronized (objects) {
-            Path filePath = getPath(ctx.getPath());
-            DirObj dir = getDirObject(filePath);
+            DirObj dir = getDirObject(ctx);
 
             // only add the "." and ".." entries if the directory is not root
             if (!dir.getPath().equals(rootPath)) {
@@ -501,28 +1005,35 @@ public class WinFspMemFS extends WinFspStubFS {
                     if (!consumer.test(dir.generateFileInfo(".")))
                         return;
                 if (marker == null || marker.equals(".")) {
-                    DirObj parentDir = getParentObject(filePath);
+                    DirObj parentDir = dir.getParent();
                     if (!consumer.test(parentDir.generateFileInfo("..")))
                         return;
                     marker = null;
                 }
             }
 
-            final String finalMarker = marker;
-            objects.values().stream()
-                    .filter(obj -> obj.getParent() != null &&
-                            obj.getParent().getPath().equals(dir.getPath()))
-                    .sorted(Comparator.comparing(MemoryObj::getName, NATURAL_ORDER))
-                    .dropWhile(obj -> isBeforeMarker(obj.getName(), finalMarker))
-                    .map(obj -> obj.generateFileInfo(obj.getName()))
-                    .takeWhile(consumer)
-                    .forEach(o -> {
-                    });
-        }
-    }
+            // a listing without a marker (re)starts the enumeration; continuations reuse the snapshot taken then
+            DirectorySnapshot snapshot = ctx.getDirectoryListing() instanceof DirectorySnapshot
+                    ? (DirectorySnapshot) ctx.getDirectoryListing()
+                    : null;
+            if (snapshot == null || marker == null) {
+                snapshot = new DirectorySnapshot(dir.getChildren(), NATURAL_ORDER);
+                ctx.setDirectoryListing(snapshot);
+            }
 
-    private static boolean isBeforeMarker(String name, String marker) {
-        return marker != null && NATURAL_ORDER.compare(name, marker) <= 0;
+            // skip the entries that do not match the pattern before generating their info
+            // (WinFsp filters them again, so a case-insensitive match is enough)
+            final FileNamePattern namePattern = FileNamePattern.compile(pattern);
+            for (int i = snapshot.indexAfter(marker); i < snapshot.size(); i++) {
+                String name = snapshot.getName(i);
+                if (!namePattern.matches(name))
+                    continue;
+
+                MemoryObj obj = snapshot.getEntry(i);
+                if (obj != null && !consumer.test(obj.generateFileInfo(name)))
+                    return;
+            }
+        }
     }
 
     @Override
@@ -531,11 +1042,11 @@ public class WinFspMemFS extends WinFspStubFS {
 
         verboseOut.printf("== GET DIR INFO BY NAME == %s / %s%n", parentDirCtx.getPath(), fileName);
         synchronized (objects) {
-            Path parentDirPath = getPath(parentDirCtx.getPath());
-            getDirObject(parentDirPath); // ensure parent directory exists
+            DirObj parentDir = getDirObject(parentDirCtx); // ensure parent directory exists
 
-            Path filePath = parentDirPath.resolve(fileName).normalize();
-            MemoryObj memObj = getObject(filePath);
+            MemoryObj memObj = parentDir.getChild(fileName);
+            if (memObj == null)
+                throw new NTStatusException(0xC0000034); // STATUS_OBJECT_NAME_NOT_FOUND
 
             FileInfo info = memObj.generateFileInfo(memObj.getName());
             verboseOut.printf("== GET DIR INFO BY NAME RETURNED == %s%n", info);
@@ -544,12 +1055,32 @@ public class WinFspMemFS extends WinFspStubFS {
         }
     }
 
+    @Override
+    public void getStreamInfo(OpenContext ctx, Predicate<StreamInfo> consumer) throws NTStatusException {
+
+        verboseOut.printf("== GET STREAM INFO == %s%n", ctx);
+        synchronized (objects) {
+            MemoryObj mainObj = getMainObject(getObject(ctx));
+
+            // directories have no main (unnamed) stream
+            if (mainObj instanceof FileObj) {
+                if (!consumer.test(new StreamInfo("", mainObj.getFileSize(), mainObj.getAllocationSize())))
+                    return;
+            }
+
+            for (NamedStream stream : mainObj.getNamedStreams()) {
+                var info = new StreamInfo(stream.getStreamName(), stream.getFileSize(), stream.getAllocationSize());
+                if (!consumer.test(info))
+                    return;
+            }
+        }
+    }
+
     @Override
     public byte[] getReparsePointData(OpenContext ctx) throws NTStatusException {
         verboseOut.printf("== GET REPARSE POINT DATA == %s%n", ctx);
         synchronized (objects) {
-            Path filePath = getPath(ctx.getPath());
-            MemoryObj memObj = getObject(filePath);
+            MemoryObj memObj = getMainObject(getObject(ctx));
 
             if (!memObj.getFileAttributes().contains(FileAttributes.FILE_ATTRIBUTE_REPARSE_POINT))
                 throw new NTStatusException(0xC0000275); // STATUS_NOT_A_REPARSE_POINT
@@ -566,45 +1097,95 @@ public class WinFspMemFS extends WinFspStubFS {
         verboseOut.printf("== SET REPARSE POINT == %s rd=%s rt=%d%n",
                 ctx, Arrays.toString(reparseData), reparseTag
         );
+        checkWritable();
         synchronized (objects) {
-            Path filePath = getPath(ctx.getPath());
-            MemoryObj memObj = getObject(filePath);
+            MemoryObj memObj = getMainObject(getObject(ctx));
 
             if (isNotEmptyDirectory(memObj))
                 throw new NTStatusException(0xC0000101); // STATUS_DIRECTORY_NOT_EMPTY
 
             memObj.setReparseData(reparseData);
             memObj.setReparseTag(reparseTag);
-            memObj.getFileAttributes().add(FileAttributes.FILE_ATTRIBUTE_REPARSE_POINT);
+            memObj.setFileAttributes(memObj.getFileAttributes().with(FileAttributes.FILE_ATTRIBUTE_REPARSE_POINT));
+            if (journal != null)
+                journal.logMetadata(memObj);
         }
     }
 
     @Override
     public void deleteReparsePoint(OpenContext ctx) throws NTStatusException {
         verboseOut.printf("== DELETE REPARSE POINT == %s%n", ctx);
+        checkWritable();
         synchronized (objects) {
-            Path filePath = getPath(ctx.getPath());
-            MemoryObj memObj = getObject(filePath);
+            MemoryObj memObj = getMainObject(getObject(ctx));
 
             if (!memObj.getFileAttributes().contains(FileAttributes.FILE_ATTRIBUTE_REPARSE_POINT))
                 throw new NTStatusException(0xC0000275); // STATUS_NOT_A_REPARSE_POINT
 
             memObj.setReparseData(null);
             memObj.setReparseTag(0);
-            memObj.getFileAttributes().remove(FileAttributes.FILE_ATTRIBUTE_REPARSE_POINT);
+            memObj.setFileAttributes(memObj.getFileAttributes().without(FileAttributes.FILE_ATTRIBUTE_REPARSE_POINT));
+            if (journal != null)
+                journal.logMetadata(memObj);
         }
     }
 
-    private boolean isNotEmptyDirectory(MemoryObj dir) {
-        if (dir instanceof DirObj) {
-            for (var obj : objects.values()) {
-                if (obj.getPath().startsWith(dir.getPath())
-                        && !obj.getPath().equals(dir.getPath()))
-                    return true;
-            }
+    @Override
+    public ExtendedAttributes getEa(OpenContext ctx) throws NTStatusException {
+        verboseOut.printf("== GET EA == %s%n", ctx);
+
+        // the extended attributes are immutable, so no lock is needed to read them
+        ExtendedAttributes extendedAttributes = getMainObject(getObject(ctx)).getExtendedAttributes();
+        verboseOut.printf("== GET EA RETURNED == %s%n", extendedAttributes);
+
+        return extendedAttributes;
+    }
+
+    @Override
+    public FileInfo setEa(OpenContext ctx, ExtendedAttributes changes) throws NTStatusException {
+        verboseOut.printf("== SET EA == %s ea=%s%n", ctx, changes);
+        checkWritable();
+        synchronized (objects) {
+            MemoryObj memObj = getObject(ctx);
+            MemoryObj mainObj = getMainObject(memObj);
+
+            mainObj.setExtendedAttributes(mainObj.getExtendedAttributes().with(changes));
+            mainObj.setChangeTime(clock.now());
+            if (journal != null)
+                journal.logMetadata(mainObj);
+
+            FileInfo info = memObj.generateFileInfo();
+            verboseOut.printf("== SET EA RETURNED == %s%n", info);
+
+            return info;
         }
+    }
+
+    private static boolean isNotEmptyDirectory(MemoryObj dir) {
+        return dir instanceof DirObj && ((DirObj) dir).hasChildren();
+    }
+
+    // a node resolved by an earlier call can be reused if it is still in the namespace under the same name
+    private static boolean isResolved(MemoryObj obj, String fileName) {
+        if (obj instanceof NamedStream) {
+            NamedStream stream = (NamedStream) obj;
+            return stream.isLinked() && isResolved(stream.getMainObj(), fileName, stream.getStreamName());
+        }
+
+        return obj.isLinked() && obj.getPath().toString().equals(fileName);
+    }
 
-        return false;
+    private static boolean isResolved(MemoryObj mainObj, String fileName, String streamName) {
+        String mainName = mainObj.getPath().toString();
+        return mainObj.isLinked()
+                && fileName.length() == mainName.length() + 1 + streamName.length()
+                && fileName.startsWith(mainName)
+                && fileName.charAt(mainName.length()) == ':'
+                && fileName.endsWith(streamName);
+    }
+
+    private static boolean isResolved(MemoryObj obj, Path filePath) {
+        return obj.isLinked() && obj.getPath().equals(filePath);
     }
 
     private Path getPath(String filePath) {
@@ -616,11 +1197,11 @@ public class WinFspMemFS extends WinFspStubFS {
     }
 
     private boolean hasObject(Path filePath) {
-        return objects.containsKey(getPathKey(filePath));
+        return objects.contains(filePath);
     }
 
     private MemoryObj getObject(Path filePath) throws NTStatusException {
-        MemoryObj obj = objects.get(getPathKey(filePath));
+        MemoryObj obj = objects.get(filePath);
         if (obj == null) {
             getParentObject(filePath); // may throw exception with different status code
             throw new NTStatusException(0xC0000034); // STATUS_OBJECT_NAME_NOT_FOUND
@@ -630,7 +1211,7 @@ public class WinFspMemFS extends WinFspStubFS {
     }
 
     private DirObj getParentObject(Path filePath) throws NTStatusException {
-        MemoryObj parentObj = objects.get(getPathKey(filePath.getParent()));
+        MemoryObj parentObj = objects.get(filePath.getParent());
         if (parentObj == null)
             throw new NTStatusException(0xC000003A); // STATUS_OBJECT_PATH_NOT_FOUND
         if (!(parentObj instanceof DirObj))
@@ -640,15 +1221,215 @@ public class WinFspMemFS extends WinFspStubFS {
     }
 
     private void putObject(MemoryObj obj) {
-        objects.put(getPathKey(obj.getPath()), obj);
+        objects.put(obj);
         obj.touchParent();
     }
 
-    private MemoryObj removeObject(Path filePath) {
-        MemoryObj obj = objects.remove(getPathKey(filePath));
-        if (obj != null)
-            obj.touchParent();
-        return obj;
+    private void removeObject(MemoryObj obj) {
+        objects.remove(obj);
+        obj.touchParent();
+    }
+
+    // runs periodically on the compactor thread: a file is compressed if it was not accessed during a whole period
+    // (the files are compressed outside of the file system lock)
+    private void compressColdFiles() {
+        List<FileObj> files = new ArrayList<>();
+        synchronized (objects) {
+            objects.forEach(obj -> {
+                if (obj instanceof FileObj)
+                    files.add((FileObj) obj);
+                files.addAll(obj.getNamedStreams());
+            });
+        }
+
+        int count = 0;
+        for (FileObj file : files) {
+            if (Thread.currentThread().isInterrupted())
+                return;
+            if (file.isLinked() && file.compressIfCold(deflater))
+                count++;
+        }
+
+        if (count > 0)
+            verboseOut.printf("== COMPRESSED %d COLD FILES ==%n", count);
+    }
+
+    // runs periodically on a journal thread (flushes commit sooner)
+    private void groupCommit() {
+        try {
+            journal.commit();
+        } catch (IOException e) {
+            // the journal keeps the failure, after which the file system rejects changes
+        }
+    }
+
+    // runs periodically on a journal thread
+    private void checkpointIfNeeded() {
+        if (journal.hasFailed() || !journal.needsCheckpoint())
+            return;
+
+        try {
+            long start = System.nanoTime();
+            checkpoint();
+            verboseOut.printf("== CHECKPOINT WRITTEN == %d ms%n",
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (IOException e) {
+            // the logs are kept until a checkpoint succeeds
+            verboseOut.printf("== CHECKPOINT FAILED == %s%n", e);
+        }
+    }
+
+    // writes the whole file system to a checkpoint, which replaces the logs written until now
+    private void checkpoint() throws IOException {
+        MemFSSnapshot snapshot;
+        long generation;
+        synchronized (objects) {
+            // the changes logged from now on go to a new log, and the snapshot includes all the earlier ones
+            generation = journal.rotate();
+            snapshot = takeSnapshot();
+        }
+
+        journal.writeCheckpoint(snapshot, generation);
+    }
+
+    private void commitJournal() throws NTStatusException {
+        if (journal == null)
+            return;
+
+        try {
+            journal.commit();
+        } catch (IOException e) {
+            throw new NTStatusException(0xC0000185); // STATUS_IO_DEVICE_ERROR
+        }
+    }
+
+    private void checkWritable() throws NTStatusException {
+        if (readOnly)
+            throw new NTStatusException(0xC00000A2); // STATUS_MEDIA_WRITE_PROTECTED
+        if (journal != null && journal.hasFailed())
+            throw new NTStatusException(0xC0000185); // STATUS_IO_DEVICE_ERROR
+    }
+
+    private FileData newFileData() {
+        return chunkStore != null ? new ChunkedFileData(chunkStore) : new ArrayFileData();
+    }
+
+    // checks that the content of a file was not freed, as happens to a file deleted while open (with its directory,
+    // see deleteTree)
+    private static void checkNotDeleted(FileObj file) throws NTStatusException {
+        if (file.isReleased())
+            throw new NTStatusException(0xC0000123); // STATUS_FILE_DELETED
+    }
+
+    // checks that the content of a file can grow to the given size
+    private void checkGrowth(FileObj file, long newSize) throws NTStatusException {
+        if (newSize > MAX_FILE_SIZE)
+            throw new NTStatusException(0xC000007F); // STATUS_DISK_FULL
+        capacity.checkGrowth(file.getCharge().getQuotas(), newSize - file.getAllocationSize());
+    }
+
+    // the quotas of a directory and of its ancestors; must be called while holding the file system lock
+    private VolumeCapacity.DirectoryQuota[] getQuotas(DirObj dir) {
+        if (quotaCount == 0)
+            return VolumeCapacity.NO_QUOTAS;
+
+        List<VolumeCapacity.DirectoryQuota> quotas = new ArrayList<>();
+        for (DirObj d = dir; d != null; d = d.getParent()) {
+            if (d.quota != null)
+                quotas.add(d.quota);
+        }
+        return quotas.toArray(VolumeCapacity.NO_QUOTAS);
+    }
+
+    // the quotas to which the contents of an object (including its named streams) are charged
+    private VolumeCapacity.DirectoryQuota[] getContentQuotas(MemoryObj obj) {
+        return getQuotas(obj instanceof DirObj ? (DirObj) obj : obj.getParent());
+    }
+
+    // must be called while holding the file system lock
+    private void updateQuotas(MemoryObj obj) {
+        VolumeCapacity.DirectoryQuota[] quotas = getContentQuotas(obj);
+        if (obj instanceof FileObj)
+            ((FileObj) obj).getCharge().setQuotas(quotas);
+        for (NamedStream stream : obj.getNamedStreams())
+            stream.getCharge().setQuotas(quotas);
+    }
+
+    // starts charging the contents of all the objects (which were not created by this file system) to its capacity
+    private void trackContents() {
+        objects.forEach(obj -> {
+            VolumeCapacity.DirectoryQuota[] quotas = getContentQuotas(obj);
+            if (obj instanceof FileObj)
+                capacity.track(((FileObj) obj).getCharge(), obj.getAllocationSize(), quotas);
+            for (NamedStream stream : obj.getNamedStreams())
+                capacity.track(stream.getCharge(), stream.getAllocationSize(), quotas);
+        });
+    }
+
+    // adds the content of an object (and of its named streams) to the given list if its last name is gone, to be
+    // freed by the reclaimer
+    private static void addUnlinkedContents(MemoryObj obj, List<FileObj> contents) {
+        if (obj.getHardLinks() > 0)
+            return;
+
+        if (obj instanceof FileObj)
+            contents.add((FileObj) obj);
+        contents.addAll(obj.getNamedStreams());
+    }
+
+    // frees the content of an object (and of its named streams) once its last name is gone
+    static void releaseIfUnlinked(MemoryObj obj) {
+        if (obj.getHardLinks() > 0)
+            return;
+
+        if (obj instanceof FileObj)
+            ((FileObj) obj).release();
+        for (NamedStream stream : obj.getNamedStreams())
+            stream.release();
+    }
+
+    private MemoryObj getObject(StreamName name) throws NTStatusException {
+        MemoryObj mainObj = getObject(getPath(name.mainName));
+        if (name.streamName == null)
+            return mainObj;
+
+        NamedStream stream = mainObj.getNamedStream(name.streamName);
+        if (stream == null)
+            throw new NTStatusException(0xC0000034); // STATUS_OBJECT_NAME_NOT_FOUND
+
+        return stream;
+    }
+
+    // attributes, times, security and extended attributes of a named stream are those of its file
+    private static MemoryObj getMainObject(MemoryObj obj) {
+        return obj instanceof NamedStream ? ((NamedStream) obj).getMainObj() : obj;
+    }
+
+    // the node bound to an open handle is used directly; the path is only looked up for handles without one
+    private MemoryObj getObject(OpenContext ctx) throws NTStatusException {
+        Object node = ctx.getNode();
+        if (node instanceof MemoryObj)
+            return (MemoryObj) node;
+
+        synchronized (objects) {
+            return getObject(getPath(ctx.getPath()));
+        }
+    }
+
+    private FileObj getFileObject(OpenContext ctx) throws NTStatusException {
+        MemoryObj obj = getObject(ctx);
+        if (!(obj instanceof FileObj))
+            throw new NTStatusException(0xC00000BA); // STATUS_FILE_IS_A_DIRECTORY
+
+        return (FileObj) obj;
+    }
+
+    private DirObj getDirObject(OpenContext ctx) throws NTStatusException {
+        MemoryObj obj = getObject(ctx);
+        if (!(obj instanceof DirObj))
+            throw new NTStatusException(0xC0000103); // STATUS_NOT_A_DIRECTORY
+
+        return (DirObj) obj;
     }
 
     private FileObj getFileObject(Path filePath) throws NTStatusException {
@@ -667,20 +1448,85 @@ public class WinFspMemFS extends WinFspStubFS {
         return (DirObj) obj;
     }
 
+    /**
+     * Limits the space allocated to the contents of the files in a directory and in its subdirectories. Creating,
+     * writing or extending a file that would exceed the quota fails with STATUS_DISK_FULL. The contents already in
+     * the directory are charged to the quota, even if they exceed it.
+     * <p>
+     * Quotas are kept in memory only: they are neither persisted nor copied to snapshots.
+     *
+     * @param directoryName The name of the directory
+     * @param quota         The maximum number of bytes, or -1 to remove the quota of the directory
+     */
+    public void setDirectoryQuota(String directoryName, long quota) throws NTStatusException {
+        verboseOut.printf("== SET DIRECTORY QUOTA == %s %d%n", directoryName, quota);
+        synchronized (objects) {
+            DirObj dir = getDirObject(getPath(directoryName));
+            if (dir.quota != null)
+                quotaCount--;
+
+            dir.quota = quota >= 0 ? new VolumeCapacity.DirectoryQuota(quota) : null;
+            if (dir.quota != null)
+                quotaCount++;
+
+            Namespace.forEach(dir, this::updateQuotas);
+        }
+    }
+
+    /**
+     * The space allocated to the contents charged to the quota of a directory (see {@link #setDirectoryQuota}), or
+     * -1 if the directory has no quota.
+     */
+    public long getDirectoryQuotaUsage(String directoryName) throws NTStatusException {
+        synchronized (objects) {
+            VolumeCapacity.DirectoryQuota quota = getDirObject(getPath(directoryName)).quota;
+            return quota != null ? quota.getUsedBytes() : -1;
+        }
+    }
+
+    /**
+     * The ratio between the size of the file contents and the memory they use, when deduplication is enabled
+     * (see {@link MemFSOptions#setDeduplication(boolean)}); 1 otherwise.
+     */
+    public double getDeduplicationRatio() {
+        return chunkStore != null ? chunkStore.getDeduplicationRatio() : 1.0;
+    }
+
+    // does not need the file system lock
     private VolumeInfo generateVolumeInfo() {
-        return new VolumeInfo(
-                MAX_FILE_NODES * MAX_FILE_SIZE,
-                (MAX_FILE_NODES - objects.size()) * MAX_FILE_SIZE,
-                this.volumeLabel
-        );
+        return new VolumeInfo(capacity.getTotalSize(), capacity.getFreeBytes(), this.volumeLabel);
     }
 
-    private long getNextFileHandle() {
-        long fh;
-        do {
-            fh = nextFileHandle.incrementAndGet();
-        } while (fh == 0L || (int) fh == 0); // ensure we never get a 0 value, either in 32-bit or 64-bit arch
+    /**
+     * A file name split into the name of the file and the name of one of its streams ("file:stream[:$DATA]").
+     */
+    private static final class StreamName {
+        final String mainName;
+        final String streamName; // null for the main stream
 
-        return fh;
+        private StreamName(String mainName, String streamName) {
+            this.mainName = mainName;
+            this.streamName = streamName;
+        }
+
+        static StreamName parse(String fileName) throws NTStatusException {
+            int colon = fileName.indexOf(':');
+            if (colon < 0)
+                return new StreamName(fileName, null);
+
+            String streamName = fileName.substring(colon + 1);
+            int typeColon = streamName.indexOf(':');
+            if (typeColon >= 0) {
+                if (!streamName.substring(typeColon + 1).equalsIgnoreCase("$DATA"))
+                    throw new NTStatusException(0xC0000033); // STATUS_OBJECT_NAME_INVALID
+                streamName = streamName.substring(0, typeColon);
+            }
+
+            return new StreamName(fileName.substring(0, colon), streamName.isEmpty() ? null : streamName);
+        }
+    }
+
+    private long getNextFileHandle() {
+        return fileHandles.next(); // never a 0 value, either in 32-bit or 64-bit arch
     }
 }